@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares the heap held by the log index against the list of Paths and
+ * Instants it replaced.
+ *
+ * Prints the total and per file bytes for a few archive sizes.  The optional
+ * argument is the largest number of files to try.
+ *
+ * @author Kervin Pierre
+ */
+public final class LogIndexFootprint
+{
+    private static final long START_MILLIS = Instant.parse("2016-01-13T12:00:00Z").toEpochMilli();
+    private static final long LOG_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    public static void main(String[] args)
+    {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Paths.get("e:/backups/northwinddb");
+
+        System.out.println(String.format("%10s %16s %10s %16s %10s",
+                "files", "list bytes", "per file", "index bytes", "per file"));
+
+        for (int count = 1000; count <= max; count *= 10)
+        {
+            // The old catalog, a Path per file and an Instant per timestamp
+            List<Path> paths = new ArrayList<>();
+            List<Instant> times = new ArrayList<>();
+
+            LogIndex.Builder builder = new LogIndex.Builder(Collections.singletonList(dir));
+
+            for (int i = 0; i < count; i++)
+            {
+                long millis = START_MILLIS + i * LOG_INTERVAL_MILLIS;
+                String name = String.format("northwinddb_%tY%<tm%<td%<tH%<tM%<tS.trn", millis);
+
+                paths.add(dir.resolve(name));
+                times.add(Instant.ofEpochMilli(millis));
+
+                builder.add(0, name, millis, 1024L * 1024L);
+            }
+
+            LogIndex index = builder.build();
+
+            // The directory is shared by every entry either way
+            long dirBytes = GraphLayout.parseInstance(dir).totalSize();
+            long listBytes = GraphLayout.parseInstance(paths, times).totalSize() - dirBytes;
+            long indexBytes = GraphLayout.parseInstance(index).totalSize() - dirBytes;
+
+            System.out.println(String.format("%10d %16d %10d %16d %10d",
+                    count, listBytes, listBytes / count, indexBytes, indexBytes / count));
+        }
+    }
+}
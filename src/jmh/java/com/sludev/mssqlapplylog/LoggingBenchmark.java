@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of logging on the restore thread.
+ *
+ * Compares a disabled debug message built with String.format against a
+ * parameterized one, and the cost to the caller of an enabled message and a
+ * restore event record.  "sync" writes straight to a file, as the old
+ * log4j2.xml did to the console.  "async" hands off to a background appender,
+ * as the bundled log4j2.xml does now.
+ *
+ * Run with "-prof gc" to compare allocation as well.
+ *
+ * @author Kervin Pierre
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggingBenchmark
+{
+    private static final String APPENDER_SYNC
+            = "<File name='Out' fileName='%s' immediateFlush='true'>"
+            + "<PatternLayout pattern='%%d{HH:mm:ss.SSS} [%%t] %%-5level %%logger{36} - %%msg%%n'/></File>";
+
+    private static final String APPENDER_ASYNC
+            = "<File name='File' fileName='%s' bufferedIO='true' immediateFlush='false'>"
+            + "<PatternLayout pattern='%%d{HH:mm:ss.SSS} [%%t] %%-5level %%logger{36} - %%msg%%n'/></File>"
+            + "<Async name='Out' bufferSize='1024'><AppenderRef ref='File'/></Async>";
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    private Path dir;
+    private Logger logger;
+    private RestoreQuery query;
+    private Path backup;
+    private StopWatch sw;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        dir = Files.createTempDirectory("loggingBenchmark");
+        backup = Files.write(dir.resolve("northwinddb_20160113121500.trn"), new byte[1024]);
+
+        // Debug is off, info is on, everything written to one file
+        String config = String.format("<Configuration status='WARN'><Appenders>"
+                + ("sync".equals(mode) ? APPENDER_SYNC : APPENDER_ASYNC)
+                + "</Appenders><Loggers>"
+                + "<Logger name='%s' level='info' additivity='false'><AppenderRef ref='Out'/></Logger>"
+                + "<Root level='info'><AppenderRef ref='Out'/></Root>"
+                + "</Loggers></Configuration>",
+                dir.resolve("bench.log"), RestoreEventLog.LOGGER_NAME);
+
+        Path configFile = Files.write(dir.resolve("log4j2-bench.xml"),
+                config.getBytes(StandardCharsets.UTF_8));
+
+        // Before the first logger is created
+        System.setProperty("log4j2.configurationFile", configFile.toString());
+        System.setProperty("log4j.configuration.location", configFile.toString());
+
+        logger = LogManager.getLogger(MSSQLHelper.class);
+        query = RestoreQuery.forLog("northwinddb", backup);
+        sw = new StopWatch();
+        sw.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        LogManager.shutdown();
+
+        try (java.util.stream.Stream<Path> files = Files.list(dir))
+        {
+            for (Path p : (Iterable<Path>) files::iterator)
+            {
+                Files.delete(p);
+            }
+        }
+
+        Files.delete(dir);
+    }
+
+    /**
+     * The old way, formatting a message that is never written.
+     */
+    @Benchmark
+    public void debugFormatDisabled()
+    {
+        logger.debug(String.format("Query...\n'%s'\nTook %s", query, sw.toString()));
+    }
+
+    @Benchmark
+    public void debugParameterizedDisabled()
+    {
+        logger.debug("Query...\n'{}'\nTook {}", query, sw);
+    }
+
+    @Benchmark
+    public void infoEnabled()
+    {
+        logger.info("\nStarting Log restore of '{}'...", backup);
+    }
+
+    @Benchmark
+    public void restoreEvent()
+    {
+        RestoreEventLog.record(query, RestoreEventLog.RESTORED, 0, 1234, null);
+    }
+}
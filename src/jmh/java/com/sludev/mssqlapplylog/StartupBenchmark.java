@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times cold starts of the packaged jar, with and without the AppCDS archive.
+ *
+ * Each run is a fresh JVM doing the appcds profile's training run.  It
+ * indexes the sample backups in src/appcds and loads the jTDS driver, then
+ * fails to connect and exits with 1.
+ * Prints the median and minimum wall time of each variant.
+ *
+ * Arguments are the jar, the archive and the number of runs, defaulting to
+ * the files built by "mvn -Pappcds package" and 10 runs.
+ *
+ * @author Kervin Pierre
+ */
+public final class StartupBenchmark
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Path jar = Paths.get(args.length > 0 ? args[0] : "target/mssqlapplylog-1.0.jar");
+        Path archive = Paths.get(args.length > 1 ? args[1] : "target/mssqlapplylog.jsa");
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> plain = Arrays.asList(java, "-Xshare:auto", "-jar", jar.toString(),
+                "--conf", "src/appcds/conf.properties", "--restore-full");
+
+        List<String> cds = new ArrayList<>(plain);
+        cds.add(1, "-XX:SharedArchiveFile=" + archive);
+
+        List<String> cdsC1 = new ArrayList<>(cds);
+        cdsC1.add(1, "-XX:TieredStopAtLevel=1");
+
+        Path out = Files.createTempFile("startup", ".log");
+        try
+        {
+            // Warm the file-system cache before timing anything
+            run(plain, out.toFile());
+
+            report("default", time(plain, runs, out.toFile()));
+            report("appcds", time(cds, runs, out.toFile()));
+            report("appcds + C1", time(cdsC1, runs, out.toFile()));
+        }
+        finally
+        {
+            Files.deleteIfExists(out);
+        }
+    }
+
+    private static long[] time(final List<String> cmd, final int runs, final File out)
+            throws IOException, InterruptedException
+    {
+        long[] res = new long[runs];
+
+        for (int i = 0; i < runs; i++)
+        {
+            long start = System.nanoTime();
+
+            run(cmd, out);
+
+            res[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+
+        Arrays.sort(res);
+
+        return res;
+    }
+
+    private static void run(final List<String> cmd, final File out)
+            throws IOException, InterruptedException
+    {
+        Process proc = new ProcessBuilder(cmd)
+                .redirectErrorStream(true)
+                .redirectOutput(out)
+                .start();
+
+        int rc = proc.waitFor();
+        if (rc != 0 && rc != 1)
+        {
+            throw new IllegalStateException(String.format("'%s' exited with %d, see '%s'",
+                    String.join(" ", cmd), rc, out));
+        }
+    }
+
+    private static void report(final String name, final long[] millis)
+    {
+        System.out.println(String.format("%-12s median %5d ms   min %5d ms",
+                name, millis[millis.length / 2], millis[0]));
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares parsing log backup file names with the regex and DateTimeFormatter
+ * on every call, against a TimestampParser built once, and FSHelper's
+ * cached parsers.
+ *
+ * Run with "-prof gc" to compare allocation as well.
+ *
+ * @author Kervin Pierre
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampParserBenchmark
+{
+    private static final String LOG_PATTERN = "(?:[\\w_-]+?)(\\d+)\\.trn";
+
+    @Param({"yyyyMMddHHmmss", "yyyyDDDHHmmss"})
+    public String datePattern;
+
+    private Path path;
+    private String fileName;
+    private TimestampParser parser;
+
+    @Setup
+    public void setup()
+    {
+        path = Paths.get("northwinddb_"
+                + ("yyyyMMddHHmmss".equals(datePattern) ? "20160113123015" : "2016013123015")
+                + ".trn");
+        fileName = path.getFileName().toString();
+        parser = TimestampParser.from(LOG_PATTERN, datePattern, 1);
+    }
+
+    /**
+     * The old way, compiling the regex and formatter on every call.
+     */
+    @Benchmark
+    public Instant perCall()
+    {
+        Matcher m = Pattern.compile(LOG_PATTERN).matcher(fileName);
+        m.matches();
+
+        return Instant.from(DateTimeFormatter.ofPattern(datePattern)
+                .withZone(ZoneId.of("UTC"))
+                .parse(m.group(1)));
+    }
+
+    @Benchmark
+    public long parser()
+    {
+        return parser.parseEpochMillis(fileName);
+    }
+
+    @Benchmark
+    public Instant fsHelper()
+    {
+        return FSHelper.getTimestampFromFilename(LOG_PATTERN, datePattern, 1, path);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the last log backup applied to each database.
+ *
+ * Kept in a properties file with keys of the form "database.lastApplied",
+ * saved after every log.  Retention only touches logs up to the checkpoint.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyCheckpoint
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ApplyCheckpoint.class);
+
+    private final Path file;
+    private final Properties props;
+
+    private ApplyCheckpoint(final Path file, final Properties props)
+    {
+        this.file = file;
+        this.props = props;
+    }
+
+    /**
+     * Load the checkpoint, starting empty if the file does not exist yet.
+     *
+     * @param file The properties file
+     * @return The checkpoint
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static ApplyCheckpoint from(final Path file) throws IOException
+    {
+        Properties props = new Properties();
+
+        if (Files.exists(file))
+        {
+            try (Reader reader = Files.newBufferedReader(file))
+            {
+                props.load(reader);
+            }
+        }
+
+        ApplyCheckpoint res = new ApplyCheckpoint(file, props);
+
+        return res;
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @param sqlDb The database
+     * @return File name of the last log applied, or null if none was
+     */
+    public synchronized String getLastApplied(final String sqlDb)
+    {
+        return props.getProperty(sqlDb + ".lastApplied");
+    }
+
+    /**
+     * @param sqlDb The database
+     * @return When the checkpoint last moved, epoch milliseconds, or 0
+     */
+    public synchronized long getUpdated(final String sqlDb)
+    {
+        return NumberUtils.toLong(props.getProperty(sqlDb + ".updated"), 0);
+    }
+
+    /**
+     * Move the checkpoint to a log that was restored, or that the database
+     * already held, and save it.
+     *
+     * @param sqlDb The database
+     * @param logName File name of the log backup
+     * @throws IOException If the checkpoint cannot be saved
+     */
+    public synchronized void applied(final String sqlDb, final String logName) throws IOException
+    {
+        props.setProperty(sqlDb + ".lastApplied", logName);
+        props.setProperty(sqlDb + ".updated", String.valueOf(System.currentTimeMillis()));
+
+        save();
+    }
+
+    /**
+     * Written to a temporary file first so a crash never leaves a partial file.
+     */
+    private void save() throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(tmp))
+        {
+            props.store(writer, "MSSQLApplyLog applied logs");
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        LOGGER.debug("Saved checkpoint to '{}'", file);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+
+/**
+ * Told what a running job does with each log backup, for applications that
+ * embed it.
+ *
+ * Called from the job's own threads, so implementations must be quick and
+ * thread-safe.  Every method does nothing by default.  Exceptions thrown are
+ * logged and otherwise ignored.
+ *
+ * @author Kervin Pierre
+ */
+public interface ApplyLogListener
+{
+    /**
+     * A log backup was found and queued for a target.
+     *
+     * @param target The target's name
+     * @param logPath The log backup
+     */
+    default void logDiscovered(final String target, final Path logPath)
+    {
+    }
+
+    /**
+     * @param target The target's name
+     * @param logPath The log backup restored
+     * @param millis How long the restore took, including retries
+     */
+    default void logApplied(final String target, final Path logPath, final long millis)
+    {
+    }
+
+    /**
+     * A log backup could not be restored.  The target restores nothing after
+     * it until it is retried.
+     *
+     * @param target The target's name
+     * @param logPath The log backup
+     * @param cause Why
+     */
+    default void logFailed(final String target, final Path logPath, final Exception cause)
+    {
+    }
+
+    /**
+     * @param target The target's name
+     * @param lagMillis Age of the last log backup restored, from when its
+     *                  file was last written
+     */
+    default void lagUpdated(final String target, final long lagMillis)
+    {
+    }
+}
@@ -0,0 +1,482 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Counters and gauges for the restore pipeline of a single job.
+ *
+ * Published on the platform MBean server so they can be read with JConsole
+ * or any JMX collector while the application is running.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyLogMetrics implements ApplyLogMetricsMXBean
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ApplyLogMetrics.class);
+
+    private static final String OBJECT_NAME_FORMAT
+            = "com.sludev.mssqlapplylog:type=ApplyLogMetrics,name=%s";
+
+    private final String name;
+    private final String server;
+    private volatile ObjectName objectName;
+
+    private final AtomicLong restoresStarted = new AtomicLong();
+    private final AtomicLong restoresSucceeded = new AtomicLong();
+    private final AtomicLong restoresFailed = new AtomicLong();
+    private final AtomicLong restoresCancelled = new AtomicLong();
+    private final AtomicLong restoreRetries = new AtomicLong();
+    private final AtomicLong stuckRestores = new AtomicLong();
+    private final AtomicReference<String> lastStuckRestore = new AtomicReference<>("");
+    private final AtomicLong lastRestoreMillis = new AtomicLong();
+    private final AtomicLong restoresSkipped = new AtomicLong();
+    private final AtomicLong chainBreaks = new AtomicLong();
+    private volatile CircuitBreaker breaker;
+    private volatile RestoreThrottle throttle;
+    private volatile RestoreProgress currentRestore;
+    private final AtomicLong lastRestoreBytesPerSecond = new AtomicLong();
+    private final AtomicLong applyWindows = new AtomicLong();
+    private final AtomicLong lastWindowMillis = new AtomicLong();
+    private final AtomicLong lastWindowLogs = new AtomicLong();
+    private final AtomicLong readerBlockedMillis = new AtomicLong();
+    private final AtomicLong pendingLogs = new AtomicLong();
+    private final AtomicLong pendingLogsHighWater = new AtomicLong();
+    private final AtomicLong queueOverflows = new AtomicLong();
+    private final AtomicLong queueRescans = new AtomicLong();
+
+    private ApplyLogMetrics(final String name, final String server)
+    {
+        this.name = name;
+        this.server = server;
+    }
+
+    public static ApplyLogMetrics from(final String name)
+    {
+        return from(name, null);
+    }
+
+    /**
+     * @param name The target's name
+     * @param server The target's server, part of the MBean name so jobs in
+     *               one JVM restoring the same database name on different
+     *               servers don't collide.  Blank to leave it out.
+     * @return The metrics, not registered
+     */
+    public static ApplyLogMetrics from(final String name, final String server)
+    {
+        ApplyLogMetrics res = new ApplyLogMetrics(name, server);
+
+        return res;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Publish these metrics on the platform MBean server.
+     *
+     * Other failures to register are logged and otherwise ignored.  The
+     * metrics are still updated.
+     *
+     * @throws MSSQLApplyLogException If another job already published metrics
+     *                                for the same target
+     */
+    public void register() throws MSSQLApplyLogException
+    {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+
+        ObjectName on = null;
+        try
+        {
+            String onStr = String.format(OBJECT_NAME_FORMAT, ObjectName.quote(name));
+            if (StringUtils.isNotBlank(server))
+            {
+                onStr += ",server=" + ObjectName.quote(server);
+            }
+
+            on = new ObjectName(onStr);
+
+            mbeans.registerMBean(this, on);
+
+            objectName = on;
+        }
+        catch (InstanceAlreadyExistsException ex)
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "Metrics '%s' are already registered.  Is another job restoring the same target?",
+                    on), ex);
+        }
+        catch (JMException ex)
+        {
+            LOGGER.warn(String.format("Error registering metrics '%s'", name), ex);
+        }
+    }
+
+    public void unregister()
+    {
+        ObjectName on = objectName;
+
+        if (on == null)
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+        }
+        catch (JMException ex)
+        {
+            LOGGER.debug(String.format("Error unregistering metrics '%s'", name), ex);
+        }
+
+        objectName = null;
+    }
+
+    public void restoreStarted()
+    {
+        restoresStarted.incrementAndGet();
+    }
+
+    public void restoreSucceeded(final long millis)
+    {
+        restoresSucceeded.incrementAndGet();
+        lastRestoreMillis.set(millis);
+    }
+
+    public void restoreFailed()
+    {
+        restoresFailed.incrementAndGet();
+    }
+
+    public void restoreSkipped()
+    {
+        restoresSkipped.incrementAndGet();
+    }
+
+    public void chainBroken()
+    {
+        chainBreaks.incrementAndGet();
+    }
+
+    /**
+     * @param breaker The circuit breaker whose state is reported
+     */
+    public void setBreaker(final CircuitBreaker breaker)
+    {
+        this.breaker = breaker;
+    }
+
+    /**
+     * @param throttle The restore throttle whose state is reported
+     */
+    public void setThrottle(final RestoreThrottle throttle)
+    {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param progress The restore now running
+     */
+    public void setCurrentRestore(final RestoreProgress progress)
+    {
+        currentRestore = progress;
+    }
+
+    /**
+     * The running restore returned.  Its throughput becomes the last restore's.
+     *
+     * @param progress The restore that returned
+     */
+    public void restoreFinished(final RestoreProgress progress)
+    {
+        lastRestoreBytesPerSecond.set(progress.getBytesPerSecond());
+
+        if (currentRestore == progress)
+        {
+            currentRestore = null;
+        }
+    }
+
+    public void restoreRetried()
+    {
+        restoreRetries.incrementAndGet();
+    }
+
+    /**
+     * A restore has run past its deadline and the watchdog is cancelling it.
+     *
+     * @param desc A description of the stuck restore, usually the backup file
+     */
+    public void restoreStuck(final String desc)
+    {
+        stuckRestores.incrementAndGet();
+        restoresCancelled.incrementAndGet();
+        lastStuckRestore.set(desc);
+    }
+
+    /**
+     * A previously stuck restore has returned, either cancelled or finished.
+     */
+    public void restoreUnstuck()
+    {
+        stuckRestores.decrementAndGet();
+    }
+
+    /**
+     * An apply window closed.
+     *
+     * @param millis How long the window was open
+     * @param logs Log backups restored in the window
+     * @param blockedMillis How long readers were shut out
+     */
+    public void windowFinished(final long millis, final long logs, final long blockedMillis)
+    {
+        applyWindows.incrementAndGet();
+        lastWindowMillis.set(millis);
+        lastWindowLogs.set(logs);
+        readerBlockedMillis.addAndGet(blockedMillis);
+    }
+
+    /**
+     * @param count Log backups waiting for the next apply window
+     */
+    public void setPendingLogs(final long count)
+    {
+        pendingLogs.set(count);
+        pendingLogsHighWater.accumulateAndGet(count, Math::max);
+    }
+
+    /**
+     * A log backup, or a batch of watch events, did not fit in the pending queue.
+     */
+    public void queueOverflowed()
+    {
+        queueOverflows.incrementAndGet();
+    }
+
+    /**
+     * The pending queue was rebuilt from the backup directory after an overflow.
+     */
+    public void queueRescanned()
+    {
+        queueRescans.incrementAndGet();
+    }
+
+    @Override
+    public long getRestoresStarted()
+    {
+        return restoresStarted.get();
+    }
+
+    @Override
+    public long getRestoresSucceeded()
+    {
+        return restoresSucceeded.get();
+    }
+
+    @Override
+    public long getRestoresFailed()
+    {
+        return restoresFailed.get();
+    }
+
+    @Override
+    public long getRestoresCancelled()
+    {
+        return restoresCancelled.get();
+    }
+
+    @Override
+    public long getRestoreRetries()
+    {
+        return restoreRetries.get();
+    }
+
+    @Override
+    public long getStuckRestores()
+    {
+        return stuckRestores.get();
+    }
+
+    @Override
+    public String getLastStuckRestore()
+    {
+        return lastStuckRestore.get();
+    }
+
+    @Override
+    public long getLastRestoreMillis()
+    {
+        return lastRestoreMillis.get();
+    }
+
+    @Override
+    public long getRestoresSkipped()
+    {
+        return restoresSkipped.get();
+    }
+
+    @Override
+    public long getChainBreaks()
+    {
+        return chainBreaks.get();
+    }
+
+    @Override
+    public String getBreakerState()
+    {
+        CircuitBreaker cb = breaker;
+
+        return cb == null ? "" : cb.getState().name();
+    }
+
+    @Override
+    public long getBreakerTrips()
+    {
+        CircuitBreaker cb = breaker;
+
+        return cb == null ? 0 : cb.getTrips();
+    }
+
+    @Override
+    public String getCurrentRestore()
+    {
+        RestoreProgress rp = currentRestore;
+
+        return rp == null ? "" : rp.getDescription();
+    }
+
+    @Override
+    public int getCurrentRestorePercent()
+    {
+        RestoreProgress rp = currentRestore;
+
+        return rp == null ? 0 : rp.getPercent();
+    }
+
+    @Override
+    public long getCurrentRestoreBytesPerSecond()
+    {
+        RestoreProgress rp = currentRestore;
+
+        return rp == null ? 0 : rp.getBytesPerSecond();
+    }
+
+    @Override
+    public long getCurrentRestoreEtaSeconds()
+    {
+        RestoreProgress rp = currentRestore;
+
+        return rp == null ? -1 : rp.getEtaSeconds();
+    }
+
+    @Override
+    public long getLastRestoreBytesPerSecond()
+    {
+        return lastRestoreBytesPerSecond.get();
+    }
+
+    @Override
+    public long getApplyWindows()
+    {
+        return applyWindows.get();
+    }
+
+    @Override
+    public long getLastWindowMillis()
+    {
+        return lastWindowMillis.get();
+    }
+
+    @Override
+    public long getLastWindowLogs()
+    {
+        return lastWindowLogs.get();
+    }
+
+    @Override
+    public long getReaderBlockedMillis()
+    {
+        return readerBlockedMillis.get();
+    }
+
+    @Override
+    public long getPendingLogs()
+    {
+        return pendingLogs.get();
+    }
+
+    @Override
+    public long getPendingLogsHighWater()
+    {
+        return pendingLogsHighWater.get();
+    }
+
+    @Override
+    public long getQueueOverflows()
+    {
+        return queueOverflows.get();
+    }
+
+    @Override
+    public long getQueueRescans()
+    {
+        return queueRescans.get();
+    }
+
+    @Override
+    public String getThrottleState()
+    {
+        RestoreThrottle rt = throttle;
+
+        return rt == null ? "" : rt.toString();
+    }
+
+    @Override
+    public long getThrottledMillis()
+    {
+        RestoreThrottle rt = throttle;
+
+        return rt == null ? 0 : rt.getThrottledMillis();
+    }
+
+    @Override
+    public long getThrottleBytesPerSecond()
+    {
+        RestoreThrottle rt = throttle;
+
+        return rt == null ? 0 : rt.getMeasuredBytesPerSecond();
+    }
+}
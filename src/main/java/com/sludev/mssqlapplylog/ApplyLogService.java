@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the application inside another, on its own thread.
+ *
+ * The run ends as the command line one does, with an exit code, but nothing
+ * exits the JVM.  Several services can share one JVM, each with its own
+ * configuration.  A configuration with a lease directory runs as a node
+ * sharing its targets with others.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyLogService
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ApplyLogService.class);
+
+    private final String name;
+    private final ApplyLogJob job;
+    private final CompletableFuture<Integer> result;
+
+    private boolean started;
+
+    public String getName()
+    {
+        return name;
+    }
+
+    private ApplyLogService(final String name, final ApplyLogJob job)
+    {
+        this.name = name;
+        this.job = job;
+        this.result = new CompletableFuture<>();
+    }
+
+    public static ApplyLogService from(final MSSQLApplyLogConfig config)
+    {
+        return from(config, null);
+    }
+
+    /**
+     * @param config The settings, e.g. from MSSQLApplyLogConfig.builder()
+     * @param listener Told of every log found, restored or failed, or null
+     * @return The service, not started
+     */
+    public static ApplyLogService from(final MSSQLApplyLogConfig config,
+                                       final ApplyLogListener listener)
+    {
+        ApplyLogJob job = StringUtils.isBlank(config.getLeaseDirStr())
+                ? MSSQLApplyLog.from(config, listener) : ApplyNode.from(config, listener);
+
+        ApplyLogService res = new ApplyLogService(config.getSqlDb(), job);
+
+        return res;
+    }
+
+    /**
+     * Start the run, once.  Later calls return the same run.
+     *
+     * @return Completes with the exit code when the run ends, or
+     *         exceptionally if it failed.  Cancelling it does not stop the
+     *         run, stop() does.
+     */
+    public synchronized CompletableFuture<Integer> start()
+    {
+        if (started == false)
+        {
+            started = true;
+
+            BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                    .namingPattern(String.format("applyLog-%s-%%d",
+                            StringUtils.defaultString(name)))
+                    .build();
+
+            thFactory.newThread(this::run).start();
+        }
+
+        return result.thenApply(Function.identity());
+    }
+
+    /**
+     * Stop the run gracefully.  Restores already running finish first.
+     * Never blocks.
+     *
+     * @return Completes when the run ends, as from start().  Completes with
+     *         0 straight away if the service was never started.
+     */
+    public synchronized CompletableFuture<Integer> stop()
+    {
+        if (started == false)
+        {
+            started = true;
+
+            result.complete(0);
+        }
+
+        job.stop();
+
+        return result.thenApply(Function.identity());
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return started && result.isDone() == false;
+    }
+
+    private void run()
+    {
+        try
+        {
+            Integer res = job.call();
+
+            result.complete(res == null ? 0 : res);
+        }
+        catch (Exception | Error ex)
+        {
+            // Anything left uncaught would leave start()'s future waiting forever
+            LOGGER.error(String.format("Error running '%s'", name), ex);
+
+            result.completeExceptionally(ex);
+        }
+    }
+}
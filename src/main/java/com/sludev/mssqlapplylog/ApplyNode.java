@@ -0,0 +1,348 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One of several nodes sharing the targets of a configuration.
+ *
+ * Every target is a job.  A node restores to the jobs it holds a lease on,
+ * each on its own thread, and heartbeats those leases a few times per lease
+ * period.  Free jobs, including those of a node that stopped heartbeating,
+ * are taken by whichever node gets to them first.  A job whose lease is lost
+ * is stopped, and its restores are fenced off by the lease in any case.
+ *
+ * Without monitoring, a node ends once every job has run, here or on a node
+ * that finished it since this one started.  A node that is stopped takes no
+ * more jobs, and ends once its jobs finish the restores they are running.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyNode implements ApplyLogJob
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ApplyNode.class);
+
+    private static final long STOP_POLL_MILLIS = 200;
+
+    private static final class Running
+    {
+        private LeaseStore.Lease lease;
+        private final MSSQLApplyLog job;
+        private final Future<Integer> result;
+
+        private Running(final LeaseStore.Lease lease,
+                        final MSSQLApplyLog job,
+                        final Future<Integer> result)
+        {
+            this.lease = lease;
+            this.job = job;
+            this.result = result;
+        }
+    }
+
+    private final MSSQLApplyLogConfig config;
+    private final ApplyLogListener listener;
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+
+    private volatile boolean stopping;
+
+    private ApplyNode(final MSSQLApplyLogConfig config,
+                      final ApplyLogListener listener)
+    {
+        this.config = config;
+        this.listener = listener;
+    }
+
+    public static ApplyNode from(final MSSQLApplyLogConfig config)
+    {
+        return from(config, null);
+    }
+
+    /**
+     * @param config The settings
+     * @param listener Told of every log found, restored or failed by the
+     *                 jobs of this node, or null
+     * @return The node
+     */
+    public static ApplyNode from(final MSSQLApplyLogConfig config,
+                                 final ApplyLogListener listener)
+    {
+        ApplyNode res = new ApplyNode(config, listener);
+
+        return res;
+    }
+
+    @Override
+    public void stop()
+    {
+        stopping = true;
+
+        stopRequested.countDown();
+    }
+
+    /**
+     * @return A node name unique to this process, e.g. "1234@host"
+     */
+    public static String defaultNodeId()
+    {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    @Override
+    public Integer call() throws Exception
+    {
+        String nodeId = StringUtils.defaultIfBlank(config.getNodeId(), defaultNodeId());
+
+        LeaseStore store;
+        try
+        {
+            store = LeaseStore.from(Paths.get(config.getLeaseDirStr()), nodeId,
+                    config.getLeaseMillis());
+        }
+        catch (IOException ex)
+        {
+            LOGGER.error(String.format("Error opening the lease directory '%s'",
+                    config.getLeaseDirStr()), ex);
+
+            return 1;
+        }
+
+        boolean monitor = BooleanUtils.isTrue(config.getMonitorLogBackupDir());
+        long heartbeatMillis = Math.max(1, store.getLeaseMillis() / 3);
+        List<SqlTarget> jobs = SqlTarget.from(config);
+
+        LOGGER.info("Node '{}' sharing {} jobs through '{}'", nodeId, jobs.size(), store.getDir());
+
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("job-%d")
+                .build();
+
+        ExecutorService exe = Executors.newCachedThreadPool(thFactory);
+        Map<String, Running> running = new LinkedHashMap<>();
+        Set<String> ran = new HashSet<>();
+        long started = System.currentTimeMillis();
+        int res = 0;
+
+        try
+        {
+            while (true)
+            {
+                res = Math.max(res, heartbeat(store, running, ran));
+
+                if (stopping)
+                {
+                    // Still heartbeating, so their last restores keep the lease
+                    running.values().forEach(curr -> curr.job.stop());
+                }
+
+                for (SqlTarget job : jobs)
+                {
+                    String name = job.getName();
+                    if (stopping || running.containsKey(name)
+                            || (monitor == false && ran.contains(name)))
+                    {
+                        continue;
+                    }
+
+                    LeaseStore.Lease lease;
+                    try
+                    {
+                        if (monitor == false && finishedElsewhere(store, name, started))
+                        {
+                            ran.add(name);
+
+                            continue;
+                        }
+
+                        lease = store.tryAcquire(name);
+                    }
+                    catch (IOException ex)
+                    {
+                        LOGGER.warn("Error acquiring the lease on '{}'", name, ex);
+
+                        continue;
+                    }
+
+                    if (lease == null)
+                    {
+                        continue;
+                    }
+
+                    MSSQLApplyLog applyLog = MSSQLApplyLog.from(config, job, lease, listener);
+
+                    running.put(name, new Running(lease, applyLog, exe.submit(applyLog)));
+                }
+
+                if ((monitor == false || stopping) && running.isEmpty())
+                {
+                    // Every job ran here or is held elsewhere, or was stopped
+                    break;
+                }
+
+                if (stopping)
+                {
+                    Thread.sleep(Math.min(heartbeatMillis, STOP_POLL_MILLIS));
+                }
+                else
+                {
+                    stopRequested.await(heartbeatMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        finally
+        {
+            exe.shutdownNow();
+
+            for (Running curr : running.values())
+            {
+                try
+                {
+                    store.release(curr.lease);
+                }
+                catch (IOException | InterruptedException ex)
+                {
+                    LOGGER.warn("Error releasing {}", curr.lease, ex);
+                }
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Renew the leases of running jobs, and release those of finished jobs.
+     *
+     * @return The worst exit code of the jobs that finished
+     */
+    private int heartbeat(final LeaseStore store,
+                          final Map<String, Running> running,
+                          final Set<String> ran) throws InterruptedException
+    {
+        int res = 0;
+
+        for (Iterator<Map.Entry<String, Running>> it = running.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, Running> entry = it.next();
+            Running curr = entry.getValue();
+
+            if (curr.result.isDone())
+            {
+                res = Math.max(res, exitCode(entry.getKey(), curr.result));
+
+                try
+                {
+                    store.release(curr.lease);
+                }
+                catch (IOException ex)
+                {
+                    LOGGER.warn("Error releasing {}", curr.lease, ex);
+                }
+
+                ran.add(entry.getKey());
+                it.remove();
+
+                continue;
+            }
+
+            LeaseStore.Lease renewed;
+            try
+            {
+                renewed = store.renew(curr.lease);
+            }
+            catch (IOException ex)
+            {
+                // The fence stops restores if this goes on past the lease
+                LOGGER.warn("Error renewing {}", curr.lease, ex);
+
+                continue;
+            }
+
+            if (renewed == null)
+            {
+                LOGGER.error("Lost the lease on '{}'.  Stopping it.", entry.getKey());
+
+                curr.result.cancel(true);
+                it.remove();
+
+                continue;
+            }
+
+            curr.lease = renewed;
+        }
+
+        return res;
+    }
+
+    /**
+     * @return True if another node finished the job since this node started
+     */
+    private static boolean finishedElsewhere(final LeaseStore store,
+                                             final String job,
+                                             final long started) throws IOException
+    {
+        LeaseStore.Lease last = store.read(job);
+
+        return last != null && last.getReleased() >= started
+                && last.getOwner().equals(store.getNodeId()) == false;
+    }
+
+    private static int exitCode(final String job, final Future<Integer> result)
+            throws InterruptedException
+    {
+        try
+        {
+            Integer res = result.get();
+
+            return res == null ? 0 : res;
+        }
+        catch (ExecutionException ex)
+        {
+            LOGGER.error(String.format("Error running job '%s'", job), ex.getCause());
+        }
+        catch (CancellationException ex)
+        {
+            LOGGER.debug("Job '{}' was cancelled", job);
+        }
+
+        return 1;
+    }
+}
@@ -0,0 +1,645 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Restores pending log backups in apply windows.
+ *
+ * Found logs wait in a queue until the apply windows schedule says a window
+ * is due.  A window then restores every pending log in one go, in order.  For
+ * a standby database readers are disconnected once per window, rather than
+ * once per log, and get the database back when the window closes.
+ *
+ * The queue is bounded.  Offering a log never blocks, so file-system events
+ * are taken in however long a RESTORE runs.  Logs that don't fit are dropped
+ * and the next window rebuilds the queue by rescanning the backup directory,
+ * which still holds every log.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyWindowScheduler implements AutoCloseable
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ApplyWindowScheduler.class);
+
+    public static final long TICK_MILLIS = 1000;
+    public static final int DEFAULT_PENDING_LIMIT = 10000;
+
+    /**
+     * Finds the log backups to restore after a given log, in order.
+     */
+    @FunctionalInterface
+    public interface Rescan
+    {
+        List<Path> after(String lastApplied) throws IOException;
+    }
+
+    private final RestoreTarget target;
+    private final ApplyWindows windows;
+    private final ApplyLogMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final int pendingLimit;
+
+    private final Deque<Path> pending = new ArrayDeque<>();
+    private long oldestPending;
+    private volatile long lastWindowEnd;
+    private volatile boolean chainBroken;
+    private volatile FailureKind lastFailure;
+    private volatile boolean rescanNeeded;
+    private volatile String lastApplied;
+    private volatile Runnable onChainBroken;
+    private volatile Rescan rescan;
+    private volatile ApplyCheckpoint checkpoint;
+    private volatile String checkpointKey;
+    private volatile ApplyLogListener listener = GuardedListener.from(null);
+    private volatile String listenerKey;
+    private volatile boolean stopped;
+
+    private ApplyWindowScheduler(final RestoreTarget target,
+                                 final ApplyWindows windows,
+                                 final ApplyLogMetrics metrics,
+                                 final ScheduledExecutorService scheduler,
+                                 final int pendingLimit)
+    {
+        this.target = target;
+        this.windows = windows;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.pendingLimit = pendingLimit;
+        this.lastWindowEnd = System.currentTimeMillis();
+    }
+
+    public static ApplyWindowScheduler from(final RestoreTarget target,
+                                            final ApplyWindows windows,
+                                            final ApplyLogMetrics metrics)
+    {
+        return from(target, windows, metrics, null);
+    }
+
+    /**
+     * @param target The database restored into
+     * @param windows When windows open, null to restore logs as they are found
+     * @param metrics Window and queue metrics, or null
+     * @param pendingLimit Most logs queued before rescanning instead, null for the default
+     * @return The scheduler, not started
+     */
+    public static ApplyWindowScheduler from(final RestoreTarget target,
+                                            final ApplyWindows windows,
+                                            final ApplyLogMetrics metrics,
+                                            final Integer pendingLimit)
+    {
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("applyWindow-%d")
+                .daemon(true)
+                .build();
+
+        ApplyWindowScheduler res = new ApplyWindowScheduler(target,
+                windows == null ? ApplyWindows.from() : windows,
+                metrics,
+                Executors.newSingleThreadScheduledExecutor(thFactory),
+                pendingLimit == null || pendingLimit < 1 ? DEFAULT_PENDING_LIMIT : pendingLimit);
+
+        return res;
+    }
+
+    public ApplyWindows getWindows()
+    {
+        return windows;
+    }
+
+    /**
+     * @return True once a log did not follow the restore chain.  Nothing more is restored.
+     */
+    public boolean isChainBroken()
+    {
+        return chainBroken;
+    }
+
+    /**
+     * @return How the failure that ended the last window was classified, or
+     *         null if it restored every log
+     */
+    public FailureKind getLastFailure()
+    {
+        return lastFailure;
+    }
+
+    public int getPendingLimit()
+    {
+        return pendingLimit;
+    }
+
+    /**
+     * @return File name of the last log restored by a window, or null
+     */
+    public String getLastApplied()
+    {
+        return lastApplied;
+    }
+
+    /**
+     * @param checkpoint Saved after every log restored, or null
+     * @param key The target's entry in the checkpoint
+     */
+    public void setCheckpoint(final ApplyCheckpoint checkpoint, final String key)
+    {
+        this.checkpointKey = key;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @param listener Told of every log restored or failed, or null
+     * @param key The target's name given to the listener
+     */
+    public void setListener(final ApplyLogListener listener, final String key)
+    {
+        this.listenerKey = key;
+        this.listener = GuardedListener.from(listener);
+    }
+
+    /**
+     * Restore no more logs.  A restore already running finishes, and the
+     * window it is in ends after it.  close() then waits for it.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Run one window on the window thread.
+     *
+     * @param logs The log backups to restore
+     * @return The logs not restored, as from apply()
+     */
+    public Future<List<Path>> submit(final List<Path> logs)
+    {
+        return scheduler.submit(() -> apply(logs));
+    }
+
+    /**
+     * Start opening windows on schedule.
+     *
+     * @param onChainBroken Run on the window thread if a log breaks the restore chain
+     * @param rescan Rebuilds the queue after an overflow, or null to lose overflowing logs
+     */
+    public void start(final Runnable onChainBroken, final Rescan rescan)
+    {
+        this.onChainBroken = onChainBroken;
+        this.rescan = rescan;
+
+        if (windows.isImmediate() == false)
+        {
+            scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queue a log backup for the next window.  Never blocks.
+     *
+     * @param logPath The log backup
+     * @return False if the queue is full, or waiting on a rescan that will find the log
+     */
+    public boolean offer(final Path logPath)
+    {
+        boolean res = false;
+
+        synchronized (pending)
+        {
+            if (rescanNeeded == false)
+            {
+                if (pending.size() < pendingLimit)
+                {
+                    if (pending.isEmpty())
+                    {
+                        oldestPending = System.currentTimeMillis();
+                    }
+
+                    pending.addLast(logPath);
+
+                    updatePending();
+
+                    res = true;
+                }
+                else
+                {
+                    LOGGER.warn(String.format("%d log backups pending, rescanning after the next window",
+                            pendingLimit));
+
+                    overflow();
+                }
+            }
+        }
+
+        if (windows.isImmediate())
+        {
+            scheduler.execute(this::tick);
+        }
+
+        return res;
+    }
+
+    /**
+     * Rebuild the queue from the backup directory before the next window,
+     * e.g. after the file-system dropped events.
+     */
+    public void requestRescan()
+    {
+        synchronized (pending)
+        {
+            overflow();
+        }
+
+        if (windows.isImmediate())
+        {
+            scheduler.execute(this::tick);
+        }
+    }
+
+    private void overflow()
+    {
+        if (rescanNeeded == false && metrics != null)
+        {
+            metrics.queueOverflowed();
+        }
+
+        rescanNeeded = true;
+    }
+
+    /**
+     * Run one window now on the calling thread.
+     *
+     * Logs are restored in order.  A failure stops the window since every log
+     * depends on the one before it.
+     *
+     * @param logs The log backups to restore
+     * @return The logs not restored because of a failure, empty if all were restored
+     * @throws RestoreChainException If a log does not follow the restore chain
+     * @throws InterruptedException
+     */
+    public List<Path> apply(final List<Path> logs)
+            throws RestoreChainException, InterruptedException
+    {
+        if (logs.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        StopWatch sw = new StopWatch();
+
+        sw.start();
+
+        lastFailure = null;
+
+        long kickStart = System.currentTimeMillis();
+        boolean kicked = target.kickReaders();
+        int applied = 0;
+        List<Path> res = Collections.emptyList();
+
+        try
+        {
+            for (int i = 0; i < logs.size(); i++)
+            {
+                Path p = logs.get(i);
+
+                if (stopped)
+                {
+                    LOGGER.info("Stopping the apply window for '{}' before '{}'",
+                            target.getSqlDb(), p);
+
+                    res = new ArrayList<>(logs.subList(i, logs.size()));
+
+                    break;
+                }
+
+                try
+                {
+                    long logStart = System.currentTimeMillis();
+
+                    if (target.restoreLog(p))
+                    {
+                        applied++;
+
+                        logApplied(p, System.currentTimeMillis() - logStart);
+                    }
+
+                    lastApplied = p.getFileName().toString();
+
+                    ApplyCheckpoint currCheckpoint = checkpoint;
+                    if (currCheckpoint != null)
+                    {
+                        try
+                        {
+                            currCheckpoint.applied(checkpointKey, lastApplied);
+                        }
+                        catch (IOException ex)
+                        {
+                            LOGGER.warn("Error saving the checkpoint '{}'",
+                                    currCheckpoint.getFile(), ex);
+                        }
+                    }
+                }
+                catch (RestoreChainException ex)
+                {
+                    listener.logFailed(listenerKey, p, ex);
+
+                    throw ex;
+                }
+                catch (SQLException ex)
+                {
+                    LOGGER.error("SQL Exception restoring the log backup '{}'", p, ex);
+
+                    lastFailure = target.getFailurePolicy().classify(ex);
+
+                    listener.logFailed(listenerKey, p, ex);
+
+                    res = new ArrayList<>(logs.subList(i, logs.size()));
+
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            sw.stop();
+
+            lastWindowEnd = System.currentTimeMillis();
+
+            if (metrics != null)
+            {
+                // Readers were only shut out if some were disconnected, from
+                // then until the restores were done
+                metrics.windowFinished(sw.getTime(), applied,
+                        kicked ? lastWindowEnd - kickStart : 0);
+            }
+
+            LOGGER.info("Apply window for '{}' restored {} of {} log backups in {}",
+                    target.getSqlDb(), applied, logs.size(), sw);
+        }
+
+        return res;
+    }
+
+    /**
+     * Tell the listener, with the lag behind the log's file time.
+     */
+    private void logApplied(final Path logPath, final long millis)
+    {
+        ApplyLogListener currListener = listener;
+
+        currListener.logApplied(listenerKey, logPath, millis);
+
+        try
+        {
+            long written = Files.getLastModifiedTime(logPath).toMillis();
+
+            currListener.lagUpdated(listenerKey,
+                    Math.max(0, System.currentTimeMillis() - written));
+        }
+        catch (IOException ex)
+        {
+            LOGGER.debug(String.format("Error reading the time of '%s'", logPath), ex);
+        }
+    }
+
+    private void tick()
+    {
+        if (chainBroken || stopped)
+        {
+            return;
+        }
+
+        if (rescanNeeded && rescan() == false)
+        {
+            return;
+        }
+
+        List<Path> batch;
+        long batchOldest;
+        synchronized (pending)
+        {
+            if (pending.isEmpty()
+                    || windows.isDue(System.currentTimeMillis(), lastWindowEnd, oldestPending) == false)
+            {
+                return;
+            }
+
+            batch = new ArrayList<>(pending);
+            batchOldest = oldestPending;
+            pending.clear();
+        }
+
+        List<Path> rest;
+        try
+        {
+            rest = apply(batch);
+        }
+        catch (RestoreChainException ex)
+        {
+            LOGGER.error("Log backup does not follow the restore chain.  Stopping.", ex);
+
+            chainBroken = true;
+
+            Runnable callback = onChainBroken;
+            if (callback != null)
+            {
+                callback.run();
+            }
+
+            return;
+        }
+        catch (InterruptedException ex)
+        {
+            LOGGER.debug("Interrupted during an apply window", ex);
+
+            Thread.currentThread().interrupt();
+
+            rest = batch;
+        }
+        catch (RuntimeException ex)
+        {
+            // Keep the schedule alive, the logs are tried again next window
+            LOGGER.error("Error during an apply window", ex);
+
+            rest = batch;
+        }
+
+        synchronized (pending)
+        {
+            if (rest.isEmpty() == false)
+            {
+                // Failed logs go first, order matters
+                for (int i = rest.size() - 1; i >= 0; i--)
+                {
+                    pending.addFirst(rest.get(i));
+                }
+
+                oldestPending = batchOldest;
+            }
+
+            updatePending();
+        }
+    }
+
+    /**
+     * Replace the queue with every log on disk after the last one restored.
+     *
+     * @return False if the directory could not be read
+     */
+    private boolean rescan()
+    {
+        Rescan curr = rescan;
+        if (curr == null)
+        {
+            // Nothing to rebuild from, carry on with what was queued
+            rescanNeeded = false;
+
+            return true;
+        }
+
+        // Offers from now on are kept, any missed ones are on disk
+        rescanNeeded = false;
+
+        List<Path> found;
+        try
+        {
+            found = curr.after(lastApplied);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.error("Error rescanning the backup directory.  Trying again next window.", ex);
+
+            rescanNeeded = true;
+
+            return false;
+        }
+
+        synchronized (pending)
+        {
+            // Keep logs offered during the rescan, after the ones found
+            List<Path> offered = new ArrayList<>(pending);
+            Set<Path> seen = new HashSet<>(found);
+
+            pending.clear();
+
+            for (Path p : found)
+            {
+                if (pending.size() >= pendingLimit)
+                {
+                    overflow();
+
+                    break;
+                }
+
+                pending.addLast(p);
+            }
+
+            for (Path p : offered)
+            {
+                if (pending.size() >= pendingLimit)
+                {
+                    overflow();
+
+                    break;
+                }
+
+                if (seen.contains(p) == false)
+                {
+                    pending.addLast(p);
+                }
+            }
+
+            if (pending.isEmpty() == false)
+            {
+                oldestPending = System.currentTimeMillis();
+            }
+
+            updatePending();
+        }
+
+        if (metrics != null)
+        {
+            metrics.queueRescanned();
+        }
+
+        LOGGER.info("Rescanned the backup directory, {} log backups pending after '{}'",
+                found.size(), lastApplied);
+
+        return true;
+    }
+
+    private void updatePending()
+    {
+        if (metrics != null)
+        {
+            metrics.setPendingLogs(pending.size());
+        }
+    }
+
+    /**
+     * Stop the window thread.  Once stopped, waits for the restore running.
+     */
+    @Override
+    public void close()
+    {
+        if (stopped)
+        {
+            // Let a restore that is running finish
+            scheduler.shutdown();
+
+            try
+            {
+                scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+/**
+ * When pending log backups are restored.
+ *
+ * Logs are held back and restored together in short windows, either on a
+ * fixed interval or once the oldest pending log has waited too long.  With
+ * neither set, every log is restored as soon as it is found.
+ *
+ * @author Kervin Pierre
+ */
+public final class ApplyWindows
+{
+    private final long intervalMillis;
+    private final long maxLagMillis;
+
+    /**
+     * @return Time between windows, or 0 for none
+     */
+    public long getIntervalMillis()
+    {
+        return intervalMillis;
+    }
+
+    /**
+     * @return Longest a log may wait for a window, or 0 for no limit
+     */
+    public long getMaxLagMillis()
+    {
+        return maxLagMillis;
+    }
+
+    private ApplyWindows(final long intervalMillis,
+                         final long maxLagMillis)
+    {
+        this.intervalMillis = intervalMillis;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * @param intervalSeconds Seconds between windows.  Null or 0 for none.
+     * @param maxLagSeconds Open a window early once a log has waited this long.  Null or 0 for no limit.
+     * @return The schedule
+     */
+    public static ApplyWindows from(final Long intervalSeconds,
+                                    final Long maxLagSeconds)
+    {
+        ApplyWindows res = new ApplyWindows(
+                intervalSeconds == null ? 0 : Math.max(0, intervalSeconds) * 1000,
+                maxLagSeconds == null ? 0 : Math.max(0, maxLagSeconds) * 1000);
+
+        return res;
+    }
+
+    /**
+     * Restore every log as soon as it is found.
+     *
+     * @return The schedule
+     */
+    public static ApplyWindows from()
+    {
+        return from(null, null);
+    }
+
+    /**
+     * @return True if logs are restored as soon as they are found
+     */
+    public boolean isImmediate()
+    {
+        return intervalMillis <= 0 && maxLagMillis <= 0;
+    }
+
+    /**
+     * Should a window open now.
+     *
+     * @param now Current time in milliseconds
+     * @param lastWindowEnd When the last window closed
+     * @param oldestPending When the oldest pending log was found
+     * @return True if the pending logs should be restored now
+     */
+    public boolean isDue(final long now, final long lastWindowEnd, final long oldestPending)
+    {
+        if (isImmediate())
+        {
+            return true;
+        }
+
+        if (intervalMillis > 0 && now - lastWindowEnd >= intervalMillis)
+        {
+            return true;
+        }
+
+        return maxLagMillis > 0 && now - oldestPending >= maxLagMillis;
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.math.BigDecimal;
+
+/**
+ * The identity of a backup, as read by RESTORE HEADERONLY.
+ *
+ * @author Kervin Pierre
+ */
+public final class BackupHeader
+{
+    private final String backupSetId;
+    private final int backupType;
+    private final BigDecimal checkpointLsn;
+    private final BigDecimal lastLsn;
+    private final String differentialBaseId;
+
+    /**
+     * @return BackupSetGUID, unique to every backup taken
+     */
+    public String getBackupSetId()
+    {
+        return backupSetId;
+    }
+
+    /**
+     * @return BackupType, e.g. 1 for a full database backup
+     */
+    public int getBackupType()
+    {
+        return backupType;
+    }
+
+    public BigDecimal getCheckpointLsn()
+    {
+        return checkpointLsn;
+    }
+
+    public BigDecimal getLastLsn()
+    {
+        return lastLsn;
+    }
+
+    /**
+     * @return DifferentialBaseGUID, the full backup a differential backup is
+     *         based on, or null
+     */
+    public String getDifferentialBaseId()
+    {
+        return differentialBaseId;
+    }
+
+    private BackupHeader(final String backupSetId,
+                         final int backupType,
+                         final BigDecimal checkpointLsn,
+                         final BigDecimal lastLsn,
+                         final String differentialBaseId)
+    {
+        this.backupSetId = backupSetId;
+        this.backupType = backupType;
+        this.checkpointLsn = checkpointLsn;
+        this.lastLsn = lastLsn;
+        this.differentialBaseId = differentialBaseId;
+    }
+
+    public static BackupHeader from(final String backupSetId,
+                                    final int backupType,
+                                    final BigDecimal checkpointLsn,
+                                    final BigDecimal lastLsn)
+    {
+        return from(backupSetId, backupType, checkpointLsn, lastLsn, null);
+    }
+
+    public static BackupHeader from(final String backupSetId,
+                                    final int backupType,
+                                    final BigDecimal checkpointLsn,
+                                    final BigDecimal lastLsn,
+                                    final String differentialBaseId)
+    {
+        BackupHeader res = new BackupHeader(backupSetId, backupType, checkpointLsn, lastLsn,
+                differentialBaseId);
+
+        return res;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("backup set %s type %d, checkpoint LSN %s, last LSN %s",
+                backupSetId, backupType, checkpointLsn, lastLsn);
+    }
+}
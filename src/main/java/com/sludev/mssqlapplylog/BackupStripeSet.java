@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The files of a backup striped across several devices.
+ *
+ * Stripes are found with a regex that has the named groups "set" and
+ * "stripe", and optionally "count".  Files whose "set" group matches the
+ * given backup file belong to the same backup, ordered by "stripe".  For
+ * example, "northwinddb(?&lt;set&gt;\d+)_(?&lt;stripe&gt;\d+)of(?&lt;count&gt;\d+)\.bak"
+ * groups "northwinddb201601131200_1of4.bak" to "northwinddb201601131200_4of4.bak".
+ *
+ * @author Kervin Pierre
+ */
+public final class BackupStripeSet
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(BackupStripeSet.class);
+
+    private final String setKey;
+    private final List<Path> stripes;
+    private final int expectedCount;
+
+    public String getSetKey()
+    {
+        return setKey;
+    }
+
+    /**
+     * @return The stripe files, in stripe order
+     */
+    public List<Path> getStripes()
+    {
+        return stripes;
+    }
+
+    /**
+     * @return The stripe count from the file names, or 0 if they don't say
+     */
+    public int getExpectedCount()
+    {
+        return expectedCount;
+    }
+
+    private BackupStripeSet(final String setKey,
+                            final List<Path> stripes,
+                            final int expectedCount)
+    {
+        this.setKey = setKey;
+        this.stripes = stripes;
+        this.expectedCount = expectedCount;
+    }
+
+    /**
+     * A backup that is not striped.
+     *
+     * @param backup The backup file
+     * @return A set of one
+     */
+    public static BackupStripeSet from(final Path backup)
+    {
+        BackupStripeSet res = new BackupStripeSet(backup.getFileName().toString(),
+                Collections.singletonList(backup), 1);
+
+        return res;
+    }
+
+    /**
+     * Find every stripe of the backup that the given file belongs to.
+     *
+     * @param backup One of the stripe files, usually the first
+     * @param stripePatternStr The stripe regex with "set" and "stripe" named groups
+     * @return The stripe set, checked for missing or duplicate stripes
+     * @throws IOException If the backup directory cannot be listed
+     * @throws MSSQLApplyLogException If the stripe set is not complete
+     */
+    public static BackupStripeSet from(final Path backup, final String stripePatternStr)
+            throws IOException, MSSQLApplyLogException
+    {
+        Pattern stripePattern = Pattern.compile(stripePatternStr);
+        boolean hasCount = stripePatternStr.contains("(?<count>");
+
+        Matcher m = stripePattern.matcher(backup.getFileName().toString());
+        if (m.matches() == false)
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "Full backup '%s' does not match the stripe pattern '%s'",
+                    backup, stripePatternStr));
+        }
+
+        String setKey = m.group("set");
+        int expectedCount = hasCount ? Integer.parseInt(m.group("count")) : 0;
+
+        Map<Integer, Path> found = new TreeMap<>();
+
+        Path dir = backup.toAbsolutePath().getParent();
+        try (Stream<Path> files = Files.list(dir))
+        {
+            for (Path p : (Iterable<Path>) files::iterator)
+            {
+                Matcher pm = stripePattern.matcher(p.getFileName().toString());
+                if (pm.matches() == false || setKey.equals(pm.group("set")) == false)
+                {
+                    continue;
+                }
+
+                int stripe = Integer.parseInt(pm.group("stripe"));
+
+                if (hasCount && Integer.parseInt(pm.group("count")) != expectedCount)
+                {
+                    throw new MSSQLApplyLogException(String.format(
+                            "Stripe '%s' disagrees on the stripe count %d", p, expectedCount));
+                }
+
+                Path prev = found.put(stripe, p);
+                if (prev != null)
+                {
+                    throw new MSSQLApplyLogException(String.format(
+                            "Duplicate stripe %d, '%s' and '%s'", stripe, prev, p));
+                }
+            }
+        }
+
+        BackupStripeSet res = new BackupStripeSet(setKey,
+                Collections.unmodifiableList(new ArrayList<>(found.values())),
+                expectedCount);
+
+        res.checkComplete(found);
+
+        LOGGER.info(String.format("Found %d stripes for backup set '%s'",
+                res.getStripes().size(), setKey));
+
+        return res;
+    }
+
+    private void checkComplete(final Map<Integer, Path> found) throws MSSQLApplyLogException
+    {
+        if (found.isEmpty())
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "No stripes found for backup set '%s'", setKey));
+        }
+
+        // Stripe numbers may start at 0 or 1, but can't have holes
+        int first = found.keySet().iterator().next();
+        if (first > 1)
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "Backup set '%s' is missing stripe %d", setKey, first - 1));
+        }
+
+        int expected = first;
+        for (int stripe : found.keySet())
+        {
+            if (stripe != expected)
+            {
+                throw new MSSQLApplyLogException(String.format(
+                        "Backup set '%s' is missing stripe %d", setKey, expected));
+            }
+
+            expected++;
+        }
+
+        if (expectedCount > 0 && found.size() != expectedCount)
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "Backup set '%s' has %d of %d stripes", setKey, found.size(), expectedCount));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pauses restores while the SQL Server is unreachable.
+ *
+ * After a number of consecutive connection failures the breaker opens and
+ * every restore waits until the open period ends.  The next restore is then
+ * a trial.  If it succeeds the breaker closes, otherwise it opens again.
+ *
+ * @author Kervin Pierre
+ */
+public final class CircuitBreaker
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(CircuitBreaker.class);
+
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private long trips = 0;
+
+    private CircuitBreaker(final String name,
+                           final int failureThreshold,
+                           final long openMillis)
+    {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public static CircuitBreaker from(final String name,
+                                      final int failureThreshold,
+                                      final long openMillis)
+    {
+        CircuitBreaker res = new CircuitBreaker(name, failureThreshold, openMillis);
+
+        return res;
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public synchronized long getTrips()
+    {
+        return trips;
+    }
+
+    /**
+     * Block while the breaker is open.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void awaitClosed() throws InterruptedException
+    {
+        while (state == State.OPEN)
+        {
+            long remaining = openUntil - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                LOGGER.info(String.format("Circuit breaker '%s' is half-open.  "
+                        + "Trying a restore.", name));
+
+                state = State.HALF_OPEN;
+
+                break;
+            }
+
+            wait(remaining);
+        }
+    }
+
+    public synchronized void recordSuccess()
+    {
+        if (state != State.CLOSED)
+        {
+            LOGGER.info(String.format("Circuit breaker '%s' is closed.", name));
+        }
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+
+        notifyAll();
+    }
+
+    public synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)
+        {
+            if (state != State.OPEN)
+            {
+                trips++;
+            }
+
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+
+            LOGGER.warn(String.format("Circuit breaker '%s' is open after %d connection "
+                    + "failures.  Pausing restores for %d ms.",
+                    name, consecutiveFailures, openMillis));
+        }
+    }
+}
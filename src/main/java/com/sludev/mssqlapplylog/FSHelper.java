@@ -29,15 +29,10 @@ import java.nio.file.attribute.AclFileAttributeView;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.TemporalAccessor;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -51,6 +46,10 @@ public class FSHelper
     private static final Logger LOGGER
             = LogManager.getLogger(FSHelper.class);
 
+    // Parsers by pattern.  A parser is not thread-safe, so one set per thread.
+    private static final ThreadLocal<Map<String, TimestampParser>> PARSERS
+            = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * Add the proper File-System permissions to a file so that SQL Server can run a RESTORE query.
      * 
@@ -59,6 +58,14 @@ public class FSHelper
      * @throws IOException 
      */
     public static void addRestorePermissions(String username, Path file) throws IOException
+    {
+        try (RestoreTracer.Span span = RestoreTracer.start("acl", file))
+        {
+            setRestoreAcl(username, file);
+        }
+    }
+
+    private static void setRestoreAcl(String username, Path file) throws IOException
     {
         AclFileAttributeView aclAttr = Files.getFileAttributeView(file, AclFileAttributeView.class);
 
@@ -78,128 +85,11 @@ public class FSHelper
         aclAttr.setAcl(Collections.singletonList(builder.build()));
     }
 
-    /**
-     * List all the Backup Log Files in a directory.  
-     * 
-     * Optionally filter these backup files by date either using the file name
-     * or Last Modified date.  Also can use an exclusion list for skipping files
-     * in the returned list.
-     * 
-     * @param dir The backup directory containing the backup files
-     * @param filterCutoff Only return files after this date
-     * @param useLogFileLastMode If true, use the file's last modified date for filtering and sorting
-     * @param logBackupPatternStr Regex for selecting log backup files
-     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
-     * @param exclusionList If a file is found on this list, then it's ignored
-     * @return A List of Paths that meet all query criteria
-     * @throws IOException 
-     */
-    public static List<Path> listLogFiles( final Path dir, 
-                                       final Instant filterCutoff,
-                                       final boolean useLogFileLastMode, 
-                                       final String logBackupPatternStr,
-                                       final String logBackupDatePatternStr,
-                                       final List<Path> exclusionList) throws IOException
-    {
-        
-        Pattern filterPattern = Pattern.compile(logBackupPatternStr);
-
-        List<Path> files = Files.list(dir).filter(i -> 
-        {
-            // Does the filter regex match?
-            if( filterPattern.matcher(i.getFileName().toString())
-                    .matches() == false )
-            {
-                return false;
-            }
-            
-            // Is it on the Exclusion list?
-            if( exclusionList != null 
-                    && exclusionList.size() > 0
-                    && exclusionList.contains(i) )
-            {
-                return false;
-            }
-
-            try
-            {
-                Instant fi;
-
-                if (useLogFileLastMode)
-                {
-                    fi = Files.getLastModifiedTime(i).toInstant();
-                }
-                else
-                {
-                    fi = FSHelper.getTimestampFromFilename(logBackupPatternStr,
-                            logBackupDatePatternStr, 1, i);
-                }
-
-                if (fi.isBefore(filterCutoff))
-                {
-                    return false;
-                }
-            }
-            catch (IOException | RuntimeException ex)
-            {
-                LOGGER.warn(String.format("Error filtering '%s'", i), ex);
-            }
-
-            return true;
-        })
-        .sorted((a, b)
-                -> 
-                {
-                    int modRes = 0;
-
-                    try
-                    {
-                        Instant fa;
-                        Instant fb;
-
-                        if (useLogFileLastMode)
-                        {
-                            fa = Files.getLastModifiedTime(a).toInstant();
-                            fb = Files.getLastModifiedTime(b).toInstant();
-                        }
-                        else
-                        {
-                            fa = FSHelper.getTimestampFromFilename(logBackupPatternStr,
-                                    logBackupDatePatternStr, 1, a);
-                            fb = FSHelper.getTimestampFromFilename(logBackupPatternStr,
-                                    logBackupDatePatternStr, 1, b);
-                        }
-
-                        if (fa.isBefore(fb))
-                        {
-                            modRes = -1;
-                        }
-                        else
-                        {
-                            if (fb.isBefore(fa))
-                            {
-                                modRes = 1;
-                            }
-                        }
-                    }
-                    catch (IOException ex)
-                    {
-                        LOGGER.warn(
-                                String.format("Error filtering '%s' and '%s'",
-                                        a, b), ex);
-                    }
-
-                    return modRes;
-        })
-        .collect(Collectors.toList());
-        
-        return files;
-    }
-    
     /**
      * Parse a timestamp from a file name.
      * 
      * Useful for determining which Log Backup Files to process in some cases.
+     * The parser for each pattern is built once per thread.
      * 
      * @param filePatternStr The regex that selects the files to be processed.
      * @param datePatternStr The DateTimeFormatter pattern that parses the timestamp from the file's name.
@@ -212,46 +102,44 @@ public class FSHelper
                                                     final int datePatternPos,
                                                     final Path path)
     {
-        Instant res = null;
-        Pattern filePattern = Pattern.compile(filePatternStr);
-        Matcher fbMatcher = filePattern.matcher(path.getFileName().toString());
-        
-        if (fbMatcher.matches())
+        String key = filePatternStr + '\0' + datePatternStr + '\0' + datePatternPos;
+
+        TimestampParser parser = PARSERS.get().get(key);
+        try
         {
-            if( fbMatcher.groupCount() < datePatternPos )
+            if (parser == null)
             {
-                LOGGER.error(String.format("Invalid File Regex Pattern.  "
-                        + "There should be at least %d date group in '%s'", 
-                        datePatternPos, filePatternStr));
-
-                return null;
-            }
-            
-            String resStr = fbMatcher.group(datePatternPos);
+                parser = TimestampParser.from(filePatternStr, datePatternStr, datePatternPos);
 
-            try
-            {
-                TemporalAccessor ta = DateTimeFormatter.ofPattern(datePatternStr)
-                        .withZone(ZoneId.of("UTC"))
-                        .parse(resStr);
-                res = Instant.from(ta);
+                PARSERS.get().put(key, parser);
             }
-            catch (Exception ex)
-            {
-                LOGGER.error(String.format("Error parsing 'Later Than' time"
-                        + " from file '%s'", resStr), ex);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            LOGGER.error(String.format("Invalid file or date pattern '%s', '%s'",
+                    filePatternStr, datePatternStr), ex);
 
-                return null;
-            }
+            return null;
         }
-        else
+
+        long res = parser.parseEpochMillis(path.getFileName().toString());
+
+        if (res == TimestampParser.NO_MATCH)
         {
             LOGGER.error(String.format("Given a Full Backup Date Pattern "
                     + "that does not match the full backup file. '%s'", filePatternStr));
 
             return null;
         }
-        
-        return res;
+
+        if (res == TimestampParser.INVALID)
+        {
+            LOGGER.error(String.format("Error parsing 'Later Than' time"
+                    + " from file '%s'", path.getFileName()));
+
+            return null;
+        }
+
+        return Instant.ofEpochMilli(res);
     }
 }
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+/**
+ * How a failed RESTORE should be handled.
+ *
+ * @author Kervin Pierre
+ */
+public enum FailureKind
+{
+    /**
+     * Worth retrying after a short wait, e.g. a lock or a file still being copied.
+     */
+    TRANSIENT,
+
+    /**
+     * The server could not be reached.  Retry once the circuit breaker allows it.
+     */
+    CONNECTION,
+
+    /**
+     * SQL Server says the backup is already part of the database.  Skip it.
+     */
+    ALREADY_APPLIED,
+
+    /**
+     * The backup does not follow the database's restore chain.  Restoring
+     * anything after it is pointless.
+     */
+    CHAIN
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides what to do when a RESTORE fails.
+ *
+ * Failures are classified from the SQL Server error numbers in the exception
+ * chain.  Transient failures are retried with exponential backoff and
+ * jitter.  Connection failures feed a circuit breaker.  Chain failures stop
+ * the database's restore sequence.
+ *
+ * @author Kervin Pierre
+ */
+public final class FailurePolicy
+{
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_BACKOFF_BASE_MILLIS = 1000;
+    public static final long DEFAULT_BACKOFF_MAX_MILLIS = 60000;
+    public static final int DEFAULT_BREAKER_THRESHOLD = 3;
+    public static final long DEFAULT_BREAKER_OPEN_MILLIS = 30000;
+
+    // The log is older than the database, i.e. it was already restored
+    private static final int[] ALREADY_APPLIED_ERRORS =
+    {
+        4326
+    };
+
+    // The backup does not fit the database's current restore chain
+    private static final int[] CHAIN_ERRORS =
+    {
+        3117,   // No files are ready to rollforward
+        3154,   // Backup set holds a backup of a different database
+        4305,   // Log begins at an LSN too recent to apply
+        4306,   // Preceding restore did not specify NORECOVERY
+        4319,   // A previous restore operation was interrupted
+        4330,   // Inconsistent recovery path
+        4338    // Backup set belongs to a different recovery fork
+    };
+
+    // Worth another try in a moment
+    private static final int[] TRANSIENT_ERRORS =
+    {
+        1205,   // Deadlock victim
+        1222,   // Lock request timeout
+        3101,   // Exclusive access could not be obtained
+        3201,   // Cannot open backup device, e.g. still being copied
+        3203,   // Read failure on backup device
+        3241    // Media family incorrectly formed, e.g. a partial file
+    };
+
+    // The server or database is unreachable
+    private static final int[] CONNECTION_ERRORS =
+    {
+        4060,   // Cannot open database requested by the login
+        18456   // Login failed
+    };
+
+    private final int maxRetries;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final int breakerThreshold;
+    private final long breakerOpenMillis;
+
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    public long getBackoffBaseMillis()
+    {
+        return backoffBaseMillis;
+    }
+
+    public long getBackoffMaxMillis()
+    {
+        return backoffMaxMillis;
+    }
+
+    public int getBreakerThreshold()
+    {
+        return breakerThreshold;
+    }
+
+    public long getBreakerOpenMillis()
+    {
+        return breakerOpenMillis;
+    }
+
+    private FailurePolicy(final int maxRetries,
+                          final long backoffBaseMillis,
+                          final long backoffMaxMillis,
+                          final int breakerThreshold,
+                          final long breakerOpenMillis)
+    {
+        this.maxRetries = maxRetries;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+
+    /**
+     * @param maxRetries Retries per backup for transient and connection failures
+     * @param backoffBaseMillis First retry delay, doubled on every attempt
+     * @param backoffMaxMillis Upper limit on the retry delay
+     * @param breakerThreshold Consecutive connection failures that open the circuit breaker
+     * @param breakerOpenMillis Time restores are paused while the breaker is open
+     * @return The policy.  Null arguments take the default.
+     */
+    public static FailurePolicy from(final Integer maxRetries,
+                                     final Long backoffBaseMillis,
+                                     final Long backoffMaxMillis,
+                                     final Integer breakerThreshold,
+                                     final Long breakerOpenMillis)
+    {
+        FailurePolicy res = new FailurePolicy(
+                maxRetries == null ? DEFAULT_MAX_RETRIES : maxRetries,
+                backoffBaseMillis == null ? DEFAULT_BACKOFF_BASE_MILLIS : backoffBaseMillis,
+                backoffMaxMillis == null ? DEFAULT_BACKOFF_MAX_MILLIS : backoffMaxMillis,
+                breakerThreshold == null ? DEFAULT_BREAKER_THRESHOLD : breakerThreshold,
+                breakerOpenMillis == null ? DEFAULT_BREAKER_OPEN_MILLIS : breakerOpenMillis);
+
+        return res;
+    }
+
+    public static FailurePolicy from()
+    {
+        return from(null, null, null, null, null);
+    }
+
+    public CircuitBreaker newCircuitBreaker(final String name)
+    {
+        return CircuitBreaker.from(name, breakerThreshold, breakerOpenMillis);
+    }
+
+    /**
+     * Classify a failed RESTORE.
+     *
+     * SQL Server reports a RESTORE failure as a chain of errors, usually the
+     * specific error followed by a generic 3013.  The whole chain is checked.
+     * Errors that are not recognized are treated as chain failures, since
+     * carrying on with the next backup is unsafe.
+     *
+     * @param ex The exception thrown by the RESTORE
+     * @return How the failure should be handled
+     */
+    public FailureKind classify(final SQLException ex)
+    {
+        boolean isTransient = false;
+        boolean isConnection = false;
+        boolean isChain = false;
+
+        for (SQLException curr = ex; curr != null; curr = curr.getNextException())
+        {
+            int code = curr.getErrorCode();
+
+            if (contains(ALREADY_APPLIED_ERRORS, code))
+            {
+                return FailureKind.ALREADY_APPLIED;
+            }
+
+            if (contains(CHAIN_ERRORS, code))
+            {
+                isChain = true;
+            }
+            else if (contains(TRANSIENT_ERRORS, code)
+                    || curr instanceof SQLTimeoutException)
+            {
+                isTransient = true;
+            }
+            else if (contains(CONNECTION_ERRORS, code)
+                    || (curr.getSQLState() != null && curr.getSQLState().startsWith("08")))
+            {
+                isConnection = true;
+            }
+        }
+
+        if (isChain)
+        {
+            return FailureKind.CHAIN;
+        }
+
+        if (isConnection)
+        {
+            return FailureKind.CONNECTION;
+        }
+
+        if (isTransient)
+        {
+            return FailureKind.TRANSIENT;
+        }
+
+        return FailureKind.CHAIN;
+    }
+
+    /**
+     * The delay before a retry.
+     *
+     * Exponential backoff with "equal jitter", i.e. a random delay between
+     * half and all of the exponential delay.  Keeps retries from several
+     * jobs from lining up on a recovering server.
+     *
+     * @param attempt The retry number, starting at 1
+     * @return Delay in milliseconds
+     */
+    public long backoffMillis(final int attempt)
+    {
+        long res = backoffBaseMillis;
+
+        for (int i = 1; i < attempt && res < backoffMaxMillis; i++)
+        {
+            res *= 2;
+        }
+
+        res = Math.min(res, backoffMaxMillis);
+
+        long half = res / 2;
+
+        return half + ThreadLocalRandom.current().nextLong(res - half + 1);
+    }
+
+    private static boolean contains(final int[] codes, final int code)
+    {
+        for (int c : codes)
+        {
+            if (c == code)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Passes events on to an application's listener, so that a failing
+ * listener never stops a restore.
+ *
+ * @author Kervin Pierre
+ */
+final class GuardedListener implements ApplyLogListener
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(GuardedListener.class);
+
+    private final ApplyLogListener listener;
+
+    private GuardedListener(final ApplyLogListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @param listener The application's listener, or null for none
+     * @return The guarded listener, never null
+     */
+    public static ApplyLogListener from(final ApplyLogListener listener)
+    {
+        if (listener instanceof GuardedListener)
+        {
+            return listener;
+        }
+
+        GuardedListener res = new GuardedListener(listener);
+
+        return res;
+    }
+
+    @Override
+    public void logDiscovered(final String target, final Path logPath)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        try
+        {
+            listener.logDiscovered(target, logPath);
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.warn("Listener failed on log discovered", ex);
+        }
+    }
+
+    @Override
+    public void logApplied(final String target, final Path logPath, final long millis)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        try
+        {
+            listener.logApplied(target, logPath, millis);
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.warn("Listener failed on log applied", ex);
+        }
+    }
+
+    @Override
+    public void logFailed(final String target, final Path logPath, final Exception cause)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        try
+        {
+            listener.logFailed(target, logPath, cause);
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.warn("Listener failed on log failed", ex);
+        }
+    }
+
+    @Override
+    public void lagUpdated(final String target, final long lagMillis)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        try
+        {
+            listener.lagUpdated(target, lagMillis);
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.warn("Listener failed on lag updated", ex);
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Leases on jobs, kept as files in a directory every node shares.
+ *
+ * A job's lease file "job.lease" names its owner, a fencing token and when
+ * the lease expires.  The owner renews it with heartbeats.  Once it expires
+ * any node may take it, and the token goes up by one, so a node that stalled
+ * can tell it no longer holds the job.  Changes are made while holding a
+ * short lived "job.lock" file, created atomically.
+ *
+ * Expiry times are compared across nodes, so their clocks must agree to
+ * well within the lease time.
+ *
+ * @author Kervin Pierre
+ */
+public final class LeaseStore
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(LeaseStore.class);
+
+    public static final long DEFAULT_LEASE_MILLIS = 15000;
+
+    private static final long LOCK_RETRY_MILLIS = 20;
+
+    /**
+     * A lease held, or seen held, on a job.
+     */
+    public static final class Lease
+    {
+        private final LeaseStore store;
+        private final String job;
+        private final String owner;
+        private final long token;
+        private final long expires;
+        private final long released;
+
+        public String getJob()
+        {
+            return job;
+        }
+
+        public String getOwner()
+        {
+            return owner;
+        }
+
+        /**
+         * @return The fencing token, higher for every new owner
+         */
+        public long getToken()
+        {
+            return token;
+        }
+
+        /**
+         * @return When the lease ends unless renewed, epoch milliseconds
+         */
+        public long getExpires()
+        {
+            return expires;
+        }
+
+        /**
+         * @return When the owner gave the lease up, epoch milliseconds, or 0
+         */
+        public long getReleased()
+        {
+            return released;
+        }
+
+        private Lease(final LeaseStore store,
+                      final String job,
+                      final String owner,
+                      final long token,
+                      final long expires,
+                      final long released)
+        {
+            this.store = store;
+            this.job = job;
+            this.owner = owner;
+            this.token = token;
+            this.expires = expires;
+            this.released = released;
+        }
+
+        /**
+         * The fence.  Checked from the lease file, not from memory, so a node
+         * that stalled past its lease finds out before it acts.
+         *
+         * @return True if this is still the job's current lease
+         */
+        public boolean isCurrent()
+        {
+            Lease curr;
+            try
+            {
+                curr = store.read(job);
+            }
+            catch (IOException ex)
+            {
+                LOGGER.warn("Error reading the lease on '{}'", job, ex);
+
+                return false;
+            }
+
+            return curr != null && curr.token == token
+                    && curr.owner.equals(owner)
+                    && curr.expires > System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("'%s' held by '%s', token %d", job, owner, token);
+        }
+    }
+
+    private final Path dir;
+    private final String nodeId;
+    private final long leaseMillis;
+
+    public Path getDir()
+    {
+        return dir;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    public long getLeaseMillis()
+    {
+        return leaseMillis;
+    }
+
+    private LeaseStore(final Path dir,
+                       final String nodeId,
+                       final long leaseMillis)
+    {
+        this.dir = dir;
+        this.nodeId = nodeId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @param dir The shared lease directory
+     * @param nodeId This node's name, unique among the nodes
+     * @param leaseMillis How long a lease lasts without a heartbeat.  Null for the default.
+     * @return The store
+     * @throws IOException If the directory cannot be created
+     */
+    public static LeaseStore from(final Path dir,
+                                  final String nodeId,
+                                  final Long leaseMillis) throws IOException
+    {
+        Files.createDirectories(dir);
+
+        LeaseStore res = new LeaseStore(dir, nodeId,
+                leaseMillis == null || leaseMillis <= 0 ? DEFAULT_LEASE_MILLIS : leaseMillis);
+
+        return res;
+    }
+
+    /**
+     * Take the lease on a job if nobody holds it.
+     *
+     * @param job The job
+     * @return The new lease, or null if another node holds the job
+     * @throws IOException If the lease files cannot be read or written
+     * @throws InterruptedException
+     */
+    public Lease tryAcquire(final String job) throws IOException, InterruptedException
+    {
+        lock(job);
+        try
+        {
+            Lease curr = read(job);
+            long now = System.currentTimeMillis();
+
+            if (curr != null && curr.expires > now && curr.owner.equals(nodeId) == false)
+            {
+                return null;
+            }
+
+            Lease res = new Lease(this, job, nodeId, curr == null ? 1 : curr.token + 1,
+                    now + leaseMillis, 0);
+
+            write(res);
+
+            if (curr != null && curr.released == 0 && curr.owner.equals(nodeId) == false)
+            {
+                LOGGER.info("Took over {} from '{}'", res, curr.owner);
+            }
+            else
+            {
+                LOGGER.info("Acquired {}", res);
+            }
+
+            return res;
+        }
+        finally
+        {
+            unlock(job);
+        }
+    }
+
+    /**
+     * Heartbeat, extending a lease still held.
+     *
+     * @param lease The lease
+     * @return The renewed lease, or null if it was lost
+     * @throws IOException If the lease files cannot be read or written
+     * @throws InterruptedException
+     */
+    public Lease renew(final Lease lease) throws IOException, InterruptedException
+    {
+        lock(lease.job);
+        try
+        {
+            if (lease.isCurrent() == false)
+            {
+                LOGGER.warn("Lost lease {}", lease);
+
+                return null;
+            }
+
+            Lease res = new Lease(this, lease.job, nodeId, lease.token,
+                    System.currentTimeMillis() + leaseMillis, 0);
+
+            write(res);
+
+            return res;
+        }
+        finally
+        {
+            unlock(lease.job);
+        }
+    }
+
+    /**
+     * Give a lease up, so another node can take the job at once.
+     *
+     * @param lease The lease
+     * @throws IOException If the lease files cannot be read or written
+     * @throws InterruptedException
+     */
+    public void release(final Lease lease) throws IOException, InterruptedException
+    {
+        lock(lease.job);
+        try
+        {
+            if (lease.isCurrent())
+            {
+                // The token is kept, the next owner goes above it
+                write(new Lease(this, lease.job, nodeId, lease.token, 0,
+                        System.currentTimeMillis()));
+
+                LOGGER.info("Released {}", lease);
+            }
+        }
+        finally
+        {
+            unlock(lease.job);
+        }
+    }
+
+    /**
+     * @param job The job
+     * @return The job's last lease, possibly expired, or null if it never had one
+     * @throws IOException If the lease file cannot be read
+     */
+    public Lease read(final String job) throws IOException
+    {
+        Properties props = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(leaseFile(job)))
+        {
+            props.load(reader);
+        }
+        catch (NoSuchFileException ex)
+        {
+            return null;
+        }
+
+        Lease res = new Lease(this, job, StringUtils.defaultString(props.getProperty("owner")),
+                NumberUtils.toLong(props.getProperty("token"), 0),
+                NumberUtils.toLong(props.getProperty("expires"), 0),
+                NumberUtils.toLong(props.getProperty("released"), 0));
+
+        return res;
+    }
+
+    /**
+     * Written to a temporary file first, so readers never see a partial lease.
+     */
+    private void write(final Lease lease) throws IOException
+    {
+        Properties props = new Properties();
+
+        props.setProperty("owner", lease.owner);
+        props.setProperty("token", String.valueOf(lease.token));
+        props.setProperty("expires", String.valueOf(lease.expires));
+        props.setProperty("released", String.valueOf(lease.released));
+
+        Path file = leaseFile(lease.job);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(tmp))
+        {
+            props.store(writer, "MSSQLApplyLog lease");
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void lock(final String job) throws IOException, InterruptedException
+    {
+        Path lockFile = dir.resolve(job + ".lock");
+
+        while (true)
+        {
+            try
+            {
+                Files.createFile(lockFile);
+
+                return;
+            }
+            catch (FileAlreadyExistsException ex)
+            {
+                // Left behind by a node that died while holding it
+                try
+                {
+                    if (System.currentTimeMillis() - Files.getLastModifiedTime(lockFile).toMillis()
+                            > leaseMillis)
+                    {
+                        LOGGER.warn("Removing stale lock '{}'", lockFile);
+
+                        Files.deleteIfExists(lockFile);
+
+                        continue;
+                    }
+                }
+                catch (NoSuchFileException nex)
+                {
+                    continue;
+                }
+
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            }
+        }
+    }
+
+    private void unlock(final String job) throws IOException
+    {
+        Files.deleteIfExists(dir.resolve(job + ".lock"));
+    }
+
+    private Path leaseFile(final String job)
+    {
+        return dir.resolve(job + ".lease");
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The log backups waiting behind a full restore, made ready while it runs.
+ *
+ * Indexes the backup directories, checks the logs for gaps, and gives SQL
+ * Server read permission on every log.  So the first RESTORE LOG can be sent
+ * as soon as the full restore returns.
+ *
+ * @author Kervin Pierre
+ */
+public final class LogBacklog
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(LogBacklog.class);
+
+    private final LogIndex index;
+    private final List<Path> gaps;
+    private final List<Path> permitted;
+
+    /**
+     * @return Every log backup found
+     */
+    public LogIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * @return Logs that follow the log before them unusually late
+     */
+    public List<Path> getGaps()
+    {
+        return gaps;
+    }
+
+    /**
+     * @return Logs SQL Server was already given permission to read
+     */
+    public List<Path> getPermitted()
+    {
+        return permitted;
+    }
+
+    private LogBacklog(final LogIndex index,
+                       final List<Path> gaps,
+                       final List<Path> permitted)
+    {
+        this.index = index;
+        this.gaps = gaps;
+        this.permitted = permitted;
+    }
+
+    /**
+     * Prepare the logs after a full backup.
+     *
+     * @param sqlDb The database
+     * @param dirs The log backup directories
+     * @param laterThan Time of the full backup the logs follow
+     * @param sqlProcessUser Give this user read permission on every log, or null
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The backlog
+     * @throws IOException If the directories cannot be listed
+     */
+    public static LogBacklog prepare(final String sqlDb,
+                                     final List<Path> dirs,
+                                     final Instant laterThan,
+                                     final String sqlProcessUser,
+                                     final boolean useLogFileLastMode,
+                                     final String logBackupPatternStr,
+                                     final String logBackupDatePatternStr) throws IOException
+    {
+        StopWatch sw = new StopWatch();
+
+        sw.start();
+
+        LogIndex index = LogIndex.from(dirs, useLogFileLastMode, logBackupPatternStr,
+                logBackupDatePatternStr);
+
+        // Without the server only the timestamps can be checked
+        RestorePlan plan = RestorePlan.from(sqlDb, null, index, laterThan, null, null);
+
+        List<Path> gaps = plan.getGaps();
+        if (gaps.isEmpty() == false)
+        {
+            LOGGER.warn("{} suspicious gaps in the log backups, first before '{}'",
+                    gaps.size(), gaps.get(0));
+        }
+
+        List<Path> logs = plan.getLogs();
+        List<Path> permitted = new ArrayList<>();
+        if (StringUtils.isNoneBlank(sqlProcessUser))
+        {
+            for (Path log : logs)
+            {
+                try
+                {
+                    FSHelper.addRestorePermissions(sqlProcessUser, log);
+
+                    permitted.add(log);
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    // Tried again just before its restore
+                    LOGGER.debug("Error adding read permission for user '{}' to '{}'",
+                            sqlProcessUser, log, ex);
+                }
+            }
+        }
+
+        sw.stop();
+
+        LOGGER.info("Prepared {} log backups for '{}' in {}", logs.size(), sqlDb, sw);
+
+        LogBacklog res = new LogBacklog(index, gaps, Collections.unmodifiableList(permitted));
+
+        return res;
+    }
+}
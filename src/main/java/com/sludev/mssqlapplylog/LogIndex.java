@@ -0,0 +1,538 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The log backups in one or more directories, sorted by their timestamp.
+ *
+ * Timestamps come from the file name or the last modified date.  A log
+ * backup's timestamp is taken as the end of the time it covers, so the log
+ * needed to reach a point in time is the first one at or after it.  Lookups
+ * are binary searches over the sorted timestamps.
+ *
+ * Archives can hold millions of log backups, so nothing is kept per file
+ * but parallel primitive arrays.  Timestamps, sizes and directory ids sit at
+ * the same position, and file names are UTF-8 bytes in one shared blob.
+ * Paths are only created when asked for.
+ *
+ * @author Kervin Pierre
+ */
+public final class LogIndex
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(LogIndex.class);
+
+    private final Path[] dirs;
+    private final long[] timestamps;
+    private final long[] sizes;
+    private final short[] dirIds;
+    private final int[] nameOffsets;
+    private final byte[] names;
+
+    private LogIndex(final Path[] dirs,
+                     final long[] timestamps,
+                     final long[] sizes,
+                     final short[] dirIds,
+                     final int[] nameOffsets,
+                     final byte[] names)
+    {
+        this.dirs = dirs;
+        this.timestamps = timestamps;
+        this.sizes = sizes;
+        this.dirIds = dirIds;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+    }
+
+    /**
+     * Index the log backups in a directory.
+     *
+     * Files whose timestamp cannot be read are left out.
+     *
+     * @param dir The backup directory
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The index
+     * @throws IOException If the directory cannot be listed
+     */
+    public static LogIndex from(final Path dir,
+                                final boolean useLogFileLastMode,
+                                final String logBackupPatternStr,
+                                final String logBackupDatePatternStr) throws IOException
+    {
+        return from(Collections.singletonList(dir), useLogFileLastMode,
+                logBackupPatternStr, logBackupDatePatternStr);
+    }
+
+    /**
+     * Index the log backups in several directories as one sequence.
+     *
+     * @param dirs The backup directories
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The index
+     * @throws IOException If a directory cannot be listed
+     */
+    public static LogIndex from(final List<Path> dirs,
+                                final boolean useLogFileLastMode,
+                                final String logBackupPatternStr,
+                                final String logBackupDatePatternStr) throws IOException
+    {
+        Matcher filterMatcher = Pattern.compile(logBackupPatternStr).matcher("");
+        TimestampParser parser = useLogFileLastMode ? null
+                : TimestampParser.from(logBackupPatternStr, logBackupDatePatternStr, 1);
+
+        Builder builder = new Builder(dirs);
+
+        for (int dirId = 0; dirId < dirs.size(); dirId++)
+        {
+            Path dir = dirs.get(dirId);
+            int before = builder.size();
+
+            try (RestoreTracer.Span span = RestoreTracer.start("list", dir);
+                    DirectoryStream<Path> files = Files.newDirectoryStream(dir))
+            {
+                for (Path p : files)
+                {
+                    String name = p.getFileName().toString();
+                    long ts = 0;
+
+                    if (useLogFileLastMode)
+                    {
+                        if (filterMatcher.reset(name).matches() == false)
+                        {
+                            continue;
+                        }
+                    }
+                    else
+                    {
+                        ts = parser.parseEpochMillis(name);
+
+                        if (ts == TimestampParser.NO_MATCH)
+                        {
+                            continue;
+                        }
+
+                        if (ts == TimestampParser.INVALID)
+                        {
+                            LOGGER.warn(String.format("Skipping '%s', it has no timestamp", p));
+
+                            continue;
+                        }
+                    }
+
+                    BasicFileAttributes attrs;
+                    try
+                    {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    }
+                    catch (IOException ex)
+                    {
+                        LOGGER.warn(String.format("Error reading the attributes of '%s'", p), ex);
+
+                        continue;
+                    }
+
+                    if (useLogFileLastMode)
+                    {
+                        ts = attrs.lastModifiedTime().toMillis();
+                    }
+
+                    builder.add(dirId, name, ts, attrs.size());
+                }
+
+                span.arg("logs", builder.size() - before);
+            }
+        }
+
+        LogIndex res = builder.build();
+
+        LOGGER.debug("Indexed {} log backups in '{}'", res.size(), dirs);
+
+        return res;
+    }
+
+    public int size()
+    {
+        return timestamps.length;
+    }
+
+    public Path getPath(final int pos)
+    {
+        return dirs[dirIds[pos]].resolve(getFileName(pos));
+    }
+
+    public String getFileName(final int pos)
+    {
+        return new String(names, nameOffsets[pos], nameOffsets[pos + 1] - nameOffsets[pos],
+                StandardCharsets.UTF_8);
+    }
+
+    public Instant getTimestamp(final int pos)
+    {
+        return Instant.ofEpochMilli(timestamps[pos]);
+    }
+
+    public long getEpochMillis(final int pos)
+    {
+        return timestamps[pos];
+    }
+
+    /**
+     * @param pos Position in the index
+     * @return Size of the log backup in bytes
+     */
+    public long getSize(final int pos)
+    {
+        return sizes[pos];
+    }
+
+    /**
+     * @param pos Position in the index
+     * @return The next position, or -1 after the last log
+     */
+    public int next(final int pos)
+    {
+        return pos + 1 < size() ? pos + 1 : -1;
+    }
+
+    /**
+     * @param time The point in time, or null for the start
+     * @return Position of the first log at or after the time, or size() if there is none
+     */
+    public int ceiling(final Instant time)
+    {
+        if (time == null)
+        {
+            return 0;
+        }
+
+        long key = time.toEpochMilli();
+        int lo = 0;
+        int hi = timestamps.length;
+
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (timestamps[mid] < key)
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Find where to carry on from a log seen in an earlier index of the same directories.
+     *
+     * @param time The log's timestamp
+     * @param fileName The log's file name
+     * @return Position of the first log sorted after that log, or size() if there is none
+     */
+    public int higher(final Instant time, final String fileName)
+    {
+        byte[] key = fileName.getBytes(StandardCharsets.UTF_8);
+        int pos = ceiling(time);
+        long millis = time.toEpochMilli();
+
+        // Logs sharing a timestamp are few, and sorted by name
+        while (pos < size() && timestamps[pos] == millis
+                && compareName(pos, key, 0, key.length) <= 0)
+        {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    /**
+     * @param from First position, inclusive
+     * @param to Last position, exclusive
+     * @return The log backups between the positions, in order.  Paths are
+     *         created as the list is read.
+     */
+    public List<Path> range(final int from, final int to)
+    {
+        if (from < 0 || to > size() || from > to)
+        {
+            throw new IndexOutOfBoundsException(String.format("range(%d, %d) of %d",
+                    from, to, size()));
+        }
+
+        return new AbstractList<Path>()
+        {
+            @Override
+            public Path get(final int index)
+            {
+                if (index < 0 || index >= to - from)
+                {
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                }
+
+                return getPath(from + index);
+            }
+
+            @Override
+            public int size()
+            {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * @param laterThan Only logs at or after this time.  Null for all.
+     * @return The log backups, in order
+     */
+    public List<Path> after(final Instant laterThan)
+    {
+        return range(ceiling(laterThan), size());
+    }
+
+    /**
+     * The fewest log backups that restore from a time up to a point in time.
+     *
+     * @param laterThan Only logs at or after this time, usually the full backup's.  Null for all.
+     * @param stopAt The point in time to restore to
+     * @return The log backups in order, the last one covering the stop time.  Null if no
+     *         log backup reaches the stop time yet.
+     */
+    public List<Path> coveringSet(final Instant laterThan, final Instant stopAt)
+    {
+        int last = ceiling(stopAt);
+        if (last >= size())
+        {
+            return null;
+        }
+
+        int first = Math.min(ceiling(laterThan), last);
+
+        return range(first, last + 1);
+    }
+
+    private int compareName(final int pos, final byte[] other, final int otherFrom,
+                            final int otherTo)
+    {
+        return compareBytes(names, nameOffsets[pos], nameOffsets[pos + 1],
+                other, otherFrom, otherTo);
+    }
+
+    private static int compareBytes(final byte[] a, final int aFrom, final int aTo,
+                                    final byte[] b, final int bFrom, final int bTo)
+    {
+        int len = Math.min(aTo - aFrom, bTo - bFrom);
+
+        for (int i = 0; i < len; i++)
+        {
+            int res = (a[aFrom + i] & 0xff) - (b[bFrom + i] & 0xff);
+            if (res != 0)
+            {
+                return res;
+            }
+        }
+
+        return (aTo - aFrom) - (bTo - bFrom);
+    }
+
+    /**
+     * Collects log backups in any order, then sorts them into an index.
+     */
+    public static final class Builder
+    {
+        private final Path[] dirs;
+
+        private int count;
+        private long[] timestamps = new long[64];
+        private long[] sizes = new long[64];
+        private short[] dirIds = new short[64];
+        private int[] nameOffsets = new int[65];
+        private byte[] names = new byte[64 * 32];
+
+        /**
+         * @param dirs The directories.  A log's directory id is its position in this list.
+         */
+        public Builder(final List<Path> dirs)
+        {
+            if (dirs.size() > Short.MAX_VALUE)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "Too many backup directories, %d", dirs.size()));
+            }
+
+            this.dirs = dirs.toArray(new Path[dirs.size()]);
+        }
+
+        public int size()
+        {
+            return count;
+        }
+
+        public Builder add(final int dirId,
+                           final String fileName,
+                           final long epochMillis,
+                           final long size)
+        {
+            if (count == timestamps.length)
+            {
+                int cap = count * 2;
+
+                timestamps = Arrays.copyOf(timestamps, cap);
+                sizes = Arrays.copyOf(sizes, cap);
+                dirIds = Arrays.copyOf(dirIds, cap);
+                nameOffsets = Arrays.copyOf(nameOffsets, cap + 1);
+            }
+
+            byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+            int offset = nameOffsets[count];
+
+            if (offset + name.length > names.length)
+            {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, offset + name.length));
+            }
+
+            System.arraycopy(name, 0, names, offset, name.length);
+
+            timestamps[count] = epochMillis;
+            sizes[count] = size;
+            dirIds[count] = (short) dirId;
+            nameOffsets[count + 1] = offset + name.length;
+
+            count++;
+
+            return this;
+        }
+
+        /**
+         * Sort by timestamp, then by file name, and trim the arrays to size.
+         *
+         * @return The index
+         */
+        public LogIndex build()
+        {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                order[i] = i;
+            }
+
+            mergeSort(order, new int[count], 0, count);
+
+            long[] sortedTimestamps = new long[count];
+            long[] sortedSizes = new long[count];
+            short[] sortedDirIds = new short[count];
+            int[] sortedOffsets = new int[count + 1];
+            byte[] sortedNames = new byte[nameOffsets[count]];
+
+            // Names are copied in sorted order so each one ends where the next begins
+            int offset = 0;
+            for (int i = 0; i < count; i++)
+            {
+                int src = order[i];
+                int len = nameOffsets[src + 1] - nameOffsets[src];
+
+                sortedTimestamps[i] = timestamps[src];
+                sortedSizes[i] = sizes[src];
+                sortedDirIds[i] = dirIds[src];
+                sortedOffsets[i] = offset;
+                System.arraycopy(names, nameOffsets[src], sortedNames, offset, len);
+
+                offset += len;
+            }
+
+            sortedOffsets[count] = offset;
+
+            LogIndex res = new LogIndex(dirs, sortedTimestamps, sortedSizes, sortedDirIds,
+                    sortedOffsets, sortedNames);
+
+            return res;
+        }
+
+        private int compare(final int a, final int b)
+        {
+            int res = Long.compare(timestamps[a], timestamps[b]);
+            if (res != 0)
+            {
+                return res;
+            }
+
+            return compareBytes(names, nameOffsets[a], nameOffsets[a + 1],
+                    names, nameOffsets[b], nameOffsets[b + 1]);
+        }
+
+        private void mergeSort(final int[] order, final int[] tmp, final int from, final int to)
+        {
+            if (to - from < 2)
+            {
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+
+            mergeSort(order, tmp, from, mid);
+            mergeSort(order, tmp, mid, to);
+
+            // Already in order, common for directory listings
+            if (compare(order[mid - 1], order[mid]) <= 0)
+            {
+                return;
+            }
+
+            System.arraycopy(order, from, tmp, from, to - from);
+
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; k++)
+            {
+                if (j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0))
+                {
+                    order[k] = tmp[i++];
+                }
+                else
+                {
+                    order[k] = tmp[j++];
+                }
+            }
+        }
+    }
+}
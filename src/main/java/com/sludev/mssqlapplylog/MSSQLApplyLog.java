@@ -20,23 +20,33 @@
 package com.sludev.mssqlapplylog;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
-import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
 import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -46,7 +56,7 @@ import org.apache.logging.log4j.Logger;
  * 
  * @author Kervin Pierre
  */
-public final class MSSQLApplyLog implements Callable<Integer>
+public final class MSSQLApplyLog implements ApplyLogJob
 {
     private static final Logger LOGGER
             = LogManager.getLogger(MSSQLApplyLogMain.class);
@@ -55,18 +65,81 @@ public final class MSSQLApplyLog implements Callable<Integer>
             = "(?:[\\w_-]+?)(\\d+)\\.trn";
     
     private final MSSQLApplyLogConfig config;
+    private final SqlTarget job;
+    private final LeaseStore.Lease lease;
+    private final ApplyLogListener listener;
+
+    private volatile boolean stopping;
+    private volatile List<TargetLane> running;
+    private Thread watcher;
     
-    private MSSQLApplyLog(final MSSQLApplyLogConfig config)
+    private MSSQLApplyLog(final MSSQLApplyLogConfig config,
+                          final SqlTarget job,
+                          final LeaseStore.Lease lease,
+                          final ApplyLogListener listener)
     {
         this.config = config;
+        this.job = job;
+        this.lease = lease;
+        this.listener = GuardedListener.from(listener);
     }
     
     public static MSSQLApplyLog from( final MSSQLApplyLogConfig config )
     {
-        MSSQLApplyLog res = new MSSQLApplyLog(config);
+        return from(config, null);
+    }
+
+    /**
+     * @param config The settings
+     * @param listener Told of every log found, restored or failed, or null
+     * @return The job
+     */
+    public static MSSQLApplyLog from(final MSSQLApplyLogConfig config,
+                                     final ApplyLogListener listener)
+    {
+        MSSQLApplyLog res = new MSSQLApplyLog(config, null, null, listener);
         
         return res;
     }
+
+    /**
+     * Restore to one target only, while a lease on it is held.
+     * 
+     * @param config The settings
+     * @param job The target
+     * @param lease Every restore first checks this is still the current lease
+     * @param listener Told of every log found, restored or failed, or null
+     * @return The job
+     */
+    public static MSSQLApplyLog from(final MSSQLApplyLogConfig config,
+                                     final SqlTarget job,
+                                     final LeaseStore.Lease lease,
+                                     final ApplyLogListener listener)
+    {
+        MSSQLApplyLog res = new MSSQLApplyLog(config, job, lease, listener);
+
+        return res;
+    }
+
+    @Override
+    public void stop()
+    {
+        stopping = true;
+
+        List<TargetLane> currLanes = running;
+        if (currLanes != null)
+        {
+            currLanes.forEach(lane -> lane.getWindows().stop());
+        }
+
+        synchronized (this)
+        {
+            if (watcher != null)
+            {
+                watcher.interrupt();
+            }
+        }
+    }
     
     @Override
     public Integer call() throws Exception
@@ -80,22 +153,22 @@ public final class MSSQLApplyLog implements Callable<Integer>
         String fullBackupPatternStr = config.getFullBackupPatternStr();
         String logBackupPatternStr = config.getLogBackupPatternStr();
         String logBackupDatePatternStr = config.getLogBackupDatePatternStr();
+        String fullBackupStripePatternStr = config.getFullBackupStripePatternStr();
+        String diffBackupPatternStr = config.getDiffBackupPatternStr();
+        String diffBackupDatePatternStr = config.getDiffBackupDatePatternStr();
+        String stopAtStr = config.getStopAtStr();
         
-        String sqlHost = config.getSqlHost();
-        String sqlDb = config.getSqlDb();
-        String sqlUser = config.getSqlUser();
-        String sqlPass = config.getSqlPass();
-        String sqlURL = config.getSqlUrl();
-        String sqlProcessUser = config.getSqlProcessUser();
+        String sqlDb = job == null ? config.getSqlDb() : job.getSqlDb();
                 
         boolean useLogFileLastMode = BooleanUtils.isTrue(config.getUseLogFileLastMode());
         boolean doFullRestore = BooleanUtils.isTrue(config.getDoFullRestore());
         boolean monitorLogBackupDir = BooleanUtils.isTrue(config.getMonitorLogBackupDir());
         
-        Path backupsDir = null;
+        List<Path> backupsDirs = new ArrayList<>();
         Instant laterThan = null;
 
         Path fullBackupPath = null;
+        BackupStripeSet fullBackupSet = null;
         
         // Validate the Log Backup Directory
         if ( StringUtils.isBlank(backupDirStr) )
@@ -105,21 +178,41 @@ public final class MSSQLApplyLog implements Callable<Integer>
             return 1;
         }
                 
-        try
-        {
-            backupsDir = Paths.get(backupDirStr);
-        }
-        catch (Exception ex)
+        // Several directories, e.g. one per source site, are merged into one
+        // stream of logs ordered by time
+        for (String dirStr : StringUtils.split(backupDirStr, ';'))
         {
-            LOGGER.error(String.format("Error parsing Backup Directory '%s'",
-                    backupDirStr), ex);
+            if (StringUtils.isBlank(dirStr))
+            {
+                continue;
+            }
 
-            return 1;
+            Path dir;
+            try
+            {
+                dir = Paths.get(StringUtils.trim(dirStr));
+            }
+            catch (Exception ex)
+            {
+                LOGGER.error(String.format("Error parsing Backup Directory '%s'",
+                        dirStr), ex);
+
+                return 1;
+            }
+
+            if ( Files.notExists(dir))
+            {
+                LOGGER.error(String.format("Invalid non-existant backup directory '%s'", dir));
+
+                return 1;
+            }
+
+            backupsDirs.add(dir);
         }
 
-        if ( Files.notExists(backupsDir))
+        if (backupsDirs.isEmpty())
         {
-            LOGGER.error(String.format("Invalid non-existant backup directory '%s'", backupsDir));
+            LOGGER.error("Invalid blank/empty backup directory");
 
             return 1;
         }
@@ -142,6 +235,27 @@ public final class MSSQLApplyLog implements Callable<Integer>
 
                 return 1;
             }
+
+            if (StringUtils.isNoneBlank(fullBackupStripePatternStr))
+            {
+                // The full backup is striped, gather every stripe
+                try
+                {
+                    fullBackupSet = BackupStripeSet.from(fullBackupPath,
+                            fullBackupStripePatternStr);
+                }
+                catch (IOException | MSSQLApplyLogException ex)
+                {
+                    LOGGER.error(String.format("Invalid striped Full Backup '%s'",
+                            fullBackupPath), ex);
+
+                    return 1;
+                }
+            }
+            else
+            {
+                fullBackupSet = BackupStripeSet.from(fullBackupPath);
+            }
         }
 
         if (StringUtils.isNoneBlank(fullBackupDatePatternStr)
@@ -174,207 +288,1308 @@ public final class MSSQLApplyLog implements Callable<Integer>
             }
         }
 
-        try
+        Instant stopAt = null;
+        if (StringUtils.isNoneBlank(stopAtStr))
         {
-            Class.forName("net.sourceforge.jtds.jdbc.Driver");
+            try
+            {
+                stopAt = Instant.from(DateTimeFormatter.ISO_INSTANT.parse(stopAtStr));
+            }
+            catch (Exception ex)
+            {
+                LOGGER.error(String.format("Error parsing 'Stop At' time '%s'",
+                        stopAtStr), ex);
+
+                return 1;
+            }
+
+            if (laterThan != null && stopAt.isBefore(laterThan))
+            {
+                LOGGER.error(String.format("'Stop At' time '%s' is before the full backup '%s'",
+                        stopAt, laterThan));
+
+                return 1;
+            }
         }
-        catch (ClassNotFoundException ex)
+
+        LogIndex diffIndex = null;
+        if (StringUtils.isNoneBlank(diffBackupPatternStr))
         {
-            LOGGER.error("Error loading SQL Server driver [ net.sourceforge.jtds.jdbc.Driver ]", ex);
+            // Differential backups are indexed by time, like logs
+            try
+            {
+                diffIndex = LogIndex.from(backupsDirs, false, diffBackupPatternStr,
+                        StringUtils.defaultIfBlank(diffBackupDatePatternStr,
+                                fullBackupDatePatternStr));
+            }
+            catch (IOException ex)
+            {
+                LOGGER.error(String.format("Error indexing differential backups in '%s'",
+                        backupsDirs), ex);
 
-            return 1;
+                return 1;
+            }
         }
 
-        if (StringUtils.isBlank(sqlURL))
+        String throughputHistoryFileStr = config.getThroughputHistoryFileStr();
+        ThroughputHistory history;
+        try
         {
-            // Build the SQL URL
-            sqlURL = String.format("jdbc:jtds:sqlserver://%s;DatabaseName=master", sqlHost);
+            history = ThroughputHistory.from(StringUtils.isBlank(throughputHistoryFileStr)
+                    ? null : Paths.get(throughputHistoryFileStr));
         }
+        catch (IOException ex)
+        {
+            LOGGER.error(String.format("Error loading throughput history '%s'",
+                    throughputHistoryFileStr), ex);
 
-        Properties props = new Properties();
-
-        props.setProperty("user", sqlUser);
-        props.setProperty("password", sqlPass);
+            return 1;
+        }
 
-        try (Connection conn = MSSQLHelper.getConn(sqlURL, props))
+        // One store for every target, so none overwrites the others' records
+        String tuningFileStr = config.getTuningFileStr();
+        RestoreTuningStore tuningStore = null;
+        if (StringUtils.isNoneBlank(tuningFileStr))
         {
-            if (conn == null)
+            try
+            {
+                tuningStore = RestoreTuningStore.from(Paths.get(tuningFileStr));
+            }
+            catch (IOException ex)
             {
-                LOGGER.error("Connection to MSSQL failed.");
+                LOGGER.error(String.format("Error loading tuning file '%s'", tuningFileStr), ex);
 
                 return 1;
             }
+        }
 
-            if (doFullRestore)
+        String checkpointFileStr = config.getCheckpointFileStr();
+        ApplyCheckpoint checkpoint = null;
+        if (StringUtils.isNoneBlank(checkpointFileStr))
+        {
+            try
             {
-                LOGGER.info(String.format("\nStarting full restore of '%s'...", fullBackupPathStr));
-                
-                StopWatch sw = new StopWatch();
+                checkpoint = ApplyCheckpoint.from(Paths.get(checkpointFileStr));
+            }
+            catch (IOException ex)
+            {
+                LOGGER.error(String.format("Error loading checkpoint '%s'",
+                        checkpointFileStr), ex);
 
-                sw.start();
+                return 1;
+            }
+        }
 
-                String strDevice = fullBackupPathStr;
+        RetentionPolicy retentionPolicy = config.getRetentionPolicy();
+        if (retentionPolicy != null && job != null)
+        {
+            // Other nodes' targets may still need the logs
+            LOGGER.warn("Retention of applied logs is not run under leases");
 
-                String query = String.format("RESTORE DATABASE %s FROM DISK='%s' WITH NORECOVERY, REPLACE",
-                        sqlDb, strDevice);
+            retentionPolicy = null;
+        }
 
-                Statement stmt = null;
+        if (retentionPolicy != null && checkpoint == null)
+        {
+            LOGGER.error("Retention of applied logs needs a checkpoint file");
 
-                try
-                {
-                    stmt = conn.createStatement();
-                }
-                catch (SQLException ex)
-                {
-                    LOGGER.debug("Error creating statement", ex);
+            return 1;
+        }
 
-                    return 1;
-                }
+        if (BooleanUtils.isTrue(config.getPlan()))
+        {
+            // Dry run, no SQL Server connection
+            return plan(sqlDb, doFullRestore ? fullBackupSet : null, diffIndex, backupsDirs,
+                    laterThan, stopAt, history, useLogFileLastMode, logBackupPatternStr,
+                    logBackupDatePatternStr);
+        }
+
+        try
+        {
+            Class.forName("net.sourceforge.jtds.jdbc.Driver");
+        }
+        catch (ClassNotFoundException ex)
+        {
+            LOGGER.error("Error loading SQL Server driver [ net.sourceforge.jtds.jdbc.Driver ]", ex);
+
+            return 1;
+        }
+
+        // The main target, then any more fed the same logs
+        List<SqlTarget> sqlTargets = job == null ? SqlTarget.from(config)
+                : Collections.singletonList(job);
+
+        List<String> checkpointKeys = new ArrayList<>();
+        for (SqlTarget curr : sqlTargets)
+        {
+            checkpointKeys.add(curr.getName());
+        }
 
+        if (doFullRestore && fullBackupSet == null)
+        {
+            LOGGER.error("A full restore requires a Full Backup file");
+
+            return 1;
+        }
+
+        List<TargetLane> lanes = new ArrayList<>();
+
+        try (RetentionManager retention = retentionPolicy == null ? null
+                        : RetentionManager.from(retentionPolicy, checkpoint, checkpointKeys,
+                                backupsDirs, useLogFileLastMode, logBackupPatternStr,
+                                logBackupDatePatternStr))
+        {
+            for (SqlTarget curr : sqlTargets)
+            {
+                TargetLane lane;
                 try
                 {
-                    boolean sqlRes = stmt.execute(query);
+                    lane = TargetLane.from(curr, config);
                 }
-                catch (SQLException ex)
+                catch (MSSQLApplyLogException ex)
                 {
-                    LOGGER.error(String.format("Error executing...\n'%s'", query), ex);
+                    LOGGER.error(String.format("Error setting up '%s'", curr), ex);
 
                     return 1;
                 }
 
-                sw.stop();
+                lanes.add(lane);
 
-                LOGGER.debug(String.format("Query...\n'%s'\nTook %s",
-                        query, sw.toString()));
+                lane.getWindows().setCheckpoint(checkpoint, curr.getName());
+                lane.getWindows().setListener(listener, curr.getName());
+                lane.getTarget().setLease(lease);
             }
-        }
-        catch (SQLException ex)
-        {
-            LOGGER.error("SQL Exception restoring the full backup", ex);
-        }
 
-        // Filter the log files.
-        
-        // Loop multiple times to catch new logs that have been transferred
-        // while we process.
-        List<Path> files = null;
-        do
-        {
-            try
+            // A stop from here on ends every apply window
+            running = lanes;
+            if (stopping)
             {
-                files = FSHelper.listLogFiles( backupsDir, 
-                                        laterThan, 
-                                        useLogFileLastMode, 
-                                        logBackupPatternStr, 
-                                        logBackupDatePatternStr,
-                                        files );
+                lanes.forEach(lane -> lane.getWindows().stop());
             }
-            catch (IOException ex)
+
+            if (retention != null)
             {
-                LOGGER.error("Log Backup file filter/sort failed", ex);
+                // Keeps the backup directories small, on a low priority thread
+                retention.start();
+            }
+
+            // Index, check and set permissions on the logs while the full
+            // restore runs, so the first log follows it straight away
+            CompletableFuture<LogBacklog> backlog = stopAt != null ? null
+                    : prepareBacklog(sqlDb, backupsDirs, laterThan, sharedProcessUser(lanes),
+                            useLogFileLastMode, logBackupPatternStr, logBackupDatePatternStr);
+
+            // Connect, tune and restore the full backup on every target at once.
+            // A target that fails is left out, the rest carry on.
+            final BackupStripeSet fullSet = fullBackupSet;
+            final RestoreTuningStore tunings = tuningStore;
+            final LogIndex diffs = diffIndex;
+            final Instant diffsAfter = laterThan;
+            final Instant diffsUntil = stopAt;
+            final List<TargetLane> active = runOnAll(lanes,
+                    lane -> prepare(lane, doFullRestore ? fullSet : null, history, tunings, diffs,
+                            diffsAfter, diffsUntil));
 
+            if (active.isEmpty())
+            {
                 return 1;
             }
 
-            if( files == null || files.isEmpty() )
+            if (active.size() < lanes.size())
             {
-                LOGGER.debug("No Log Backup files found this iteration.");
-                
-                continue;
+                res = 1;
             }
-            
-            StringBuilder msg = new StringBuilder();
 
-            for (Path file : files)
+            if (stopping)
             {
-                msg.append(String.format("file : '%s'\n", file));
-            }
+                LOGGER.info("Stopped after preparing '{}'", sqlDb);
 
-            LOGGER.debug(msg.toString());
+                return res;
+            }
 
-            // Restore all log files
-            try (Connection conn = MSSQLHelper.getConn(sqlURL, props))
+            if (stopAt != null)
             {
-                for (Path p : files)
+                // A point-in-time copy ends here, recovered
+                final Instant currLaterThan = laterThan;
+                final Instant currStopAt = stopAt;
+                final String currLogPatternStr = logBackupPatternStr;
+
+                List<TargetLane> recovered = runOnAll(active, lane ->
                 {
                     try
                     {
-                        MSSQLHelper.restoreLog(p, sqlProcessUser, sqlDb, conn);
+                        return restoreToPointInTime(lane.getTarget(), backupsDirs,
+                                ObjectUtils.getIfNull(lane.getLaterThan(), currLaterThan),
+                                currStopAt, useLogFileLastMode,
+                                currLogPatternStr, logBackupDatePatternStr);
                     }
-                    catch (SQLException ex)
+                    catch (InterruptedException ex)
                     {
-                        LOGGER.error( String.format("SQL Exception restoring the log backup '%s'", 
-                                p ), ex);
+                        LOGGER.error(String.format("Interrupted recovering '%s'", lane), ex);
+
+                        Thread.currentThread().interrupt();
+
+                        return 1;
                     }
-                }
-            }
-            catch (SQLException ex)
-            {
-                LOGGER.error("SQL Exception restoring the log backup", ex);
+                });
+
+                return recovered.size() < active.size() ? 1 : res;
             }
-        }
-        while( files != null && files.isEmpty() == false );
-        
-        if (monitorLogBackupDir)
-        {
-            // Watch for new log files
-            List<Path> paths = new ArrayList();
-            paths.add(backupsDir);
-
-            final Watch watch;
-            final String currSQLDb = sqlDb;
-            final String currSQLProcUser = sqlProcessUser;
-            final String currSQLURL = sqlURL;
-            final String currLogBackupPatternStr = logBackupPatternStr;
-            
-            try
+
+            // Filter the log files.  Every log is found once and handed to
+            // every target, each carrying on after its own last log.
+
+            // Loop multiple times to catch new logs that have been transferred
+            // while we process.
+            List<TargetLane> passing = new ArrayList<>(active);
+            boolean progress;
+            do
             {
-                watch = Watch.from(paths);
-                watch.processEvents((WatchEvent<Path> event, Path path)
-                        -> 
+                progress = false;
+
+                // The first pass uses the logs prepared during the full restore
+                LogIndex index = takeBacklog(backlog, passing);
+                backlog = null;
+
+                if (index == null)
+                {
+                    try
+                    {
+                        index = LogIndex.from(backupsDirs,
+                                                useLogFileLastMode,
+                                                logBackupPatternStr,
+                                                logBackupDatePatternStr);
+                    }
+                    catch (IOException ex)
+                    {
+                        LOGGER.error("Log Backup file filter/sort failed", ex);
+
+                        return 1;
+                    }
+                }
+
+                // Restore each target's logs in order, in a single apply
+                // window on its own thread.  Every log depends on the one
+                // before it, so a failure stops that target's sequence.
+                Map<TargetLane, Future<List<Path>>> applying = new LinkedHashMap<>();
+                for (TargetLane lane : passing)
+                {
+                    int start = lane.getLastName() == null
+                            ? resumePosition(index,
+                                    ObjectUtils.getIfNull(lane.getLaterThan(), laterThan),
+                                    lane.getAppliedLogName())
+                            : index.higher(lane.getLastTime(), lane.getLastName());
+
+                    List<Path> found = index.range(start, index.size());
+
+                    // Logs that failed in the last pass go first, order matters
+                    List<Path> files = new ArrayList<>(lane.getUnapplied());
+                    files.addAll(found);
+                    lane.setUnapplied(Collections.emptyList());
+
+                    if (files.isEmpty())
+                    {
+                        LOGGER.debug("No Log Backup files found this iteration for '{}'.",
+                                lane.getName());
+
+                        continue;
+                    }
+
+                    for (Path file : found)
+                    {
+                        listener.logDiscovered(lane.getName(), file);
+                    }
+
+                    if (found.isEmpty() == false)
+                    {
+                        lane.setLast(index.getTimestamp(index.size() - 1),
+                                index.getFileName(index.size() - 1));
+                    }
+
+                    if (LOGGER.isDebugEnabled())
+                    {
+                        StringBuilder msg = new StringBuilder();
+
+                        msg.append("target : '").append(lane.getName()).append("'\n");
+                        for (Path file : files)
                         {
-                            int watchRes = 0;
+                            msg.append("file : '").append(file).append("'\n");
+                        }
 
-                            if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE)
-                            {
-                                return watchRes;
-                            }
+                        LOGGER.debug(msg);
+                    }
 
-                            Pattern fileMatcher = Pattern.compile(currLogBackupPatternStr);
-                            
-                            if( fileMatcher.matcher(path.getFileName().toString()).matches() )
-                            {
-                                try (Connection conn = MSSQLHelper.getConn(currSQLURL, props))
-                                {
-                                    MSSQLHelper.restoreLog(path, currSQLProcUser, currSQLDb, conn);
-                                }
-                                catch (SQLException ex)
-                                {
-                                    // There's really no recovering from a failed log backup
-                                    
-                                    LOGGER.error("SQL Exception restoring the log backup", ex);
-                                    
-                                    System.exit(1);
-                                }
-                            }
-                            
-                            return watchRes;
-                });
-            }
-            catch (IOException | FileCheckException ex)
-            {
-                LOGGER.error(String.format("Error watching backup directory...\n'%s'",
-                        backupsDir), ex);
+                    applying.put(lane, lane.getWindows().submit(files));
+                }
 
-                return 1;
+                for (Map.Entry<TargetLane, Future<List<Path>>> curr : applying.entrySet())
+                {
+                    TargetLane lane = curr.getKey();
+
+                    List<Path> unapplied;
+                    try
+                    {
+                        unapplied = curr.getValue().get();
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        if (ex.getCause() instanceof RestoreChainException)
+                        {
+                            LOGGER.error(String.format("Log backup does not follow the restore "
+                                    + "chain of '%s'.  Stopping it.", lane), ex.getCause());
+                        }
+                        else
+                        {
+                            LOGGER.error(String.format("Error restoring to '%s'.  Stopping it.",
+                                    lane), ex.getCause());
+                        }
+
+                        passing.remove(lane);
+                        active.remove(lane);
+
+                        res = 1;
+
+                        continue;
+                    }
+
+                    if (unapplied.isEmpty())
+                    {
+                        progress = true;
+
+                        continue;
+                    }
+
+                    if (stopping == false
+                            && lane.getWindows().getLastFailure() == FailureKind.CONNECTION)
+                    {
+                        // The retries ran out while the server was unreachable.
+                        // The next pass waits on the circuit breaker, then
+                        // starts again from the log that failed.
+                        LOGGER.warn("Lost the connection to '{}'.  Resuming once it is back.",
+                                lane.getName());
+
+                        lane.setUnapplied(unapplied);
+
+                        progress = true;
+
+                        continue;
+                    }
+
+                    passing.remove(lane);
+
+                    if (stopping)
+                    {
+                        // Not a failure, the rest are restored next run
+                        continue;
+                    }
+
+                    if (monitorLogBackupDir)
+                    {
+                        // Tried again first once watching
+                        lane.setUnapplied(unapplied);
+                    }
+                    else
+                    {
+                        active.remove(lane);
+
+                        res = 1;
+                    }
+                }
+
+                if (active.isEmpty())
+                {
+                    return 1;
+                }
             }
-            catch (InterruptedException ex)
+            while( progress && stopping == false );
+
+            if (monitorLogBackupDir)
             {
-                LOGGER.info(String.format("Interrupted watching backup directory...\n'%s'", backupsDir), ex);
-            }
-        }
-        
-        return res;
-    }
-    
+                // Watch for new log files, in every directory on one thread
+                final Watch watch;
+                final Thread watchThread = Thread.currentThread();
+
+                // stop() interrupts the watch
+                synchronized (this)
+                {
+                    if (stopping)
+                    {
+                        return res;
+                    }
+
+                    watcher = watchThread;
+                }
+
+                // The watch stops once every target's chain is broken
+                final Runnable onChainBroken = () ->
+                {
+                    if (allChainsBroken(active))
+                    {
+                        watchThread.interrupt();
+                    }
+                };
+
+                for (TargetLane lane : active)
+                {
+                    ApplyWindowScheduler windows = lane.getWindows();
+
+                    // Logs that failed earlier go first, order matters
+                    lane.getUnapplied().forEach(windows::offer);
+
+                    // Logs that overflow the queue are found again in the directory
+                    windows.start(onChainBroken, rescanner(backupsDirs,
+                            ObjectUtils.getIfNull(lane.getLaterThan(), laterThan),
+                            lane.getAppliedLogName(), useLogFileLastMode, logBackupPatternStr,
+                            logBackupDatePatternStr));
+                }
+
+                // One event per new log, once its copy is complete, in the index's order
+                TimestampParser logParser = useLogFileLastMode ? null
+                        : TimestampParser.from(logBackupPatternStr, logBackupDatePatternStr, 1);
+                WatchEventCoalescer coalescer = WatchEventCoalescer.from(config.getWatchQuietMillis(),
+                        config.getWatchTempPatternStr(), logBackupPatternStr,
+                        logParser == null ? null : Comparator.comparingLong(
+                                (Path p) -> logParser.parseEpochMillis(p.getFileName().toString())));
+
+                try
+                {
+                    watch = Watch.from(backupsDirs);
+                    watch.processEvents((WatchEvent<Path> event, Path path, Path root)
+                            -> 
+                            {
+                                int watchRes = 0;
+
+                                if (allChainsBroken(active))
+                                {
+                                    return WatchAction.STOP;
+                                }
+
+                                if (StandardWatchEventKinds.OVERFLOW.equals(event.kind()))
+                                {
+                                    LOGGER.warn(String.format("Lost file-system events for '%s' under '%s'",
+                                            path, root));
+
+                                    active.forEach(lane -> lane.getWindows().requestRescan());
+
+                                    return watchRes;
+                                }
+
+                                // The coalescer passes on ready logs as CREATE
+                                if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE)
+                                {
+                                    return watchRes;
+                                }
+
+                                LOGGER.debug("New log backup '{}' from '{}'",
+                                        path.getFileName(), root);
+
+                                // Restored in each target's next apply window
+                                for (TargetLane lane : active)
+                                {
+                                    if (lane.getWindows().isChainBroken() == false)
+                                    {
+                                        listener.logDiscovered(lane.getName(), path);
+
+                                        lane.getWindows().offer(path);
+                                    }
+                                }
+
+                                return watchRes;
+                    }, coalescer);
+                }
+                catch (IOException | FileCheckException ex)
+                {
+                    LOGGER.error(String.format("Error watching backup directory...\n'%s'",
+                            backupsDirs), ex);
+
+                    return 1;
+                }
+                catch (InterruptedException ex)
+                {
+                    if (allChainsBroken(active))
+                    {
+                        return 1;
+                    }
+
+                    if (stopping)
+                    {
+                        LOGGER.info("Stopped watching backup directory...\n'{}'", backupsDirs);
+                    }
+                    else
+                    {
+                        LOGGER.info(String.format("Interrupted watching backup directory...\n'%s'", backupsDirs), ex);
+                    }
+                }
+                finally
+                {
+                    synchronized (this)
+                    {
+                        watcher = null;
+                    }
+                }
+
+                for (TargetLane lane : active)
+                {
+                    if (lane.getWindows().isChainBroken())
+                    {
+                        res = 1;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            // Waits for restores still running after a stop
+            lanes.forEach(TargetLane::close);
+        }
+        
+        return res;
+    }
+
+    /**
+     * Connect to a target, tune it, and restore the full backup to it, then
+     * the latest differential backup that applies.
+     * 
+     * The full restore is skipped if the database is already restoring from
+     * that backup, unless forced.
+     * 
+     * @param lane The target
+     * @param fullBackupSet The full backup to restore, or null for none
+     * @param history Past restore durations
+     * @param tuningStore Tuning found for each target, or null
+     * @param diffIndex The differential backups, or null for none
+     * @param laterThan Time of the full backup
+     * @param stopAt Point in time being restored to, or null
+     * @return 0 on success
+     */
+    private int prepare(final TargetLane lane,
+                        final BackupStripeSet fullBackupSet,
+                        final ThroughputHistory history,
+                        final RestoreTuningStore tuningStore,
+                        final LogIndex diffIndex,
+                        final Instant laterThan,
+                        final Instant stopAt)
+    {
+        RestoreTarget target = lane.getTarget();
+        String sqlDb = target.getSqlDb();
+
+        try
+        {
+            target.getConnection();
+        }
+        catch (SQLException ex)
+        {
+            LOGGER.error(String.format("Connection to MSSQL failed for '%s'.", lane), ex);
+
+            return 1;
+        }
+
+        RestoreTuning tuning = resolveTuning(lane, tuningStore, fullBackupSet);
+        if (tuning == null)
+        {
+            return 1;
+        }
+
+        target.setTuning(tuning);
+        target.setHistory(history);
+
+        StandbyMode standby = config.getStandbyMode();
+        if (standby != null)
+        {
+            // Readers can query the database between apply windows
+            LOGGER.info(String.format("Restoring '%s' WITH STANDBY, undo file '%s'",
+                    sqlDb, standby.undoFile(sqlDb)));
+
+            target.setStandby(standby);
+        }
+
+        BackupStripeSet fullSet = fullBackupSet;
+        if (fullSet != null && BooleanUtils.isTrue(config.getForceFullRestore()) == false
+                && isRestoringFrom(target, fullSet))
+        {
+            LOGGER.info(String.format("'%s' is already restoring from full backup '%s'.  "
+                    + "Skipping the full restore.", lane, fullSet.getSetKey()));
+
+            fullSet = null;
+        }
+
+        if (fullSet != null)
+        {
+            StopWatch sw = new StopWatch();
+
+            sw.start();
+
+            try
+            {
+                List<Path> stripes = fullSet.getStripes();
+                if (stripes.size() > 1)
+                {
+                    MSSQLHelper.verifyStripeSet(stripes, target.getConnection());
+                }
+
+                target.restoreFull(stripes);
+            }
+            catch (MSSQLApplyLogException ex)
+            {
+                LOGGER.error("Incomplete striped full backup", ex);
+
+                return 1;
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.error(String.format("SQL Exception restoring the full backup to '%s'",
+                        lane), ex);
+
+                return 1;
+            }
+            catch (InterruptedException ex)
+            {
+                LOGGER.error(String.format("Interrupted restoring the full backup to '%s'",
+                        lane), ex);
+
+                Thread.currentThread().interrupt();
+
+                return 1;
+            }
+
+            sw.stop();
+
+            LOGGER.debug("Full restore of '{}' to '{}' took {}",
+                    fullSet.getSetKey(), lane.getName(), sw);
+        }
+        else
+        {
+            // Logs the server already holds are skipped rather than rejected
+            lane.setAppliedLogName(lastAppliedLog(target));
+        }
+
+        if (diffIndex != null)
+        {
+            return restoreDifferential(lane, diffIndex, laterThan, stopAt);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Restore the latest differential backup based on the database's full
+     * backup, if it takes the database further.  Its logs then follow it,
+     * skipping every log since the full backup.
+     * 
+     * @param lane The target
+     * @param diffIndex The differential backups
+     * @param laterThan Time of the full backup
+     * @param stopAt Point in time being restored to, or null
+     * @return 0 on success, including when no differential backup applies
+     */
+    private static int restoreDifferential(final TargetLane lane,
+                                           final LogIndex diffIndex,
+                                           final Instant laterThan,
+                                           final Instant stopAt)
+    {
+        RestoreTarget target = lane.getTarget();
+
+        RestoreState state;
+        try
+        {
+            state = MSSQLHelper.getRestoreState(target.getSqlDb(), target.getConnection());
+        }
+        catch (SQLException ex)
+        {
+            LOGGER.warn(String.format("Error reading the restore state of '%s'.  "
+                    + "Skipping differential backups.", lane), ex);
+
+            return 0;
+        }
+
+        if (state == null)
+        {
+            return 0;
+        }
+
+        // Newest first, the first that applies is the best
+        for (int pos = diffIndex.size() - 1; pos >= 0; pos--)
+        {
+            Instant taken = diffIndex.getTimestamp(pos);
+            if (stopAt != null && taken.isAfter(stopAt))
+            {
+                continue;
+            }
+
+            if (laterThan != null && taken.isBefore(laterThan))
+            {
+                break;
+            }
+
+            Path diff = diffIndex.getPath(pos);
+
+            BackupHeader header;
+            try
+            {
+                header = MSSQLHelper.readBackupHeader(Collections.singletonList(diff),
+                        target.getConnection());
+            }
+            catch (SQLException | MSSQLApplyLogException ex)
+            {
+                LOGGER.warn(String.format("Error reading differential backup '%s'.  Skipping it.",
+                        diff), ex);
+
+                continue;
+            }
+
+            if (state.canRestoreDifferential(header) == false)
+            {
+                LOGGER.debug("Differential backup '{}' does not apply to '{}', {}",
+                        diff, lane, header);
+
+                continue;
+            }
+
+            try
+            {
+                target.restoreDifferential(diff);
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.error(String.format("SQL Exception restoring differential backup '%s' to '%s'",
+                        diff, lane), ex);
+
+                return 1;
+            }
+            catch (InterruptedException ex)
+            {
+                LOGGER.error(String.format("Interrupted restoring differential backup '%s' to '%s'",
+                        diff, lane), ex);
+
+                Thread.currentThread().interrupt();
+
+                return 1;
+            }
+
+            LOGGER.info("Restored differential backup '{}' to '{}', logs follow from {}",
+                    diff, lane, taken);
+
+            lane.setAppliedLogName(null);
+            lane.setLaterThan(taken);
+
+            return 0;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Run a step on every target at once, each on its own thread.
+     * 
+     * @param lanes The targets
+     * @param step Returns 0 on success
+     * @return The targets the step succeeded on, in order
+     * @throws InterruptedException
+     */
+    private static List<TargetLane> runOnAll(final List<TargetLane> lanes,
+                                             final ToIntFunction<TargetLane> step)
+            throws InterruptedException
+    {
+        List<TargetLane> res = new ArrayList<>();
+
+        if (lanes.size() == 1)
+        {
+            if (step.applyAsInt(lanes.get(0)) == 0)
+            {
+                res.add(lanes.get(0));
+            }
+
+            return res;
+        }
+
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("target-%d")
+                .build();
+
+        ExecutorService exe = Executors.newFixedThreadPool(lanes.size(), thFactory);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (TargetLane lane : lanes)
+            {
+                results.add(exe.submit(() -> step.applyAsInt(lane)));
+            }
+
+            for (int i = 0; i < lanes.size(); i++)
+            {
+                try
+                {
+                    if (results.get(i).get() == 0)
+                    {
+                        res.add(lanes.get(i));
+                    }
+                }
+                catch (ExecutionException ex)
+                {
+                    LOGGER.error(String.format("Error preparing '%s'", lanes.get(i)), ex.getCause());
+                }
+            }
+        }
+        finally
+        {
+            exe.shutdownNow();
+        }
+
+        return res;
+    }
+
+    /**
+     * Start preparing the log backlog on a background thread.
+     * 
+     * @return The backlog once ready
+     */
+    private static CompletableFuture<LogBacklog> prepareBacklog(final String sqlDb,
+                                                                final List<Path> backupsDirs,
+                                                                final Instant laterThan,
+                                                                final String sqlProcessUser,
+                                                                final boolean useLogFileLastMode,
+                                                                final String logBackupPatternStr,
+                                                                final String logBackupDatePatternStr)
+    {
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("logPrep-%d")
+                .daemon(true)
+                .build();
+
+        ExecutorService exe = Executors.newSingleThreadExecutor(thFactory);
+        try
+        {
+            return CompletableFuture.supplyAsync(() ->
+            {
+                try
+                {
+                    return LogBacklog.prepare(sqlDb, backupsDirs, laterThan, sqlProcessUser,
+                            useLogFileLastMode, logBackupPatternStr, logBackupDatePatternStr);
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            }, exe);
+        }
+        finally
+        {
+            // Ends once the backlog is ready
+            exe.shutdown();
+        }
+    }
+
+    /**
+     * Wait for the prepared backlog and hand its permissions to every target.
+     * 
+     * @param backlog The backlog being prepared, or null
+     * @param lanes The targets
+     * @return The log index, or null if there is none
+     * @throws InterruptedException
+     */
+    private static LogIndex takeBacklog(final CompletableFuture<LogBacklog> backlog,
+                                        final List<TargetLane> lanes) throws InterruptedException
+    {
+        if (backlog == null)
+        {
+            return null;
+        }
+
+        LogBacklog prepared;
+        try
+        {
+            prepared = backlog.get();
+        }
+        catch (ExecutionException ex)
+        {
+            LOGGER.warn("Error preparing the log backups.  Listing them again.", ex.getCause());
+
+            return null;
+        }
+
+        for (TargetLane lane : lanes)
+        {
+            lane.getTarget().addPermitted(prepared.getPermitted());
+        }
+
+        return prepared.getIndex();
+    }
+
+    /**
+     * Permissions are set ahead of time only if every target's SQL Server
+     * runs as the same user.  Each replaces the file's ACL.
+     * 
+     * @return The user, or null
+     */
+    private static String sharedProcessUser(final List<TargetLane> lanes)
+    {
+        Set<String> users = new HashSet<>();
+        for (TargetLane lane : lanes)
+        {
+            users.add(StringUtils.defaultString(lane.getTarget().getSqlProcessUser()));
+        }
+
+        if (users.size() != 1)
+        {
+            return null;
+        }
+
+        return StringUtils.trimToNull(users.iterator().next());
+    }
+
+    private static boolean allChainsBroken(final List<TargetLane> lanes)
+    {
+        for (TargetLane lane : lanes)
+        {
+            if (lane.getWindows().isChainBroken() == false)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compare a full backup with the restore the database is part way through.
+     * 
+     * @param target The database, and its connection
+     * @param fullBackupSet The full backup
+     * @return True only if restoring the backup again is certainly redundant
+     */
+    private static boolean isRestoringFrom(final RestoreTarget target,
+                                           final BackupStripeSet fullBackupSet)
+    {
+        BackupHeader header;
+        RestoreState state;
+        try
+        {
+            header = MSSQLHelper.readBackupHeader(fullBackupSet.getStripes(),
+                    target.getConnection());
+            state = MSSQLHelper.getRestoreState(target.getSqlDb(), target.getConnection());
+        }
+        catch (SQLException | MSSQLApplyLogException ex)
+        {
+            LOGGER.warn(String.format("Error comparing full backup '%s' with '%s'.  Restoring it.",
+                    fullBackupSet.getSetKey(), target.getSqlDb()), ex);
+
+            return false;
+        }
+
+        // Only a full database backup can be the base of the restore
+        if (header.getBackupType() != 1 || state == null)
+        {
+            return false;
+        }
+
+        LOGGER.debug("Full backup {}, restore state {}", header, state);
+
+        return state.isRestoringFrom(header);
+    }
+
+    /**
+     * Ask the server which log backup it restored last.
+     * 
+     * @param target The database, and its connection
+     * @return The log's file name, or null if unknown
+     */
+    private static String lastAppliedLog(final RestoreTarget target)
+    {
+        RestoreState state;
+        try
+        {
+            state = MSSQLHelper.getRestoreState(target.getSqlDb(), target.getConnection());
+        }
+        catch (SQLException ex)
+        {
+            LOGGER.warn(String.format("Error reading the restore state of '%s'.  Trying every log.",
+                    target.getSqlDb()), ex);
+
+            return null;
+        }
+
+        if (state == null)
+        {
+            return null;
+        }
+
+        String res = state.getLastLogFileName();
+        if (res == null)
+        {
+            LOGGER.info(String.format("Restore history of '%s' does not name the last log applied, %s",
+                    target.getSqlDb(), state));
+        }
+
+        return res;
+    }
+
+    /**
+     * @param index The log backups
+     * @param laterThan Only logs at or after this time
+     * @param appliedLogName The log the server restored last, or null
+     * @return Position of the first log still to restore
+     */
+    private static int resumePosition(final LogIndex index,
+                                      final Instant laterThan,
+                                      final String appliedLogName)
+    {
+        int res = index.ceiling(laterThan);
+
+        if (appliedLogName == null)
+        {
+            return res;
+        }
+
+        // Windows file names, ignore case
+        for (int pos = index.size() - 1; pos >= 0; pos--)
+        {
+            if (appliedLogName.equalsIgnoreCase(index.getFileName(pos)))
+            {
+                if (pos + 1 > res)
+                {
+                    LOGGER.info(String.format("Skipping %d logs already restored, up to '%s'",
+                            pos + 1 - res, appliedLogName));
+
+                    res = pos + 1;
+                }
+
+                return res;
+            }
+        }
+
+        LOGGER.warn(String.format("Last restored log '%s' is not in the backup directory",
+                appliedLogName));
+
+        return res;
+    }
+
+    /**
+     * Index the backup directory again, for an apply window queue that overflowed.
+     * 
+     * @param backupsDirs The log backup directories
+     * @param laterThan Only logs at or after this time
+     * @param appliedLogName The log the server had restored at startup, or null
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The logs after the last one restored
+     */
+    private static ApplyWindowScheduler.Rescan rescanner(final List<Path> backupsDirs,
+                                                         final Instant laterThan,
+                                                         final String appliedLogName,
+                                                         final boolean useLogFileLastMode,
+                                                         final String logBackupPatternStr,
+                                                         final String logBackupDatePatternStr)
+    {
+        return (String lastApplied) ->
+        {
+            LogIndex index = LogIndex.from(backupsDirs, useLogFileLastMode,
+                    logBackupPatternStr, logBackupDatePatternStr);
+
+            int start = resumePosition(index, laterThan,
+                    lastApplied == null ? appliedLogName : lastApplied);
+
+            return index.range(start, index.size());
+        };
+    }
+
+    /**
+     * Work out and log what a restore would do, without connecting to SQL Server.
+     * 
+     * @param sqlDb The database
+     * @param fullBackupSet The full backup to restore first, or null for logs only
+     * @param diffIndex The differential backups, or null for none
+     * @param backupsDirs The log backup directories
+     * @param laterThan Only logs at or after this time
+     * @param stopAt Point-in-time to stop at, or null
+     * @param history Past restore durations
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The exit code
+     */
+    private static int plan(final String sqlDb,
+                            final BackupStripeSet fullBackupSet,
+                            final LogIndex diffIndex,
+                            final List<Path> backupsDirs,
+                            final Instant laterThan,
+                            final Instant stopAt,
+                            final ThroughputHistory history,
+                            final boolean useLogFileLastMode,
+                            final String logBackupPatternStr,
+                            final String logBackupDatePatternStr)
+    {
+        StopWatch sw = new StopWatch();
+
+        sw.start();
+
+        LogIndex index;
+        try
+        {
+            index = LogIndex.from(backupsDirs, useLogFileLastMode, logBackupPatternStr,
+                    logBackupDatePatternStr);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.error(String.format("Error indexing log backups in '%s'", backupsDirs), ex);
+
+            return 1;
+        }
+
+        // Without the server, the latest differential backup is taken to apply
+        Instant logsAfter = laterThan;
+        Path diffBackup = null;
+        if (diffIndex != null)
+        {
+            int pos = stopAt == null ? diffIndex.size() : diffIndex.ceiling(stopAt.plusMillis(1));
+            if (pos > 0 && (laterThan == null
+                    || diffIndex.getTimestamp(pos - 1).isBefore(laterThan) == false))
+            {
+                logsAfter = diffIndex.getTimestamp(pos - 1);
+                diffBackup = diffIndex.getPath(pos - 1);
+
+                LOGGER.info("Differential backup '{}' restored first, logs follow from {}",
+                        diffIndex.getPath(pos - 1), logsAfter);
+            }
+        }
+
+        RestorePlan plan = RestorePlan.from(sqlDb, fullBackupSet, diffBackup, index,
+                logsAfter, stopAt, history);
+
+        sw.stop();
+
+        LOGGER.info(String.format("%s\nPlanned in %s", plan.describe(), sw.toString()));
+
+        return plan.isStopAtReached() ? 0 : 1;
+    }
+
+    /**
+     * Restore only the log backups needed to reach a point in time.
+     * 
+     * The last log is restored WITH STOPAT and the database is recovered.
+     * 
+     * @param target The database being restored
+     * @param backupsDirs The log backup directories
+     * @param laterThan Time of the full backup the logs follow
+     * @param stopAt The point in time
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The exit code
+     */
+    private static int restoreToPointInTime(final RestoreTarget target,
+                                            final List<Path> backupsDirs,
+                                            final Instant laterThan,
+                                            final Instant stopAt,
+                                            final boolean useLogFileLastMode,
+                                            final String logBackupPatternStr,
+                                            final String logBackupDatePatternStr)
+            throws InterruptedException
+    {
+        LogIndex index;
+        try
+        {
+            index = LogIndex.from(backupsDirs, useLogFileLastMode, logBackupPatternStr,
+                    logBackupDatePatternStr);
+        }
+        catch (IOException ex)
+        {
+            LOGGER.error(String.format("Error indexing log backups in '%s'", backupsDirs), ex);
+
+            return 1;
+        }
+
+        List<Path> files = index.coveringSet(laterThan, stopAt);
+        if (files == null)
+        {
+            LOGGER.error(String.format("No log backup in '%s' reaches '%s' yet",
+                    backupsDirs, stopAt));
+
+            return 1;
+        }
+
+        LOGGER.info(String.format("Restoring %d of %d log backups to reach '%s'",
+                files.size(), index.size(), stopAt));
+
+        for (int i = 0; i < files.size(); i++)
+        {
+            Path p = files.get(i);
+            boolean last = i == files.size() - 1;
+
+            try
+            {
+                target.restoreLog(p, last ? stopAt : null);
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.error(String.format("SQL Exception restoring the log backup '%s'", p), ex);
+
+                return 1;
+            }
+        }
+
+        LOGGER.info(String.format("Recovered '%s' at '%s'", target.getSqlDb(), stopAt));
+
+        return 0;
+    }
+
+    /**
+     * Work out the RESTORE data transfer options, auto-tuning first if asked.
+     * 
+     * Options set in the configuration win over those found by auto-tune.
+     * 
+     * @param target The database being restored
+     * @param fullBackupSet The default auto-tune sample
+     * @return The tuning, or null on error
+     */
+    private RestoreTuning resolveTuning(final TargetLane lane,
+                                        final RestoreTuningStore store,
+                                        final BackupStripeSet fullBackupSet)
+    {
+        RestoreTarget target = lane.getTarget();
+        RestoreTuning res = ObjectUtils.getIfNull(config.getRestoreTuning(),
+                RestoreTuning.from());
+        String autoTuneSampleStr = config.getAutoTuneSampleStr();
+
+        if (BooleanUtils.isTrue(config.getAutoTune()))
+        {
+            List<Path> sample = null;
+            if (StringUtils.isNoneBlank(autoTuneSampleStr))
+            {
+                sample = Collections.singletonList(Paths.get(autoTuneSampleStr));
+            }
+            else if (fullBackupSet != null)
+            {
+                sample = fullBackupSet.getStripes();
+            }
+
+            if (store == null || sample == null || Files.isRegularFile(sample.get(0)) == false)
+            {
+                LOGGER.error("Auto-tune requires a tuning file, and a sample or full backup file");
+
+                return null;
+            }
+
+            try
+            {
+                RestoreAutoTuner.from(target, lane.getName(), store, res.getBlockSize())
+                        .tune(sample);
+            }
+            catch (SQLException | IOException ex)
+            {
+                LOGGER.error(String.format("Error auto-tuning with '%s'", sample), ex);
+
+                return null;
+            }
+        }
+
+        if (store != null)
+        {
+            res = res.orElse(store.get(lane.getName()));
+        }
+
+        LOGGER.info(String.format("Restore tuning for '%s' is '%s'", lane.getName(), res));
+
+        return res;
+    }
 }
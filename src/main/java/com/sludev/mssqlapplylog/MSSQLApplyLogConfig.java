@@ -19,6 +19,9 @@
  */
 package com.sludev.mssqlapplylog;
 
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -47,6 +50,168 @@ public final class MSSQLApplyLogConfig
     private final Boolean useLogFileLastMode;
     private final Boolean doFullRestore;
     private final Boolean monitorLogBackupDir;
+    private final RestoreTimeouts restoreTimeouts;
+    private final FailurePolicy failurePolicy;
+    private final Integer restoreStatsPercent;
+    private final RestoreTuning restoreTuning;
+    private final String tuningFileStr;
+    private final Boolean autoTune;
+    private final String autoTuneSampleStr;
+    private final String fullBackupStripePatternStr;
+    private final StandbyMode standbyMode;
+    private final ApplyWindows applyWindows;
+    private final String stopAtStr;
+    private final Boolean plan;
+    private final String throughputHistoryFileStr;
+    private final Integer pendingLogLimit;
+    private final Long watchQuietMillis;
+    private final String watchTempPatternStr;
+    private final String checkpointFileStr;
+    private final RetentionPolicy retentionPolicy;
+    private final List<SqlTarget> sqlTargets;
+    private final Boolean forceFullRestore;
+    private final String diffBackupPatternStr;
+    private final String diffBackupDatePatternStr;
+    private final ThrottleSchedule restoreThrottle;
+    private final String leaseDirStr;
+    private final String nodeId;
+    private final Long leaseMillis;
+    private final ZoneId sqlTimeZone;
+
+    public ZoneId getSqlTimeZone()
+    {
+        return sqlTimeZone;
+    }
+
+    public String getLeaseDirStr()
+    {
+        return leaseDirStr;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    public Long getLeaseMillis()
+    {
+        return leaseMillis;
+    }
+
+    public ThrottleSchedule getRestoreThrottle()
+    {
+        return restoreThrottle;
+    }
+
+    public String getDiffBackupPatternStr()
+    {
+        return diffBackupPatternStr;
+    }
+
+    public String getDiffBackupDatePatternStr()
+    {
+        return diffBackupDatePatternStr;
+    }
+
+    public Boolean getForceFullRestore()
+    {
+        return forceFullRestore;
+    }
+
+    public List<SqlTarget> getSqlTargets()
+    {
+        return sqlTargets;
+    }
+
+    public String getCheckpointFileStr()
+    {
+        return checkpointFileStr;
+    }
+
+    public RetentionPolicy getRetentionPolicy()
+    {
+        return retentionPolicy;
+    }
+
+    public Long getWatchQuietMillis()
+    {
+        return watchQuietMillis;
+    }
+
+    public String getWatchTempPatternStr()
+    {
+        return watchTempPatternStr;
+    }
+
+    public Integer getPendingLogLimit()
+    {
+        return pendingLogLimit;
+    }
+
+    public Boolean getPlan()
+    {
+        return plan;
+    }
+
+    public String getThroughputHistoryFileStr()
+    {
+        return throughputHistoryFileStr;
+    }
+
+    public String getStopAtStr()
+    {
+        return stopAtStr;
+    }
+
+    public StandbyMode getStandbyMode()
+    {
+        return standbyMode;
+    }
+
+    public ApplyWindows getApplyWindows()
+    {
+        return applyWindows;
+    }
+
+    public String getFullBackupStripePatternStr()
+    {
+        return fullBackupStripePatternStr;
+    }
+
+    public RestoreTuning getRestoreTuning()
+    {
+        return restoreTuning;
+    }
+
+    public String getTuningFileStr()
+    {
+        return tuningFileStr;
+    }
+
+    public Boolean getAutoTune()
+    {
+        return autoTune;
+    }
+
+    public String getAutoTuneSampleStr()
+    {
+        return autoTuneSampleStr;
+    }
+
+    public Integer getRestoreStatsPercent()
+    {
+        return restoreStatsPercent;
+    }
+
+    public RestoreTimeouts getRestoreTimeouts()
+    {
+        return restoreTimeouts;
+    }
+
+    public FailurePolicy getFailurePolicy()
+    {
+        return failurePolicy;
+    }
 
     public String getSqlHost()
     {
@@ -128,41 +293,56 @@ public final class MSSQLApplyLogConfig
         return fullBackupPathStr;
     }
     
-    private MSSQLApplyLogConfig(final String backupDirStr,
-                                final String fullBackupPathStr,
-                                final String fullBackupDatePatternStr,
-                                final String laterThanStr,
-                                final String fullBackupPatternStr,
-                                final String logBackupPatternStr,
-                                final String logBackupDatePatternStr,
-                                final String sqlHost,
-                                final String sqlDb,
-                                final String sqlUser,
-                                final String sqlPass,
-                                final String sqlUrl,
-                                final String sqlProcessUser,
-                                final Boolean useLogFileLastMode,
-                                final Boolean doFullRestore,
-                                final Boolean monitorLogBackupDir)
+    private MSSQLApplyLogConfig(final Builder builder)
     {
-        this.backupDirStr = backupDirStr;
-        this.fullBackupPathStr = fullBackupPathStr;
-        this.fullBackupDatePatternStr = fullBackupDatePatternStr;
-        this.laterThanStr = laterThanStr;
-        this.fullBackupPatternStr = fullBackupPatternStr;
-        this.useLogFileLastMode = useLogFileLastMode;
-        this.logBackupPatternStr = logBackupPatternStr;
-        this.logBackupDatePatternStr = logBackupDatePatternStr;
-        this.sqlHost = sqlHost;
-        this.sqlDb = sqlDb;
-        this.sqlUser = sqlUser;
-        this.sqlPass = sqlPass;
-        this.sqlUrl = sqlUrl;
-        this.sqlProcessUser = sqlProcessUser;
-        this.doFullRestore = doFullRestore;
-        this.monitorLogBackupDir = monitorLogBackupDir;
+        this.backupDirStr = builder.backupDirStr;
+        this.fullBackupPathStr = builder.fullBackupPathStr;
+        this.fullBackupDatePatternStr = builder.fullBackupDatePatternStr;
+        this.laterThanStr = builder.laterThanStr;
+        this.fullBackupPatternStr = builder.fullBackupPatternStr;
+        this.logBackupPatternStr = builder.logBackupPatternStr;
+        this.logBackupDatePatternStr = builder.logBackupDatePatternStr;
+        this.sqlHost = builder.sqlHost;
+        this.sqlDb = builder.sqlDb;
+        this.sqlUser = builder.sqlUser;
+        this.sqlPass = builder.sqlPass;
+        this.sqlUrl = builder.sqlUrl;
+        this.sqlProcessUser = builder.sqlProcessUser;
+        this.useLogFileLastMode = builder.useLogFileLastMode;
+        this.doFullRestore = builder.doFullRestore;
+        this.monitorLogBackupDir = builder.monitorLogBackupDir;
+        this.restoreTimeouts = builder.restoreTimeouts;
+        this.failurePolicy = builder.failurePolicy;
+        this.restoreStatsPercent = builder.restoreStatsPercent;
+        this.restoreTuning = builder.restoreTuning;
+        this.tuningFileStr = builder.tuningFileStr;
+        this.autoTune = builder.autoTune;
+        this.autoTuneSampleStr = builder.autoTuneSampleStr;
+        this.fullBackupStripePatternStr = builder.fullBackupStripePatternStr;
+        this.standbyMode = builder.standbyMode;
+        this.applyWindows = builder.applyWindows;
+        this.stopAtStr = builder.stopAtStr;
+        this.plan = builder.plan;
+        this.throughputHistoryFileStr = builder.throughputHistoryFileStr;
+        this.pendingLogLimit = builder.pendingLogLimit;
+        this.watchQuietMillis = builder.watchQuietMillis;
+        this.watchTempPatternStr = builder.watchTempPatternStr;
+        this.checkpointFileStr = builder.checkpointFileStr;
+        this.retentionPolicy = builder.retentionPolicy;
+        this.sqlTargets = builder.sqlTargets;
+        this.forceFullRestore = builder.forceFullRestore;
+        this.diffBackupPatternStr = builder.diffBackupPatternStr;
+        this.diffBackupDatePatternStr = builder.diffBackupDatePatternStr;
+        this.restoreThrottle = builder.restoreThrottle;
+        this.leaseDirStr = builder.leaseDirStr;
+        this.nodeId = builder.nodeId;
+        this.leaseMillis = builder.leaseMillis;
+        this.sqlTimeZone = builder.sqlTimeZone;
     }
     
+    /**
+     * The original settings only.  builder() sets any of them.
+     */
     public static MSSQLApplyLogConfig from(final String backupDirStr,
                                 final String fullBackupPathStr,
                                 final String fullBackupDatePatternStr,
@@ -180,23 +360,396 @@ public final class MSSQLApplyLogConfig
                                 final Boolean doFullRestore,
                                 final Boolean monitorLogBackupDir)
     {
-        MSSQLApplyLogConfig res = new MSSQLApplyLogConfig(backupDirStr,
-                                fullBackupPathStr,
-                                fullBackupDatePatternStr,
-                                laterThanStr,
-                                fullBackupPatternStr,
-                                logBackupPatternStr,
-                                logBackupDatePatternStr,
-                                sqlHost,
-                                sqlDb,
-                                sqlUser,
-                                sqlPass,
-                                sqlUrl,
-                                sqlProcessUser,
-                                useLogFileLastMode,
-                                doFullRestore,
-                                monitorLogBackupDir);
-        
-        return res;
+        return builder()
+                .setBackupDirStr(backupDirStr)
+                .setFullBackupPathStr(fullBackupPathStr)
+                .setFullBackupDatePatternStr(fullBackupDatePatternStr)
+                .setLaterThanStr(laterThanStr)
+                .setFullBackupPatternStr(fullBackupPatternStr)
+                .setLogBackupPatternStr(logBackupPatternStr)
+                .setLogBackupDatePatternStr(logBackupDatePatternStr)
+                .setSqlHost(sqlHost)
+                .setSqlDb(sqlDb)
+                .setSqlUser(sqlUser)
+                .setSqlPass(sqlPass)
+                .setSqlUrl(sqlUrl)
+                .setSqlProcessUser(sqlProcessUser)
+                .setUseLogFileLastMode(useLogFileLastMode)
+                .setDoFullRestore(doFullRestore)
+                .setMonitorLogBackupDir(monitorLogBackupDir)
+                .build();
+    }
+
+    /**
+     * @return A builder with the command line defaults
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builds a configuration, e.g. for an application embedding this one.
+     *
+     * Starts with the command line defaults.  Anything not set is left to
+     * the default of the feature it belongs to, usually off.
+     */
+    public static final class Builder
+    {
+        private String backupDirStr;
+        private String fullBackupPathStr;
+        private String fullBackupDatePatternStr = "yyyyMMddHHmm";
+        private String laterThanStr = "";
+        private String fullBackupPatternStr = "(?:[\\w_-]+?)(\\d+)\\.bak";
+        private String logBackupPatternStr = "(.*)\\.trn";
+        private String logBackupDatePatternStr = "yyyyMMddHHmmss";
+        private String sqlHost = "127.0.0.1";
+        private String sqlDb;
+        private String sqlUser;
+        private String sqlPass;
+        private String sqlUrl;
+        private String sqlProcessUser;
+        private Boolean useLogFileLastMode;
+        private Boolean doFullRestore = false;
+        private Boolean monitorLogBackupDir;
+        private RestoreTimeouts restoreTimeouts;
+        private FailurePolicy failurePolicy;
+        private Integer restoreStatsPercent;
+        private RestoreTuning restoreTuning;
+        private String tuningFileStr;
+        private Boolean autoTune = false;
+        private String autoTuneSampleStr;
+        private String fullBackupStripePatternStr;
+        private StandbyMode standbyMode;
+        private ApplyWindows applyWindows;
+        private String stopAtStr = "";
+        private Boolean plan = false;
+        private String throughputHistoryFileStr;
+        private Integer pendingLogLimit;
+        private Long watchQuietMillis;
+        private String watchTempPatternStr;
+        private String checkpointFileStr;
+        private RetentionPolicy retentionPolicy;
+        private List<SqlTarget> sqlTargets = new ArrayList<>();
+        private Boolean forceFullRestore = false;
+        private String diffBackupPatternStr;
+        private String diffBackupDatePatternStr;
+        private ThrottleSchedule restoreThrottle;
+        private String leaseDirStr;
+        private String nodeId;
+        private Long leaseMillis;
+        private ZoneId sqlTimeZone;
+
+        private Builder()
+        {
+        }
+
+        public Builder setBackupDirStr(final String backupDirStr)
+        {
+            this.backupDirStr = backupDirStr;
+
+            return this;
+        }
+
+        public Builder setFullBackupPathStr(final String fullBackupPathStr)
+        {
+            this.fullBackupPathStr = fullBackupPathStr;
+
+            return this;
+        }
+
+        public Builder setFullBackupDatePatternStr(final String fullBackupDatePatternStr)
+        {
+            this.fullBackupDatePatternStr = fullBackupDatePatternStr;
+
+            return this;
+        }
+
+        public Builder setLaterThanStr(final String laterThanStr)
+        {
+            this.laterThanStr = laterThanStr;
+
+            return this;
+        }
+
+        public Builder setFullBackupPatternStr(final String fullBackupPatternStr)
+        {
+            this.fullBackupPatternStr = fullBackupPatternStr;
+
+            return this;
+        }
+
+        public Builder setLogBackupPatternStr(final String logBackupPatternStr)
+        {
+            this.logBackupPatternStr = logBackupPatternStr;
+
+            return this;
+        }
+
+        public Builder setLogBackupDatePatternStr(final String logBackupDatePatternStr)
+        {
+            this.logBackupDatePatternStr = logBackupDatePatternStr;
+
+            return this;
+        }
+
+        public Builder setSqlHost(final String sqlHost)
+        {
+            this.sqlHost = sqlHost;
+
+            return this;
+        }
+
+        public Builder setSqlDb(final String sqlDb)
+        {
+            this.sqlDb = sqlDb;
+
+            return this;
+        }
+
+        public Builder setSqlUser(final String sqlUser)
+        {
+            this.sqlUser = sqlUser;
+
+            return this;
+        }
+
+        public Builder setSqlPass(final String sqlPass)
+        {
+            this.sqlPass = sqlPass;
+
+            return this;
+        }
+
+        public Builder setSqlUrl(final String sqlUrl)
+        {
+            this.sqlUrl = sqlUrl;
+
+            return this;
+        }
+
+        public Builder setSqlProcessUser(final String sqlProcessUser)
+        {
+            this.sqlProcessUser = sqlProcessUser;
+
+            return this;
+        }
+
+        public Builder setUseLogFileLastMode(final Boolean useLogFileLastMode)
+        {
+            this.useLogFileLastMode = useLogFileLastMode;
+
+            return this;
+        }
+
+        public Builder setDoFullRestore(final Boolean doFullRestore)
+        {
+            this.doFullRestore = doFullRestore;
+
+            return this;
+        }
+
+        public Builder setMonitorLogBackupDir(final Boolean monitorLogBackupDir)
+        {
+            this.monitorLogBackupDir = monitorLogBackupDir;
+
+            return this;
+        }
+
+        public Builder setRestoreTimeouts(final RestoreTimeouts restoreTimeouts)
+        {
+            this.restoreTimeouts = restoreTimeouts;
+
+            return this;
+        }
+
+        public Builder setFailurePolicy(final FailurePolicy failurePolicy)
+        {
+            this.failurePolicy = failurePolicy;
+
+            return this;
+        }
+
+        public Builder setRestoreStatsPercent(final Integer restoreStatsPercent)
+        {
+            this.restoreStatsPercent = restoreStatsPercent;
+
+            return this;
+        }
+
+        public Builder setRestoreTuning(final RestoreTuning restoreTuning)
+        {
+            this.restoreTuning = restoreTuning;
+
+            return this;
+        }
+
+        public Builder setTuningFileStr(final String tuningFileStr)
+        {
+            this.tuningFileStr = tuningFileStr;
+
+            return this;
+        }
+
+        public Builder setAutoTune(final Boolean autoTune)
+        {
+            this.autoTune = autoTune;
+
+            return this;
+        }
+
+        public Builder setAutoTuneSampleStr(final String autoTuneSampleStr)
+        {
+            this.autoTuneSampleStr = autoTuneSampleStr;
+
+            return this;
+        }
+
+        public Builder setFullBackupStripePatternStr(final String fullBackupStripePatternStr)
+        {
+            this.fullBackupStripePatternStr = fullBackupStripePatternStr;
+
+            return this;
+        }
+
+        public Builder setStandbyMode(final StandbyMode standbyMode)
+        {
+            this.standbyMode = standbyMode;
+
+            return this;
+        }
+
+        public Builder setApplyWindows(final ApplyWindows applyWindows)
+        {
+            this.applyWindows = applyWindows;
+
+            return this;
+        }
+
+        public Builder setStopAtStr(final String stopAtStr)
+        {
+            this.stopAtStr = stopAtStr;
+
+            return this;
+        }
+
+        public Builder setPlan(final Boolean plan)
+        {
+            this.plan = plan;
+
+            return this;
+        }
+
+        public Builder setThroughputHistoryFileStr(final String throughputHistoryFileStr)
+        {
+            this.throughputHistoryFileStr = throughputHistoryFileStr;
+
+            return this;
+        }
+
+        public Builder setPendingLogLimit(final Integer pendingLogLimit)
+        {
+            this.pendingLogLimit = pendingLogLimit;
+
+            return this;
+        }
+
+        public Builder setWatchQuietMillis(final Long watchQuietMillis)
+        {
+            this.watchQuietMillis = watchQuietMillis;
+
+            return this;
+        }
+
+        public Builder setWatchTempPatternStr(final String watchTempPatternStr)
+        {
+            this.watchTempPatternStr = watchTempPatternStr;
+
+            return this;
+        }
+
+        public Builder setCheckpointFileStr(final String checkpointFileStr)
+        {
+            this.checkpointFileStr = checkpointFileStr;
+
+            return this;
+        }
+
+        public Builder setRetentionPolicy(final RetentionPolicy retentionPolicy)
+        {
+            this.retentionPolicy = retentionPolicy;
+
+            return this;
+        }
+
+        public Builder setSqlTargets(final List<SqlTarget> sqlTargets)
+        {
+            this.sqlTargets = sqlTargets;
+
+            return this;
+        }
+
+        public Builder setForceFullRestore(final Boolean forceFullRestore)
+        {
+            this.forceFullRestore = forceFullRestore;
+
+            return this;
+        }
+
+        public Builder setDiffBackupPatternStr(final String diffBackupPatternStr)
+        {
+            this.diffBackupPatternStr = diffBackupPatternStr;
+
+            return this;
+        }
+
+        public Builder setDiffBackupDatePatternStr(final String diffBackupDatePatternStr)
+        {
+            this.diffBackupDatePatternStr = diffBackupDatePatternStr;
+
+            return this;
+        }
+
+        public Builder setRestoreThrottle(final ThrottleSchedule restoreThrottle)
+        {
+            this.restoreThrottle = restoreThrottle;
+
+            return this;
+        }
+
+        public Builder setLeaseDirStr(final String leaseDirStr)
+        {
+            this.leaseDirStr = leaseDirStr;
+
+            return this;
+        }
+
+        public Builder setNodeId(final String nodeId)
+        {
+            this.nodeId = nodeId;
+
+            return this;
+        }
+
+        public Builder setLeaseMillis(final Long leaseMillis)
+        {
+            this.leaseMillis = leaseMillis;
+
+            return this;
+        }
+
+        public Builder setSqlTimeZone(final ZoneId sqlTimeZone)
+        {
+            this.sqlTimeZone = sqlTimeZone;
+
+            return this;
+        }
+
+        public MSSQLApplyLogConfig build()
+        {
+            MSSQLApplyLogConfig res = new MSSQLApplyLogConfig(this);
+
+            return res;
+        }
     }
 }
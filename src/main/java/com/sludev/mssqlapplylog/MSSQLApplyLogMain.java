@@ -27,12 +27,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -42,7 +43,6 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -71,6 +71,7 @@ public final class MSSQLApplyLogMain
         String sqlHost = "127.0.0.1";
         String backupDirStr = null;
         String laterThanStr = "";
+        String stopAtStr = "";
         String fullBackupPathStr = null;
         String fullBackupPatternStr = "(?:[\\w_-]+?)(\\d+)\\.bak";
         String fullBackupDatePatternStr = "yyyyMMddHHmm";
@@ -79,8 +80,34 @@ public final class MSSQLApplyLogMain
         String logBackupDatePatternStr = "yyyyMMddHHmmss";
 
         boolean doFullRestore = false;
+        boolean forceFullRestore = false;
+        String diffBackupPatternStr = null;
+        String diffBackupDatePatternStr = null;
+        ThrottleSchedule restoreThrottle = null;
+        String leaseDirStr = null;
+        String nodeId = null;
+        Long leaseMillis = null;
+        ZoneId sqlTimeZone = null;
         Boolean useLogFileLastMode = null;
         Boolean monitorLogBackupDir = null;
+        RestoreTimeouts restoreTimeouts = null;
+        FailurePolicy failurePolicy = null;
+        Integer restoreStatsPercent = null;
+        RestoreTuning restoreTuning = null;
+        String tuningFileStr = null;
+        boolean autoTune = false;
+        String autoTuneSampleStr = null;
+        String fullBackupStripePatternStr = null;
+        StandbyMode standbyMode = null;
+        ApplyWindows applyWindows = null;
+        boolean plan = false;
+        String throughputHistoryFileStr = null;
+        Integer pendingLogLimit = null;
+        Long watchQuietMillis = null;
+        String watchTempPatternStr = null;
+        String checkpointFileStr = null;
+        RetentionPolicy retentionPolicy = null;
+        List<SqlTarget> sqlTargets = new ArrayList<>();
 
         options.addOption(Option.builder().longOpt("conf")
                 .desc("Configuration file.")
@@ -92,10 +119,19 @@ public final class MSSQLApplyLogMain
                 .hasArg()
                 .build());
 
+        options.addOption(Option.builder().longOpt("stop-at")
+                .desc("Restore up to this point in time then recover the database, e.g. 2016-01-13T12:30:00Z.")
+                .hasArg()
+                .build());
+
         options.addOption(Option.builder().longOpt("restore-full")
                 .desc("Restore the full backup before continuing.")
                 .build());
 
+        options.addOption(Option.builder().longOpt("force-full-restore")
+                .desc("Restore the full backup even if the database is already restoring from it.")
+                .build());
+
         options.addOption(Option.builder().longOpt("use-lastmod")
                 .desc("Sort/filter the log backups using their File-System 'Last Modified' date.")
                 .build());
@@ -104,6 +140,14 @@ public final class MSSQLApplyLogMain
                 .desc("Monitor the backup directory for new log backups, and apply them.")
                 .build());
 
+        options.addOption(Option.builder().longOpt("plan")
+                .desc("Print the restore plan and estimated duration without connecting to SQL Server.")
+                .build());
+
+        options.addOption(Option.builder().longOpt("auto-tune")
+                .desc("Find the fastest RESTORE BUFFERCOUNT and MAXTRANSFERSIZE before continuing.")
+                .build());
+
         CommandLine line = null;
         try
         {
@@ -139,16 +183,36 @@ public final class MSSQLApplyLogMain
                         laterThanStr = currOpt.getValue();
                         break;
 
+                    case "stop-at":
+                        // Point-in-time restore
+                        stopAtStr = currOpt.getValue();
+                        break;
+
                     case "restore-full":
                         // Do a full backup restore before restoring logs
                         doFullRestore = true;
                         break;
 
+                    case "force-full-restore":
+                        // Reseed even when the database already has the full backup
+                        forceFullRestore = true;
+                        break;
+
                     case "monitor-backup-dir":
                         // Monitor the backup directory for new logs
                         monitorLogBackupDir = true;
                         break;
 
+                    case "plan":
+                        // Dry run, only work out what would be restored
+                        plan = true;
+                        break;
+
+                    case "auto-tune":
+                        // Tune RESTORE throughput with trial runs first
+                        autoTune = true;
+                        break;
+
                     case "use-lastmod":
                         // Use the last-modified date on Log Backup files for sorting/filtering
                         useLogFileLastMode = true;
@@ -188,11 +252,21 @@ public final class MSSQLApplyLogMain
                     laterThanStr = confProperties.getProperty("laterThan", "");
                 }
 
+                if (StringUtils.isBlank(stopAtStr))
+                {
+                    stopAtStr = confProperties.getProperty("stopAt", "");
+                }
+
                 fullBackupPathStr = confProperties.getProperty("fullBackupPath", fullBackupPathStr);
                 fullBackupPatternStr
                         = confProperties.getProperty("fullBackupPattern", fullBackupPatternStr);
                 fullBackupDatePatternStr
                         = confProperties.getProperty("fullBackupDatePattern", fullBackupDatePatternStr);
+                fullBackupStripePatternStr
+                        = confProperties.getProperty("fullBackupStripePattern", "");
+                diffBackupPatternStr = confProperties.getProperty("diffBackupPattern", "");
+                diffBackupDatePatternStr = confProperties.getProperty("diffBackupDatePattern",
+                        fullBackupDatePatternStr);
                 sqlProcessUser = confProperties.getProperty("sqlProcessUser", "");
 
                 logBackupPatternStr = confProperties.getProperty("logBackupPattern",
@@ -215,6 +289,134 @@ public final class MSSQLApplyLogMain
                     monitorLogBackupDir = Boolean.valueOf(StringUtils.lowerCase(
                             StringUtils.trim(monitorBackupDirStr)));
                 }
+
+                // Deadlines for RESTORE statements, in seconds and bytes per second
+                restoreTimeouts = RestoreTimeouts.from(
+                        getLongProperty(confProperties, "restoreTimeoutBase"),
+                        getLongProperty(confProperties, "restoreTimeoutMinRate"),
+                        getLongProperty(confProperties, "restoreCancelGrace"));
+
+                // Retry, backoff and circuit breaker settings for failed restores
+                failurePolicy = FailurePolicy.from(
+                        getIntProperty(confProperties, "restoreRetries"),
+                        getLongProperty(confProperties, "restoreBackoffBase"),
+                        getLongProperty(confProperties, "restoreBackoffMax"),
+                        getIntProperty(confProperties, "breakerThreshold"),
+                        getLongProperty(confProperties, "breakerOpenTime"));
+
+                // RESTORE ... WITH STATS progress interval
+                restoreStatsPercent = getIntProperty(confProperties, "restoreStats");
+
+                // RESTORE data transfer options, and where auto-tune results are kept
+                try
+                {
+                    restoreTuning = RestoreTuning.from(
+                            getIntProperty(confProperties, "restoreBufferCount"),
+                            getIntProperty(confProperties, "restoreMaxTransferSize"),
+                            getIntProperty(confProperties, "restoreBlockSize"));
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    throw new MSSQLApplyLogException(ex.getMessage(), ex);
+                }
+
+                tuningFileStr = confProperties.getProperty("tuningFile", "");
+                autoTuneSampleStr = confProperties.getProperty("autoTuneSample", "");
+
+                // Past restore durations, for estimates
+                throughputHistoryFileStr = confProperties.getProperty("throughputHistoryFile", "");
+
+                // Readable STANDBY restores, and when pending logs are restored
+                String standbyUndoDirStr = confProperties.getProperty("standbyUndoDir", "");
+                if (StringUtils.isNoneBlank(standbyUndoDirStr))
+                {
+                    String standbyKickReadersStr = confProperties.getProperty("standbyKickReaders",
+                            "true");
+                    standbyMode = StandbyMode.from(StringUtils.trim(standbyUndoDirStr),
+                            Boolean.valueOf(StringUtils.lowerCase(
+                                    StringUtils.trim(standbyKickReadersStr))));
+                }
+
+                applyWindows = ApplyWindows.from(
+                        getLongProperty(confProperties, "applyWindowInterval"),
+                        getLongProperty(confProperties, "applyWindowMaxLag"));
+
+                // Most logs waiting for a window before the directory is rescanned instead
+                pendingLogLimit = getIntProperty(confProperties, "pendingLogLimit");
+
+                // A new log is ready once its copy goes quiet, or is renamed from a temp file
+                watchQuietMillis = getLongProperty(confProperties, "watchQuietMillis");
+                watchTempPatternStr = confProperties.getProperty("watchTempPattern");
+
+                // The last log applied, and what happens to the logs before it
+                checkpointFileStr = confProperties.getProperty("checkpointFile", "");
+
+                String retentionActionStr = confProperties.getProperty("retentionAction", "");
+                if (StringUtils.isNoneBlank(retentionActionStr))
+                {
+                    try
+                    {
+                        retentionPolicy = RetentionPolicy.from(
+                                RetentionPolicy.Action.valueOf(StringUtils.upperCase(
+                                        StringUtils.trim(retentionActionStr))),
+                                confProperties.getProperty("retentionArchiveDir"),
+                                getLongProperty(confProperties, "retentionMinAge"),
+                                getLongProperty(confProperties, "retentionInterval"),
+                                getLongProperty(confProperties, "retentionBytesPerSecond"));
+                    }
+                    catch (IllegalArgumentException ex)
+                    {
+                        throw new MSSQLApplyLogException(String.format(
+                                "Invalid retention settings. %s", ex.getMessage()), ex);
+                    }
+                }
+
+                String restoreThrottleStr = confProperties.getProperty("restoreThrottle", "");
+                if (StringUtils.isNoneBlank(restoreThrottleStr))
+                {
+                    try
+                    {
+                        restoreThrottle = ThrottleSchedule.from(restoreThrottleStr);
+                    }
+                    catch (IllegalArgumentException ex)
+                    {
+                        throw new MSSQLApplyLogException(String.format(
+                                "Invalid restore throttle '%s'. %s", restoreThrottleStr,
+                                ex.getMessage()), ex);
+                    }
+                }
+
+                // STOPAT is read in SQL Server's time zone, not necessarily ours
+                String sqlTimeZoneStr = confProperties.getProperty("sqlTimeZone", "");
+                if (StringUtils.isNoneBlank(sqlTimeZoneStr))
+                {
+                    try
+                    {
+                        sqlTimeZone = ZoneId.of(sqlTimeZoneStr.trim());
+                    }
+                    catch (DateTimeException ex)
+                    {
+                        throw new MSSQLApplyLogException(String.format(
+                                "Invalid SQL Server time zone '%s'", sqlTimeZoneStr), ex);
+                    }
+                }
+
+                // Several nodes share the targets through leases in one directory
+                leaseDirStr = confProperties.getProperty("leaseDir", "");
+                nodeId = confProperties.getProperty("nodeId", "");
+                Long leaseSeconds = getLongProperty(confProperties, "leaseSeconds");
+                if (leaseSeconds != null)
+                {
+                    leaseMillis = leaseSeconds * 1000;
+                }
+
+                // More servers fed the same logs, e.g. "sqlTarget.dr1.sqlHost"
+                SqlTarget mainTarget = SqlTarget.from(sqlDb, sqlHost, sqlDb, sqlUser, sqlPass,
+                        sqlURL, sqlProcessUser);
+                for (String name : SqlTarget.names(confProperties))
+                {
+                    sqlTargets.add(SqlTarget.from(name, confProperties, mainTarget));
+                }
             }
         }
         catch (MSSQLApplyLogException ex)
@@ -240,54 +442,108 @@ public final class MSSQLApplyLogMain
             System.exit(1);
         }
         
-        MSSQLApplyLogConfig config = MSSQLApplyLogConfig.from(backupDirStr,
-                                fullBackupPathStr,
-                                fullBackupDatePatternStr,
-                                laterThanStr,
-                                fullBackupPatternStr,
-                                logBackupPatternStr,
-                                logBackupDatePatternStr,
-                                sqlHost,
-                                sqlDb,
-                                sqlUser,
-                                sqlPass,
-                                sqlURL,
-                                sqlProcessUser,
-                                useLogFileLastMode,
-                                doFullRestore,
-                                monitorLogBackupDir);
-        
-        MSSQLApplyLog logProc = MSSQLApplyLog.from(config);
+        MSSQLApplyLogConfig config = MSSQLApplyLogConfig.builder()
+                .setBackupDirStr(backupDirStr)
+                .setFullBackupPathStr(fullBackupPathStr)
+                .setFullBackupDatePatternStr(fullBackupDatePatternStr)
+                .setLaterThanStr(laterThanStr)
+                .setFullBackupPatternStr(fullBackupPatternStr)
+                .setLogBackupPatternStr(logBackupPatternStr)
+                .setLogBackupDatePatternStr(logBackupDatePatternStr)
+                .setSqlHost(sqlHost)
+                .setSqlDb(sqlDb)
+                .setSqlUser(sqlUser)
+                .setSqlPass(sqlPass)
+                .setSqlUrl(sqlURL)
+                .setSqlProcessUser(sqlProcessUser)
+                .setUseLogFileLastMode(useLogFileLastMode)
+                .setDoFullRestore(doFullRestore)
+                .setMonitorLogBackupDir(monitorLogBackupDir)
+                .setRestoreTimeouts(restoreTimeouts)
+                .setFailurePolicy(failurePolicy)
+                .setRestoreStatsPercent(restoreStatsPercent)
+                .setRestoreTuning(restoreTuning)
+                .setTuningFileStr(tuningFileStr)
+                .setAutoTune(autoTune)
+                .setAutoTuneSampleStr(autoTuneSampleStr)
+                .setFullBackupStripePatternStr(fullBackupStripePatternStr)
+                .setStandbyMode(standbyMode)
+                .setApplyWindows(applyWindows)
+                .setStopAtStr(stopAtStr)
+                .setPlan(plan)
+                .setThroughputHistoryFileStr(throughputHistoryFileStr)
+                .setPendingLogLimit(pendingLogLimit)
+                .setWatchQuietMillis(watchQuietMillis)
+                .setWatchTempPatternStr(watchTempPatternStr)
+                .setCheckpointFileStr(checkpointFileStr)
+                .setRetentionPolicy(retentionPolicy)
+                .setSqlTargets(sqlTargets)
+                .setForceFullRestore(forceFullRestore)
+                .setDiffBackupPatternStr(diffBackupPatternStr)
+                .setDiffBackupDatePatternStr(diffBackupDatePatternStr)
+                .setRestoreThrottle(restoreThrottle)
+                .setLeaseDirStr(leaseDirStr)
+                .setNodeId(nodeId)
+                .setLeaseMillis(leaseMillis)
+                .setSqlTimeZone(sqlTimeZone)
+                .build();
         
-        BasicThreadFactory thFactory = new BasicThreadFactory.Builder()
-            .namingPattern("restoreThread-%d")
-            .build();
+        // The same service an application embedding this one would run
+        ApplyLogService service = ApplyLogService.from(config);
 
-        ExecutorService mainThreadExe = Executors.newSingleThreadExecutor(thFactory);
-
-        Future<Integer> currRunTask = mainThreadExe.submit(logProc);
-
-        mainThreadExe.shutdown();
-
-        Integer resp = 0;
+        Integer resp = 1;
         try
         {
-            resp = currRunTask.get();
+            resp = service.start().get();
         }
         catch (InterruptedException ex)
         {
             LOGGER.error("Application 'main' thread was interrupted", ex);
+
+            service.stop();
         }
         catch (ExecutionException ex)
         {
             LOGGER.error("Application 'main' thread execution error", ex);
         }
-        finally
+        
+        System.exit(resp);
+    }
+    
+    /**
+     * Read an optional numeric property.
+     * 
+     * @param props The configuration properties
+     * @param name The property name
+     * @return The value or null if the property is missing or blank
+     * @throws MSSQLApplyLogException If the value is not a number
+     */
+    private static Long getLongProperty(final Properties props, final String name)
+            throws MSSQLApplyLogException
+    {
+        String valStr = StringUtils.trim(props.getProperty(name));
+        
+        if (StringUtils.isBlank(valStr))
+        {
+            return null;
+        }
+        
+        try
         {
-            // If main leaves for any reason, shutdown all threads
-            mainThreadExe.shutdownNow();
+            return Long.valueOf(valStr);
         }
+        catch (NumberFormatException ex)
+        {
+            throw new MSSQLApplyLogException(
+                    String.format("Invalid number for '%s' : '%s'", name, valStr), ex);
+        }
+    }
+    
+    private static Integer getIntProperty(final Properties props, final String name)
+            throws MSSQLApplyLogException
+    {
+        Long res = getLongProperty(props, name);
         
-        System.exit(resp);
+        return res == null ? null : res.intValue();
     }
-}
+}
\ No newline at end of file
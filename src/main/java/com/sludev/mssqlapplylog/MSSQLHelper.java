@@ -23,9 +23,17 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
@@ -50,7 +58,7 @@ public final class MSSQLHelper
     public static Connection getConn(String sqlURL, Properties props)
     {
         Connection conn = null;
-        try
+        try (RestoreTracer.Span span = RestoreTracer.start("connect"))
         {
             conn = DriverManager.getConnection(sqlURL, props);
         }
@@ -89,12 +97,31 @@ public final class MSSQLHelper
                                     final String sqlDb,
                                     final Connection conn) throws SQLException
     {
-        LOGGER.info(String.format("\nStarting Log restore of '%s'...", logPath));
-        
-        StopWatch sw = new StopWatch();
-
-        sw.start();
+        restoreLog(logPath, sqlProcessUser, RestoreQuery.forLog(sqlDb, logPath),
+                conn, null, null);
+    }
 
+    /**
+     * Restore a Backup Log using a backup file on the file-system, cancelling
+     * the RESTORE if it runs past its deadline.
+     * 
+     * @param logPath
+     * @param sqlProcessUser Optionally, give this user file-system permissions.  So SQL Server can RESTORE.
+     * @param query The RESTORE LOG query for the backup file
+     * @param conn  Open connection
+     * @param timeouts Deadline settings.  Null for no deadline.
+     * @param watchdog Cancels overdue statements and follows progress.  Null for no watchdog.
+     * @throws SQLException On failure, or SQLTimeoutException if the deadline passed
+     */
+    public static void restoreLog(final Path logPath, 
+                                    final String sqlProcessUser,
+                                    final RestoreQuery query,
+                                    final Connection conn,
+                                    final RestoreTimeouts timeouts,
+                                    final RestoreWatchdog watchdog) throws SQLException
+    {
+        LOGGER.info("\nStarting Log restore of '{}'...", logPath);
+        
         if (StringUtils.isNoneBlank(sqlProcessUser))
         {
             try
@@ -108,29 +135,328 @@ public final class MSSQLHelper
             }
         }
 
-        String strDevice = logPath.toAbsolutePath().toString();
+        executeRestore(query, conn, timeouts, watchdog);
+    }
 
-        String query = String.format("RESTORE LOG %s FROM DISK='%s' WITH NORECOVERY",
-                sqlDb, strDevice);
+    /**
+     * Restore a Full Backup over the database, leaving it ready for log restores.
+     * 
+     * @param query The RESTORE DATABASE query for the full backup
+     * @param conn  Open connection
+     * @param timeouts Deadline settings.  Null for no deadline.
+     * @param watchdog Cancels overdue statements and follows progress.  Null for no watchdog.
+     * @throws SQLException On failure, or SQLTimeoutException if the deadline passed
+     */
+    public static void restoreFull(final RestoreQuery query,
+                                    final Connection conn,
+                                    final RestoreTimeouts timeouts,
+                                    final RestoreWatchdog watchdog) throws SQLException
+    {
+        LOGGER.info("\nStarting full restore of '{}'...", query.getDevices());
 
-        Statement stmt = null;
+        executeRestore(query, conn, timeouts, watchdog);
+    }
 
-        stmt = conn.createStatement();
+    /**
+     * Execute a RESTORE query under a deadline scaled to the backup size.
+     * 
+     * Progress messages from "WITH STATS" are followed while the query runs,
+     * then the remaining messages and results are drained once it returns.
+     * 
+     * @param restoreQuery The RESTORE query
+     * @param conn Open connection
+     * @param timeouts Deadline settings.  Null for no deadline.
+     * @param watchdog Cancels overdue statements and follows progress.  Null for no watchdog.
+     * @throws SQLException On failure, or SQLTimeoutException if the deadline passed
+     */
+    public static void executeRestore(final RestoreQuery restoreQuery,
+                                        final Connection conn,
+                                        final RestoreTimeouts timeouts,
+                                        final RestoreWatchdog watchdog) throws SQLException
+    {
+        StopWatch sw = new StopWatch();
 
-        try
+        sw.start();
+
+        String query = restoreQuery.toSql();
+        long bytes = restoreQuery.getBackupBytes();
+        RestoreProgress progress = RestoreProgress.from(restoreQuery.getDescription(), bytes);
+
+        int timeoutSecs = 0;
+        long graceSecs = -1;
+        if (timeouts != null)
         {
-            boolean sqlRes = stmt.execute(query);
+            timeoutSecs = timeouts.timeoutSeconds(bytes);
+            graceSecs = timeouts.getCancelGraceSeconds();
         }
-        catch (SQLException ex)
+
+        try (RestoreTracer.Span span = RestoreTracer.start("execute", restoreQuery.getDevices().get(0))
+                .arg("bytes", bytes);
+                Statement stmt = conn.createStatement())
         {
-            LOGGER.error(String.format("Error executing...\n'%s'", query), ex);
-            
-            throw ex;
+            RestoreWatchdog.Guard guard = null;
+            if (watchdog != null)
+            {
+                guard = watchdog.watch(stmt, query, timeoutSecs, graceSecs, progress);
+            }
+            else if (timeoutSecs > 0)
+            {
+                // Without a watchdog, fall back on the driver's own timer
+                stmt.setQueryTimeout(timeoutSecs);
+            }
+
+            try
+            {
+                boolean sqlRes = stmt.execute(query);
+
+                // Messages can trail the first result, read to the end
+                progress.poll(stmt);
+                while (sqlRes || stmt.getUpdateCount() != -1)
+                {
+                    sqlRes = stmt.getMoreResults();
+                    progress.poll(stmt);
+                }
+
+                progress.update(100);
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.error("Error executing...\n'{}'", query, ex);
+
+                if (guard != null && guard.isFired())
+                {
+                    throw new SQLTimeoutException(String.format(
+                            "Restore cancelled after %d seconds", timeoutSecs),
+                            "HYT00", ex);
+                }
+
+                throw ex;
+            }
+            finally
+            {
+                if (guard != null)
+                {
+                    guard.close();
+                }
+            }
         }
 
         sw.stop();
 
-        LOGGER.debug(String.format("Query...\n'%s'\nTook %s",
-                query, sw.toString()));
+        LOGGER.debug("Query...\n'{}'\nTook {}", query, sw);
+    }
+
+    /**
+     * Disconnect every other session using a database, rolling back their
+     * work, so readers of a standby database don't block the next RESTORE.
+     *
+     * A read-only standby database can't be set to SINGLE_USER, so the
+     * sessions are killed one by one instead.
+     *
+     * @param sqlDb The database
+     * @param conn Open connection, not using the database itself
+     * @return The sessions killed
+     * @throws SQLException If the sessions cannot be listed
+     */
+    public static int killSessions(final String sqlDb,
+                                   final Connection conn) throws SQLException
+    {
+        String query = "SELECT session_id FROM sys.dm_exec_sessions"
+                + " WHERE database_id = DB_ID(?) AND session_id <> @@SPID";
+
+        List<Integer> sessions = new ArrayList<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement(query))
+        {
+            stmt.setString(1, sqlDb);
+
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    sessions.add(rs.getInt("session_id"));
+                }
+            }
+        }
+
+        int res = 0;
+
+        try (Statement stmt = conn.createStatement())
+        {
+            for (int session : sessions)
+            {
+                try
+                {
+                    stmt.execute(String.format("KILL %d", session));
+
+                    res++;
+                }
+                catch (SQLException ex)
+                {
+                    // Usually the session ended by itself in the meantime
+                    LOGGER.debug(String.format("Error killing session %d on '%s'",
+                            session, sqlDb), ex);
+                }
+            }
+        }
+
+        LOGGER.debug("Killed {} of {} sessions on '{}'", res, sessions.size(), sqlDb);
+
+        return res;
+    }
+
+    /**
+     * Read how far a database has been restored, in one round trip.
+     *
+     * Takes the latest msdb restore history entry for the database, with its
+     * backup file and ending LSN, alongside the LSN the database needs next
+     * and the full backup the restore started from.
+     *
+     * @param sqlDb The database
+     * @param conn Open connection
+     * @return The restore state, or null if the database was never restored on this server
+     * @throws SQLException If msdb or sys.master_files cannot be read
+     */
+    public static RestoreState getRestoreState(final String sqlDb,
+                                                final Connection conn) throws SQLException
+    {
+        String query = "SELECT TOP 1 rh.restore_type, bmf.physical_device_name,"
+                + " bs.last_lsn, mf.redo_start_lsn,"
+                + " base.backup_set_uuid AS base_uuid, base.checkpoint_lsn AS base_checkpoint_lsn"
+                + " FROM msdb.dbo.restorehistory rh"
+                + " JOIN msdb.dbo.backupset bs ON bs.backup_set_id = rh.backup_set_id"
+                + " JOIN msdb.dbo.backupmediafamily bmf ON bmf.media_set_id = bs.media_set_id"
+                + " LEFT JOIN sys.master_files mf ON mf.database_id = DB_ID(rh.destination_database_name)"
+                + " AND mf.file_id = 1"
+                + " OUTER APPLY (SELECT TOP 1 fbs.backup_set_uuid, fbs.checkpoint_lsn"
+                + " FROM msdb.dbo.restorehistory frh"
+                + " JOIN msdb.dbo.backupset fbs ON fbs.backup_set_id = frh.backup_set_id"
+                + " WHERE frh.destination_database_name = rh.destination_database_name"
+                + " AND frh.restore_type = 'D'"
+                + " ORDER BY frh.restore_history_id DESC) base"
+                + " WHERE rh.destination_database_name = ?"
+                + " ORDER BY rh.restore_history_id DESC, bmf.family_sequence_number";
+
+        try (PreparedStatement stmt = conn.prepareStatement(query))
+        {
+            stmt.setString(1, sqlDb);
+
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                if (rs.next() == false)
+                {
+                    return null;
+                }
+
+                RestoreState res = RestoreState.from(sqlDb,
+                        rs.getString("restore_type"),
+                        rs.getString("physical_device_name"),
+                        rs.getBigDecimal("last_lsn"),
+                        rs.getBigDecimal("redo_start_lsn"),
+                        rs.getString("base_uuid"),
+                        rs.getBigDecimal("base_checkpoint_lsn"));
+
+                LOGGER.debug("Restore state of '{}' : {}", sqlDb, res);
+
+                return res;
+            }
+        }
+    }
+
+    /**
+     * Read the header of the first backup set on a backup's media.
+     *
+     * @param stripes The backup files, in stripe order
+     * @param conn Open connection
+     * @return The header
+     * @throws SQLException If the header can't be read
+     * @throws MSSQLApplyLogException If the media holds no backup
+     */
+    public static BackupHeader readBackupHeader(final List<Path> stripes,
+                                                final Connection conn)
+            throws SQLException, MSSQLApplyLogException
+    {
+        String query = RestoreQuery.from(RestoreQuery.Kind.HEADERONLY, null, stripes).toSql();
+
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(query))
+        {
+            if (rs.next() == false)
+            {
+                throw new MSSQLApplyLogException(String.format(
+                        "No backup set in '%s'", stripes.get(0)));
+            }
+
+            BackupHeader res = BackupHeader.from(rs.getString("BackupSetGUID"),
+                    rs.getInt("BackupType"),
+                    rs.getBigDecimal("CheckpointLSN"),
+                    rs.getBigDecimal("LastLSN"),
+                    rs.getString("DifferentialBaseGUID"));
+
+            LOGGER.debug("Header of '{}' : {}", stripes.get(0), res);
+
+            return res;
+        }
+    }
+
+    /**
+     * Check that striped backup files form one complete media set.
+     * 
+     * Reads every stripe's media label.  All stripes must share a media set,
+     * and between them hold every family sequence number the set has.
+     * 
+     * @param stripes The backup files
+     * @param conn Open connection
+     * @throws SQLException If a label can't be read
+     * @throws MSSQLApplyLogException If the stripes are not one complete media set
+     */
+    public static void verifyStripeSet(final List<Path> stripes,
+                                        final Connection conn)
+            throws SQLException, MSSQLApplyLogException
+    {
+        String mediaSetId = null;
+        int familyCount = -1;
+        Set<Integer> families = new HashSet<>();
+
+        for (Path stripe : stripes)
+        {
+            String query = RestoreQuery.from(RestoreQuery.Kind.LABELONLY, null,
+                    Collections.singletonList(stripe)).toSql();
+
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery(query))
+            {
+                if (rs.next() == false)
+                {
+                    throw new MSSQLApplyLogException(String.format(
+                            "No media label in '%s'", stripe));
+                }
+
+                String currId = rs.getString("MediaSetId");
+                int currCount = rs.getInt("FamilyCount");
+                int currFamily = rs.getInt("FamilySequenceNumber");
+
+                if (mediaSetId == null)
+                {
+                    mediaSetId = currId;
+                    familyCount = currCount;
+                }
+                else if (mediaSetId.equalsIgnoreCase(currId) == false)
+                {
+                    throw new MSSQLApplyLogException(String.format(
+                            "Stripe '%s' belongs to media set '%s', not '%s'",
+                            stripe, currId, mediaSetId));
+                }
+
+                families.add(currFamily);
+            }
+        }
+
+        if (families.size() != familyCount || stripes.size() != familyCount)
+        {
+            throw new MSSQLApplyLogException(String.format(
+                    "Media set '%s' has %d stripes, found %d", mediaSetId,
+                    familyCount, families.size()));
+        }
     }
 }
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds the fastest RESTORE data transfer options for a database.
+ *
+ * Runs RESTORE VERIFYONLY against a sample backup once for every setting
+ * in a grid of BUFFERCOUNT and MAXTRANSFERSIZE values.  VERIFYONLY reads the
+ * whole backup like a real restore but never touches the database.  The
+ * throughput of every trial is recorded and the fastest is kept in the
+ * tuning store.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreAutoTuner
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreAutoTuner.class);
+
+    private static final Integer[] BUFFER_COUNTS =
+    {
+        null, 16, 32, 64, 128
+    };
+
+    private static final Integer[] MAX_TRANSFER_SIZES =
+    {
+        null, 1024 * 1024, 2 * 1024 * 1024, 4 * 1024 * 1024
+    };
+
+    private final RestoreTarget target;
+    private final String name;
+    private final RestoreTuningStore store;
+    private final Integer blockSize;
+
+    private RestoreAutoTuner(final RestoreTarget target,
+                             final String name,
+                             final RestoreTuningStore store,
+                             final Integer blockSize)
+    {
+        this.target = target;
+        this.name = name;
+        this.store = store;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param target The database being tuned, and its connection
+     * @param name The target's key in the store.  Targets on different
+     *             servers may restore the same database name.
+     * @param store Where the results are kept
+     * @param blockSize BLOCKSIZE used in every trial, or null.  It depends on
+     *                  the backup media rather than throughput.
+     * @return The tuner
+     */
+    public static RestoreAutoTuner from(final RestoreTarget target,
+                                        final String name,
+                                        final RestoreTuningStore store,
+                                        final Integer blockSize)
+    {
+        RestoreAutoTuner res = new RestoreAutoTuner(target, name, store, blockSize);
+
+        return res;
+    }
+
+    /**
+     * @return Every setting tried, in order
+     */
+    public List<RestoreTuning> grid()
+    {
+        List<RestoreTuning> res = new ArrayList<>();
+
+        for (Integer bc : BUFFER_COUNTS)
+        {
+            for (Integer mts : MAX_TRANSFER_SIZES)
+            {
+                res.add(RestoreTuning.from(bc, mts, blockSize));
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Run every trial against the sample backups and keep the best.
+     *
+     * @param samples The backup files read by each trial.  A striped backup is one sample.
+     * @return The fastest tuning, or null if every trial failed
+     * @throws SQLException If the server cannot be reached
+     * @throws IOException If the results cannot be saved
+     */
+    public RestoreTuning tune(final List<Path> samples) throws SQLException, IOException
+    {
+        String sqlDb = target.getSqlDb();
+
+        store.clear(name);
+
+        RestoreTuning best = null;
+        long bestBps = 0;
+
+        for (RestoreTuning tuning : grid())
+        {
+            RestoreQuery query = RestoreQuery.from(RestoreQuery.Kind.VERIFYONLY, sqlDb, samples);
+
+            tuning.applyTo(query);
+
+            long bytes = query.getBackupBytes();
+
+            StopWatch sw = new StopWatch();
+
+            sw.start();
+
+            try
+            {
+                MSSQLHelper.executeRestore(query, target.getConnection(), null, null);
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.warn(String.format("Tuning trial failed for '%s'.  Skipping.", tuning), ex);
+
+                // Retry the rest on a fresh connection in case this one broke
+                target.disconnect();
+
+                continue;
+            }
+
+            sw.stop();
+
+            long bps = sw.getTime() > 0 ? bytes * 1000 / sw.getTime() : bytes;
+
+            LOGGER.info(String.format("Tuning trial '%s' : %.1f MB/sec",
+                    tuning, bps / (1024.0 * 1024.0)));
+
+            store.record(name, tuning, bps);
+
+            if (bps > bestBps)
+            {
+                best = tuning;
+                bestBps = bps;
+            }
+        }
+
+        store.save();
+
+        if (best != null)
+        {
+            LOGGER.info(String.format("Best restore tuning for '%s' is '%s' at %.1f MB/sec",
+                    name, best, bestBps / (1024.0 * 1024.0)));
+        }
+
+        return best;
+    }
+
+    public RestoreTuning tune(final Path sample) throws SQLException, IOException
+    {
+        return tune(Collections.singletonList(sample));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.sql.SQLException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.StringMapMessage;
+
+/**
+ * One structured record per RESTORE attempt.
+ *
+ * Records go to their own logger, which the bundled log4j2.xml writes as
+ * JSON lines through an asynchronous appender.  Nothing is built unless the
+ * logger is enabled.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreEventLog
+{
+    public static final String LOGGER_NAME = "com.sludev.mssqlapplylog.RestoreEvents";
+
+    private static final Logger EVENTS = LogManager.getLogger(LOGGER_NAME);
+
+    public static final String RESTORED = "restored";
+    public static final String SKIPPED = "skipped";
+    public static final String RETRY = "retry";
+    public static final String FAILED = "failed";
+    public static final String CHAIN_BROKEN = "chainBroken";
+
+    private RestoreEventLog()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return EVENTS.isInfoEnabled();
+    }
+
+    /**
+     * @param query The RESTORE
+     * @param outcome What happened, e.g. RESTORED
+     * @param attempt 0 for the first try, then the retry number
+     * @param millis How long the attempt took
+     * @param failure The error, or null
+     */
+    public static void record(final RestoreQuery query,
+                              final String outcome,
+                              final int attempt,
+                              final long millis,
+                              final SQLException failure)
+    {
+        if (EVENTS.isInfoEnabled() == false)
+        {
+            return;
+        }
+
+        StringMapMessage msg = new StringMapMessage(10)
+                .with("db", query.getSqlDb())
+                .with("kind", query.getKind().name())
+                .with("backup", query.getDevices().get(0).getFileName().toString())
+                .with("devices", query.getDevices().size())
+                .with("bytes", query.getBackupBytes())
+                .with("millis", millis)
+                .with("attempt", attempt)
+                .with("outcome", outcome);
+
+        if (failure != null)
+        {
+            msg.with("errorCode", failure.getErrorCode());
+            msg.with("error", failure.getMessage());
+        }
+
+        EVENTS.info(msg);
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+
+/**
+ * What a restore run would do, worked out without connecting to SQL Server.
+ *
+ * Holds the full backup, the log backups in restore order, their sizes, any
+ * suspicious gaps between logs, and a duration estimate from the throughput
+ * history.  Gaps are only a heuristic.  Without the server the log sequence
+ * numbers can't be checked, so a gap is a pair of logs much further apart
+ * than usual.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestorePlan
+{
+    /**
+     * Logs further apart than this many times the median interval are reported as a gap.
+     */
+    public static final int GAP_FACTOR = 3;
+
+    private static final int MAX_GAPS_DESCRIBED = 20;
+
+    private final String sqlDb;
+    private final List<Path> fullBackup;
+    private final long fullBackupBytes;
+    private final Path diffBackup;
+    private final long diffBackupBytes;
+    private final LogIndex index;
+    private final int firstLog;
+    private final int endLog;
+    private final long logBytes;
+    private final int[] gaps;
+    private final Instant stopAt;
+    private final boolean stopAtReached;
+    private final long fullEstimateMillis;
+    private final long diffEstimateMillis;
+    private final long logEstimateMillis;
+
+    private RestorePlan(final String sqlDb,
+                        final List<Path> fullBackup,
+                        final long fullBackupBytes,
+                        final Path diffBackup,
+                        final long diffBackupBytes,
+                        final LogIndex index,
+                        final int firstLog,
+                        final int endLog,
+                        final long logBytes,
+                        final int[] gaps,
+                        final Instant stopAt,
+                        final boolean stopAtReached,
+                        final long fullEstimateMillis,
+                        final long diffEstimateMillis,
+                        final long logEstimateMillis)
+    {
+        this.sqlDb = sqlDb;
+        this.fullBackup = fullBackup;
+        this.fullBackupBytes = fullBackupBytes;
+        this.diffBackup = diffBackup;
+        this.diffBackupBytes = diffBackupBytes;
+        this.index = index;
+        this.firstLog = firstLog;
+        this.endLog = endLog;
+        this.logBytes = logBytes;
+        this.gaps = gaps;
+        this.stopAt = stopAt;
+        this.stopAtReached = stopAtReached;
+        this.fullEstimateMillis = fullEstimateMillis;
+        this.diffEstimateMillis = diffEstimateMillis;
+        this.logEstimateMillis = logEstimateMillis;
+    }
+
+    public static RestorePlan from(final String sqlDb,
+                                   final BackupStripeSet fullBackupSet,
+                                   final LogIndex index,
+                                   final Instant laterThan,
+                                   final Instant stopAt,
+                                   final ThroughputHistory history)
+    {
+        return from(sqlDb, fullBackupSet, null, index, laterThan, stopAt, history);
+    }
+
+    /**
+     * @param sqlDb The database
+     * @param fullBackupSet The full backup to restore first, or null for logs only
+     * @param diffBackup The differential backup restored next, or null for none
+     * @param index The log backups available
+     * @param laterThan Only logs at or after this time.  Null for all.
+     * @param stopAt Point-in-time to stop at, or null to restore every log
+     * @param history Past restore durations, or null for no estimate
+     * @return The plan
+     */
+    public static RestorePlan from(final String sqlDb,
+                                   final BackupStripeSet fullBackupSet,
+                                   final Path diffBackup,
+                                   final LogIndex index,
+                                   final Instant laterThan,
+                                   final Instant stopAt,
+                                   final ThroughputHistory history)
+    {
+        List<Path> fullBackup = Collections.emptyList();
+        long fullBackupBytes = 0;
+        if (fullBackupSet != null)
+        {
+            fullBackup = fullBackupSet.getStripes();
+            fullBackupBytes = RestoreQuery.from(RestoreQuery.Kind.DATABASE, sqlDb, fullBackup)
+                    .getBackupBytes();
+        }
+
+        long diffBackupBytes = 0;
+        if (diffBackup != null)
+        {
+            diffBackupBytes = RestoreQuery.forDifferential(sqlDb, diffBackup).getBackupBytes();
+        }
+
+        int firstLog = index.ceiling(laterThan);
+        int endLog = index.size();
+        boolean stopAtReached = true;
+
+        if (stopAt != null)
+        {
+            int last = index.ceiling(stopAt);
+
+            stopAtReached = last < index.size();
+            endLog = Math.min(last + 1, index.size());
+            firstLog = Math.min(firstLog, endLog);
+        }
+
+        long logBytes = 0;
+        for (int i = firstLog; i < endLog; i++)
+        {
+            logBytes += index.getSize(i);
+        }
+
+        long fullEstimateMillis = -1;
+        long diffEstimateMillis = -1;
+        long logEstimateMillis = -1;
+        if (history != null)
+        {
+            fullEstimateMillis = fullBackupSet == null ? 0
+                    : history.estimateMillis(RestoreQuery.Kind.DATABASE, 1, fullBackupBytes);
+            diffEstimateMillis = diffBackup == null ? 0
+                    : history.estimateMillis(RestoreQuery.Kind.DIFFERENTIAL, 1, diffBackupBytes);
+            logEstimateMillis = history.estimateMillis(RestoreQuery.Kind.LOG,
+                    endLog - firstLog, logBytes);
+        }
+
+        RestorePlan res = new RestorePlan(sqlDb, fullBackup, fullBackupBytes,
+                diffBackup, diffBackupBytes, index,
+                firstLog, endLog, logBytes, findGaps(index, firstLog, endLog),
+                stopAt, stopAtReached, fullEstimateMillis, diffEstimateMillis,
+                logEstimateMillis);
+
+        return res;
+    }
+
+    /**
+     * @return Positions of logs that follow the log before them unusually late
+     */
+    private static int[] findGaps(final LogIndex index, final int from, final int to)
+    {
+        int count = to - from - 1;
+        if (count < 2)
+        {
+            return new int[0];
+        }
+
+        long[] intervals = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            intervals[i] = index.getEpochMillis(from + i + 1) - index.getEpochMillis(from + i);
+        }
+
+        long[] sorted = intervals.clone();
+        Arrays.sort(sorted);
+
+        long limit = sorted[count / 2] * GAP_FACTOR;
+        if (limit <= 0)
+        {
+            return new int[0];
+        }
+
+        int[] res = new int[count];
+        int found = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (intervals[i] > limit)
+            {
+                res[found++] = from + i + 1;
+            }
+        }
+
+        return Arrays.copyOf(res, found);
+    }
+
+    public List<Path> getFullBackup()
+    {
+        return fullBackup;
+    }
+
+    public long getFullBackupBytes()
+    {
+        return fullBackupBytes;
+    }
+
+    /**
+     * @return The differential backup restored after the full backup, or null
+     */
+    public Path getDiffBackup()
+    {
+        return diffBackup;
+    }
+
+    /**
+     * @return The log backups to restore, in order
+     */
+    public List<Path> getLogs()
+    {
+        return index.range(firstLog, endLog);
+    }
+
+    public long getLogBytes()
+    {
+        return logBytes;
+    }
+
+    /**
+     * @return The logs that follow the log before them unusually late
+     */
+    public List<Path> getGaps()
+    {
+        List<Path> res = new ArrayList<>(gaps.length);
+
+        for (int g : gaps)
+        {
+            res.add(index.getPath(g));
+        }
+
+        return res;
+    }
+
+    /**
+     * @return False if a stop time was given that no log backup reaches yet
+     */
+    public boolean isStopAtReached()
+    {
+        return stopAtReached;
+    }
+
+    /**
+     * @return Estimated milliseconds for the whole plan, or -1 without enough history
+     */
+    public long getEstimateMillis()
+    {
+        if (fullEstimateMillis < 0 || diffEstimateMillis < 0 || logEstimateMillis < 0)
+        {
+            return -1;
+        }
+
+        return fullEstimateMillis + diffEstimateMillis + logEstimateMillis;
+    }
+
+    /**
+     * @return A report of the plan for the log
+     */
+    public String describe()
+    {
+        StringBuilder res = new StringBuilder();
+
+        res.append(String.format("Restore plan for '%s'\n", sqlDb));
+
+        if (fullBackup.isEmpty())
+        {
+            res.append("  Full backup : none\n");
+        }
+        else
+        {
+            res.append(String.format("  Full backup : %s (%s)\n",
+                    fullBackup.size() == 1 ? fullBackup.get(0) : fullBackup,
+                    megabytes(fullBackupBytes)));
+        }
+
+        if (diffBackup != null)
+        {
+            res.append(String.format("  Differential: %s (%s)\n", diffBackup,
+                    megabytes(diffBackupBytes)));
+        }
+
+        int count = endLog - firstLog;
+        if (count == 0)
+        {
+            res.append("  Log backups : none\n");
+        }
+        else
+        {
+            res.append(String.format("  Log backups : %d of %d, '%s' to '%s' (%s)\n",
+                    count, index.size(), index.getFileName(firstLog),
+                    index.getFileName(endLog - 1), megabytes(logBytes)));
+        }
+
+        if (stopAt != null)
+        {
+            res.append(String.format("  Stop at     : %s%s\n", stopAt,
+                    stopAtReached ? "" : ", NOT REACHED by any log backup yet"));
+        }
+
+        res.append(String.format("  Gaps        : %d\n", gaps.length));
+        for (int i = 0; i < gaps.length && i < MAX_GAPS_DESCRIBED; i++)
+        {
+            int g = gaps[i];
+
+            res.append(String.format("    '%s' is %s after '%s'\n", index.getFileName(g),
+                    DurationFormatUtils.formatDurationWords(
+                            index.getEpochMillis(g) - index.getEpochMillis(g - 1), true, true),
+                    index.getFileName(g - 1)));
+        }
+
+        if (gaps.length > MAX_GAPS_DESCRIBED)
+        {
+            res.append(String.format("    ...and %d more\n", gaps.length - MAX_GAPS_DESCRIBED));
+        }
+
+        long estimate = getEstimateMillis();
+        if (estimate < 0)
+        {
+            res.append("  Estimate    : unknown, not enough throughput history\n");
+        }
+        else
+        {
+            res.append(String.format("  Estimate    : %s (full %s, differential %s, logs %s)\n",
+                    duration(estimate), duration(fullEstimateMillis),
+                    duration(diffEstimateMillis), duration(logEstimateMillis)));
+        }
+
+        return res.toString();
+    }
+
+    private static String megabytes(final long bytes)
+    {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String duration(final long millis)
+    {
+        return DurationFormatUtils.formatDuration(millis, "H:mm:ss");
+    }
+}
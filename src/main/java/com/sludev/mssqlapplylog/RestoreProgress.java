@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Progress of a running RESTORE, read from its "WITH STATS" messages.
+ *
+ * SQL Server sends "N percent processed." informational messages while a
+ * RESTORE runs.  The driver surfaces these as warnings on the statement.
+ * They are turned into a percentage, a throughput and an estimated time
+ * remaining.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreProgress
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreProgress.class);
+
+    // Message 3211, "10 percent processed."
+    private static final int PERCENT_MESSAGE = 3211;
+    private static final Pattern PERCENT_PATTERN
+            = Pattern.compile("\\s*(\\d{1,3}) percent processed.*", Pattern.DOTALL);
+
+    private final String desc;
+    private final long totalBytes;
+    private final long startMillis;
+
+    private int percent = 0;
+    private long updatedMillis;
+
+    private RestoreProgress(final String desc, final long totalBytes, final long startMillis)
+    {
+        this.desc = desc;
+        this.totalBytes = totalBytes;
+        this.startMillis = startMillis;
+        this.updatedMillis = startMillis;
+    }
+
+    public static RestoreProgress from(final String desc, final long totalBytes)
+    {
+        RestoreProgress res = new RestoreProgress(desc, totalBytes, System.currentTimeMillis());
+
+        return res;
+    }
+
+    public String getDescription()
+    {
+        return desc;
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public synchronized int getPercent()
+    {
+        return percent;
+    }
+
+    /**
+     * @return Bytes restored per second so far, based on the last reported percentage
+     */
+    public synchronized long getBytesPerSecond()
+    {
+        long elapsed = updatedMillis - startMillis;
+        if (elapsed <= 0 || percent <= 0)
+        {
+            return 0;
+        }
+
+        return (totalBytes * percent / 100) * 1000 / elapsed;
+    }
+
+    /**
+     * @return Estimated seconds until the restore finishes, or -1 if unknown
+     */
+    public synchronized long getEtaSeconds()
+    {
+        long elapsed = updatedMillis - startMillis;
+        if (percent <= 0 || elapsed <= 0)
+        {
+            return -1;
+        }
+
+        long res = elapsed * (100 - percent) / percent;
+        res -= System.currentTimeMillis() - updatedMillis;
+
+        return Math.max(0, res / 1000);
+    }
+
+    /**
+     * Scan the statement's warnings for progress messages.
+     *
+     * Safe to call from another thread while the statement is executing.
+     * The warnings are only read, never cleared.
+     *
+     * @param stmt The executing RESTORE statement
+     */
+    public void poll(final Statement stmt)
+    {
+        SQLWarning warn;
+        try
+        {
+            warn = stmt.getWarnings();
+        }
+        catch (SQLException ex)
+        {
+            LOGGER.debug(String.format("Error reading progress of '%s'", desc), ex);
+
+            return;
+        }
+
+        int latest = -1;
+        for (; warn != null; warn = warn.getNextWarning())
+        {
+            int curr = parsePercent(warn);
+            if (curr > latest)
+            {
+                latest = curr;
+            }
+        }
+
+        if (latest >= 0)
+        {
+            update(latest);
+        }
+    }
+
+    /**
+     * Record a new percentage, ignoring any that go backwards.
+     *
+     * @param newPercent The percent processed
+     */
+    public void update(final int newPercent)
+    {
+        synchronized (this)
+        {
+            if (newPercent <= percent)
+            {
+                return;
+            }
+
+            percent = Math.min(100, newPercent);
+            updatedMillis = System.currentTimeMillis();
+        }
+
+        if (LOGGER.isInfoEnabled())
+        {
+            LOGGER.info(String.format("'%s' %d percent, %.1f MB/sec, %d seconds remaining",
+                    desc, getPercent(), getBytesPerSecond() / (1024.0 * 1024.0), getEtaSeconds()));
+        }
+    }
+
+    /**
+     * @param warn A message from the server
+     * @return The percent processed, or -1 if this is not a progress message
+     */
+    public static int parsePercent(final SQLWarning warn)
+    {
+        String msg = warn.getMessage();
+        if (msg == null)
+        {
+            return -1;
+        }
+
+        if (warn.getErrorCode() != PERCENT_MESSAGE && msg.contains("percent") == false)
+        {
+            return -1;
+        }
+
+        Matcher m = PERCENT_PATTERN.matcher(msg);
+        if (m.matches() == false)
+        {
+            return -1;
+        }
+
+        return Integer.parseInt(m.group(1));
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A RESTORE statement being assembled.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreQuery
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreQuery.class);
+
+    public enum Kind
+    {
+        DATABASE,
+        DIFFERENTIAL,
+        LOG,
+        VERIFYONLY,
+        LABELONLY,
+        HEADERONLY;
+
+        /**
+         * @return True if this kind restores into a database, rather than reading the backup
+         */
+        public boolean isRestore()
+        {
+            return this == DATABASE || this == DIFFERENTIAL || this == LOG;
+        }
+
+        /**
+         * @return The RESTORE keyword.  A differential backup is restored
+         *         with RESTORE DATABASE, but is timed apart from full restores.
+         */
+        public String getKeyword()
+        {
+            return this == DIFFERENTIAL ? DATABASE.name() : name();
+        }
+    }
+
+    private static final DateTimeFormatter STOP_AT_FORMAT
+            = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    private final Kind kind;
+    private final String sqlDb;
+    private final List<Path> devices;
+    private final List<String> options;
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public String getSqlDb()
+    {
+        return sqlDb;
+    }
+
+    public List<Path> getDevices()
+    {
+        return devices;
+    }
+
+    public List<String> getOptions()
+    {
+        return Collections.unmodifiableList(options);
+    }
+
+    private RestoreQuery(final Kind kind,
+                         final String sqlDb,
+                         final List<Path> devices)
+    {
+        this.kind = kind;
+        this.sqlDb = sqlDb;
+        this.devices = devices;
+        this.options = new ArrayList<>();
+    }
+
+    public static RestoreQuery from(final Kind kind,
+                                    final String sqlDb,
+                                    final List<Path> devices)
+    {
+        RestoreQuery res = new RestoreQuery(kind, sqlDb,
+                Collections.unmodifiableList(new ArrayList<>(devices)));
+
+        return res;
+    }
+
+    /**
+     * RESTORE LOG ... WITH NORECOVERY
+     */
+    public static RestoreQuery forLog(final String sqlDb, final Path logPath)
+    {
+        RestoreQuery res = from(Kind.LOG, sqlDb, Collections.singletonList(logPath));
+
+        res.addOption("NORECOVERY");
+
+        return res;
+    }
+
+    public static RestoreQuery forDatabase(final String sqlDb, final Path fullBackupPath)
+    {
+        return forDatabase(sqlDb, Collections.singletonList(fullBackupPath));
+    }
+
+    /**
+     * RESTORE DATABASE ... WITH NORECOVERY, REPLACE
+     * 
+     * @param sqlDb The database
+     * @param stripes Every file of the full backup, in stripe order
+     * @return The query
+     */
+    public static RestoreQuery forDatabase(final String sqlDb, final List<Path> stripes)
+    {
+        RestoreQuery res = from(Kind.DATABASE, sqlDb, stripes);
+
+        res.addOption("NORECOVERY");
+        res.addOption("REPLACE");
+
+        return res;
+    }
+
+    /**
+     * RESTORE DATABASE ... WITH NORECOVERY, for a differential backup over
+     * its full backup
+     */
+    public static RestoreQuery forDifferential(final String sqlDb, final Path diffBackupPath)
+    {
+        RestoreQuery res = from(Kind.DIFFERENTIAL, sqlDb, Collections.singletonList(diffBackupPath));
+
+        res.addOption("NORECOVERY");
+
+        return res;
+    }
+
+    public RestoreQuery addOption(final String option)
+    {
+        options.add(option);
+
+        return this;
+    }
+
+    /**
+     * Leave the database readable after the restore, instead of NORECOVERY.
+     *
+     * @param undoFile The undo file on the SQL Server host, or null to keep NORECOVERY
+     * @return This query
+     */
+    public RestoreQuery setStandby(final String undoFile)
+    {
+        if (StringUtils.isNoneBlank(undoFile) && options.remove("NORECOVERY"))
+        {
+            options.add(0, String.format("STANDBY = '%s'", undoFile.replace("'", "''")));
+        }
+
+        return this;
+    }
+
+    /**
+     * Stop the restore at a point in time and recover the database.
+     * 
+     * SQL Server reads the time in its own time zone, which is taken to be
+     * this machine's.
+     *
+     * @param stopAt The point in time, or null to restore the whole log
+     * @return This query
+     */
+    public RestoreQuery setStopAt(final Instant stopAt)
+    {
+        return setStopAt(stopAt, ZoneId.systemDefault());
+    }
+
+    /**
+     * Stop the restore at a point in time and recover the database.
+     *
+     * @param stopAt The point in time, or null to restore the whole log
+     * @param serverZone SQL Server's time zone, which it reads STOPAT in
+     * @return This query
+     */
+    public RestoreQuery setStopAt(final Instant stopAt, final ZoneId serverZone)
+    {
+        if (stopAt == null)
+        {
+            return this;
+        }
+
+        // Recovery replaces NORECOVERY or STANDBY
+        options.removeIf(o -> o.equals("NORECOVERY") || o.startsWith("STANDBY"));
+
+        options.add(0, "RECOVERY");
+        options.add(1, String.format("STOPAT = '%s'",
+                STOP_AT_FORMAT.withZone(serverZone).format(stopAt)));
+
+        return this;
+    }
+
+    /**
+     * Have SQL Server report progress every few percent.
+     *
+     * @param percent The reporting interval, 0 or less for none
+     * @return This query
+     */
+    public RestoreQuery setStats(final int percent)
+    {
+        if (percent > 0)
+        {
+            addOption(String.format("STATS = %d", percent));
+        }
+
+        return this;
+    }
+
+    /**
+     * @return The total size of all backup devices, skipping any that cannot be read
+     */
+    public long getBackupBytes()
+    {
+        long res = 0;
+
+        for (Path p : devices)
+        {
+            try
+            {
+                res += Files.size(p);
+            }
+            catch (IOException ex)
+            {
+                LOGGER.debug(String.format("Error reading size of '%s'", p), ex);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * @return A short description for logs and metrics
+     */
+    public String getDescription()
+    {
+        return String.format("%s %s %s", kind, StringUtils.defaultString(sqlDb),
+                devices.size() == 1 ? devices.get(0) : devices);
+    }
+
+    public String toSql()
+    {
+        StringBuilder res = new StringBuilder("RESTORE ");
+
+        res.append(kind.getKeyword());
+
+        if (kind.isRestore())
+        {
+            res.append(' ').append(sqlDb);
+        }
+
+        res.append(" FROM ");
+
+        for (int i = 0; i < devices.size(); i++)
+        {
+            if (i > 0)
+            {
+                res.append(", ");
+            }
+
+            res.append("DISK='")
+                    .append(devices.get(i).toAbsolutePath().toString().replace("'", "''"))
+                    .append('\'');
+        }
+
+        if (options.isEmpty() == false)
+        {
+            res.append(" WITH ").append(StringUtils.join(options, ", "));
+        }
+
+        return res.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toSql();
+    }
+}
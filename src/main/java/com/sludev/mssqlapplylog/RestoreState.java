@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.math.BigDecimal;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * How far the target database has been restored, as SQL Server sees it.
+ *
+ * Combines the latest msdb restore history entry for the database with the
+ * LSN its data file needs next.  When the two agree, the backup file named
+ * in the history is the last one applied.  The full backup the restore
+ * started from is kept too, to tell whether reseeding from it again would
+ * change anything.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreState
+{
+    private final String sqlDb;
+    private final String restoreType;
+    private final String deviceName;
+    private final BigDecimal lastLsn;
+    private final BigDecimal redoStartLsn;
+    private final String baseBackupSetId;
+    private final BigDecimal baseCheckpointLsn;
+
+    public String getSqlDb()
+    {
+        return sqlDb;
+    }
+
+    /**
+     * @return restorehistory.restore_type of the latest restore, e.g. "D" or "L"
+     */
+    public String getRestoreType()
+    {
+        return restoreType;
+    }
+
+    /**
+     * @return The backup file of the latest restore, as SQL Server named it
+     */
+    public String getDeviceName()
+    {
+        return deviceName;
+    }
+
+    public BigDecimal getLastLsn()
+    {
+        return lastLsn;
+    }
+
+    /**
+     * @return The LSN the next log restore starts at, or null if the database
+     *         is not waiting for log restores
+     */
+    public BigDecimal getRedoStartLsn()
+    {
+        return redoStartLsn;
+    }
+
+    /**
+     * @return backup_set_uuid of the latest full backup restored, or null
+     */
+    public String getBaseBackupSetId()
+    {
+        return baseBackupSetId;
+    }
+
+    public BigDecimal getBaseCheckpointLsn()
+    {
+        return baseCheckpointLsn;
+    }
+
+    private RestoreState(final String sqlDb,
+                         final String restoreType,
+                         final String deviceName,
+                         final BigDecimal lastLsn,
+                         final BigDecimal redoStartLsn,
+                         final String baseBackupSetId,
+                         final BigDecimal baseCheckpointLsn)
+    {
+        this.sqlDb = sqlDb;
+        this.restoreType = restoreType;
+        this.deviceName = deviceName;
+        this.lastLsn = lastLsn;
+        this.redoStartLsn = redoStartLsn;
+        this.baseBackupSetId = baseBackupSetId;
+        this.baseCheckpointLsn = baseCheckpointLsn;
+    }
+
+    public static RestoreState from(final String sqlDb,
+                                    final String restoreType,
+                                    final String deviceName,
+                                    final BigDecimal lastLsn,
+                                    final BigDecimal redoStartLsn)
+    {
+        return from(sqlDb, restoreType, deviceName, lastLsn, redoStartLsn, null, null);
+    }
+
+    public static RestoreState from(final String sqlDb,
+                                    final String restoreType,
+                                    final String deviceName,
+                                    final BigDecimal lastLsn,
+                                    final BigDecimal redoStartLsn,
+                                    final String baseBackupSetId,
+                                    final BigDecimal baseCheckpointLsn)
+    {
+        RestoreState res = new RestoreState(sqlDb, restoreType, deviceName,
+                lastLsn, redoStartLsn, baseBackupSetId, baseCheckpointLsn);
+
+        return res;
+    }
+
+    /**
+     * Restoring a full backup again is redundant if the database is still
+     * restoring, started from that very backup, and has not moved back
+     * before the backup's checkpoint.
+     *
+     * @param full The full backup's header
+     * @return True if the database already holds everything the backup does
+     */
+    public boolean isRestoringFrom(final BackupHeader full)
+    {
+        if (full == null || redoStartLsn == null
+                || StringUtils.isBlank(baseBackupSetId)
+                || baseBackupSetId.equalsIgnoreCase(full.getBackupSetId()) == false)
+        {
+            return false;
+        }
+
+        BigDecimal checkpointLsn = full.getCheckpointLsn();
+        if (checkpointLsn == null || baseCheckpointLsn == null)
+        {
+            return false;
+        }
+
+        return checkpointLsn.compareTo(baseCheckpointLsn) == 0
+                && redoStartLsn.compareTo(checkpointLsn) >= 0;
+    }
+
+    /**
+     * @return True if the database is still restoring and stopped exactly at
+     *         the end of the latest log restore in the history
+     */
+    public boolean isLogChainCurrent()
+    {
+        return "L".equalsIgnoreCase(restoreType)
+                && lastLsn != null
+                && redoStartLsn != null
+                && lastLsn.compareTo(redoStartLsn) == 0;
+    }
+
+    /**
+     * @return File name of the last log backup applied, or null if that isn't
+     *         known for certain
+     */
+    public String getLastLogFileName()
+    {
+        if (isLogChainCurrent() == false || StringUtils.isBlank(deviceName))
+        {
+            return null;
+        }
+
+        // The server's path, which may use either separator
+        int sep = Math.max(deviceName.lastIndexOf('/'), deviceName.lastIndexOf('\\'));
+
+        return deviceName.substring(sep + 1);
+    }
+
+    /**
+     * A differential backup can be restored if it is based on the full backup
+     * the database was restored from, and takes it further than it is now.
+     *
+     * @param diff The differential backup's header
+     * @return True if the differential backup can be restored next
+     */
+    public boolean canRestoreDifferential(final BackupHeader diff)
+    {
+        if (diff == null || diff.getBackupType() != 5 || redoStartLsn == null
+                || diff.getLastLsn() == null
+                || StringUtils.isBlank(baseBackupSetId)
+                || baseBackupSetId.equalsIgnoreCase(diff.getDifferentialBaseId()) == false)
+        {
+            return false;
+        }
+
+        return redoStartLsn.compareTo(diff.getLastLsn()) < 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s restore '%s' ending at LSN %s, next LSN %s",
+                restoreType, deviceName, lastLsn, redoStartLsn);
+    }
+}
@@ -0,0 +1,561 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A SQL Server database that backups are restored to.
+ *
+ * Owns the connection to the server.  A restore that fails is handled as the
+ * failure policy says.  Transient failures are retried with backoff on a
+ * fresh connection, connection failures go through the circuit breaker, and
+ * chain failures end in a RestoreChainException.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreTarget implements AutoCloseable
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreTarget.class);
+
+    public static final int DEFAULT_STATS_PERCENT = 10;
+
+    private final String sqlURL;
+    private final Properties props;
+    private final String sqlDb;
+    private final String sqlProcessUser;
+    private final RestoreTimeouts timeouts;
+    private final int statsPercent;
+    private final FailurePolicy failurePolicy;
+    private final CircuitBreaker breaker;
+    private final RestoreWatchdog watchdog;
+    private final ApplyLogMetrics metrics;
+    private final Set<Path> permitted = ConcurrentHashMap.newKeySet();
+
+    private Connection conn;
+    private volatile RestoreTuning tuning = RestoreTuning.from();
+    private volatile StandbyMode standby;
+    private volatile ThroughputHistory history;
+    private volatile RestoreThrottle throttle;
+    private volatile LeaseStore.Lease lease;
+    private volatile ZoneId serverZone = ZoneId.systemDefault();
+
+    public String getSqlURL()
+    {
+        return sqlURL;
+    }
+
+    public String getSqlDb()
+    {
+        return sqlDb;
+    }
+
+    public String getSqlProcessUser()
+    {
+        return sqlProcessUser;
+    }
+
+    public RestoreTuning getTuning()
+    {
+        return tuning;
+    }
+
+    /**
+     * @param tuning Data transfer options added to every RESTORE from now on
+     */
+    public void setTuning(final RestoreTuning tuning)
+    {
+        this.tuning = tuning == null ? RestoreTuning.from() : tuning;
+    }
+
+    public StandbyMode getStandby()
+    {
+        return standby;
+    }
+
+    /**
+     * @param standby Restore WITH STANDBY from now on, or null for NORECOVERY
+     */
+    public void setStandby(final StandbyMode standby)
+    {
+        this.standby = standby;
+    }
+
+    public boolean isStandby()
+    {
+        return standby != null;
+    }
+
+    public ThroughputHistory getHistory()
+    {
+        return history;
+    }
+
+    public RestoreThrottle getThrottle()
+    {
+        return throttle;
+    }
+
+    /**
+     * @param throttle Holds back log restores to its limits, or null for none
+     */
+    public void setThrottle(final RestoreThrottle throttle)
+    {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param serverZone SQL Server's time zone, or null for this machine's
+     */
+    public void setServerZone(final ZoneId serverZone)
+    {
+        this.serverZone = serverZone == null ? ZoneId.systemDefault() : serverZone;
+    }
+
+    /**
+     * @param lease Only restore while this is the current lease on the database, or null
+     */
+    public void setLease(final LeaseStore.Lease lease)
+    {
+        this.lease = lease;
+    }
+
+    /**
+     * @param history Where every successful restore is recorded, or null
+     */
+    public void setHistory(final ThroughputHistory history)
+    {
+        this.history = history;
+    }
+
+    public FailurePolicy getFailurePolicy()
+    {
+        return failurePolicy;
+    }
+
+    public CircuitBreaker getBreaker()
+    {
+        return breaker;
+    }
+
+    public ApplyLogMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    private RestoreTarget(final String sqlURL,
+                          final Properties props,
+                          final String sqlDb,
+                          final String sqlProcessUser,
+                          final RestoreTimeouts timeouts,
+                          final int statsPercent,
+                          final FailurePolicy failurePolicy,
+                          final RestoreWatchdog watchdog,
+                          final ApplyLogMetrics metrics)
+    {
+        this.sqlURL = sqlURL;
+        this.props = props;
+        this.sqlDb = sqlDb;
+        this.sqlProcessUser = sqlProcessUser;
+        this.timeouts = timeouts;
+        this.statsPercent = statsPercent;
+        this.failurePolicy = failurePolicy;
+        this.breaker = failurePolicy.newCircuitBreaker(sqlDb);
+        this.watchdog = watchdog;
+        this.metrics = metrics;
+
+        if (metrics != null)
+        {
+            metrics.setBreaker(breaker);
+        }
+    }
+
+    public static RestoreTarget from(final String sqlURL,
+                                     final Properties props,
+                                     final String sqlDb,
+                                     final String sqlProcessUser,
+                                     final RestoreTimeouts timeouts,
+                                     final Integer statsPercent,
+                                     final FailurePolicy failurePolicy,
+                                     final RestoreWatchdog watchdog,
+                                     final ApplyLogMetrics metrics)
+    {
+        RestoreTarget res = new RestoreTarget(sqlURL,
+                props,
+                sqlDb,
+                sqlProcessUser,
+                timeouts,
+                statsPercent == null ? DEFAULT_STATS_PERCENT : statsPercent,
+                failurePolicy == null ? FailurePolicy.from() : failurePolicy,
+                watchdog,
+                metrics);
+
+        return res;
+    }
+
+    /**
+     * Get the open connection, connecting if necessary.
+     *
+     * @return An open connection
+     * @throws SQLException If the server cannot be reached
+     */
+    public synchronized Connection getConnection() throws SQLException
+    {
+        if (conn != null && conn.isClosed() == false)
+        {
+            return conn;
+        }
+
+        conn = MSSQLHelper.getConn(sqlURL, props);
+        if (conn == null)
+        {
+            throw new SQLException(String.format("Connection to MSSQL failed. '%s'",
+                    sqlURL), "08001");
+        }
+
+        return conn;
+    }
+
+    /**
+     * Drop the current connection.  The next restore opens a new one.
+     */
+    public synchronized void disconnect()
+    {
+        if (conn == null)
+        {
+            return;
+        }
+
+        try
+        {
+            conn.close();
+        }
+        catch (SQLException ex)
+        {
+            LOGGER.debug(String.format("Error closing connection '%s'", sqlURL), ex);
+        }
+
+        conn = null;
+    }
+
+    /**
+     * Restore a log backup.
+     *
+     * @param logPath The log backup
+     * @return True if restored, false if SQL Server says it was already restored
+     * @throws RestoreChainException If the log does not follow the restore chain
+     * @throws SQLException If the restore still failed after all retries
+     * @throws InterruptedException
+     */
+    public boolean restoreLog(final Path logPath) throws SQLException, InterruptedException
+    {
+        return restoreLog(logPath, null);
+    }
+
+    /**
+     * Restore a log backup up to a point in time, then recover the database.
+     *
+     * @param logPath The log backup
+     * @param stopAt Where to stop in the log.  Null to restore all of it and not recover.
+     * @return True if restored, false if SQL Server says it was already restored
+     * @throws RestoreChainException If the log does not follow the restore chain
+     * @throws SQLException If the restore still failed after all retries
+     * @throws InterruptedException
+     */
+    public boolean restoreLog(final Path logPath, final Instant stopAt)
+            throws SQLException, InterruptedException
+    {
+        RestoreQuery query = tuning.applyTo(RestoreQuery.forLog(sqlDb, logPath)
+                .setStandby(undoFile())
+                .setStopAt(stopAt, serverZone)
+                .setStats(statsPercent));
+
+        RestoreThrottle currThrottle = throttle;
+        if (currThrottle != null)
+        {
+            currThrottle.acquire();
+        }
+
+        try
+        {
+            // Permission set ahead of time is trusted for the first attempt only
+            return runWithRetry(query, c -> MSSQLHelper.restoreLog(logPath,
+                    permitted.remove(logPath) ? null : sqlProcessUser,
+                    query, c, timeouts, watchdog));
+        }
+        finally
+        {
+            // Charged whether or not it succeeded, the backup was read either way
+            if (currThrottle != null)
+            {
+                currThrottle.restored(query.getBackupBytes(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Note logs SQL Server was already given permission to read, so their
+     * restore doesn't set it again.
+     *
+     * @param logs The log backups
+     */
+    public void addPermitted(final Collection<Path> logs)
+    {
+        permitted.addAll(logs);
+    }
+
+    /**
+     * Restore a full backup, which may be striped across several files.
+     *
+     * @param stripes The full backup files, in stripe order
+     * @return True once restored
+     * @throws SQLException If the restore still failed after all retries
+     * @throws InterruptedException
+     */
+    public boolean restoreFull(final List<Path> stripes) throws SQLException, InterruptedException
+    {
+        RestoreQuery query = tuning.applyTo(RestoreQuery.forDatabase(sqlDb, stripes)
+                .setStandby(undoFile())
+                .setStats(statsPercent));
+
+        return runWithRetry(query, c -> MSSQLHelper.restoreFull(query,
+                c, timeouts, watchdog));
+    }
+
+    /**
+     * Restore a differential backup over the full backup it is based on.
+     *
+     * @param diffBackupPath The differential backup
+     * @return True once restored
+     * @throws SQLException If the restore still failed after all retries
+     * @throws InterruptedException
+     */
+    public boolean restoreDifferential(final Path diffBackupPath)
+            throws SQLException, InterruptedException
+    {
+        RestoreQuery query = tuning.applyTo(RestoreQuery.forDifferential(sqlDb, diffBackupPath)
+                .setStandby(undoFile())
+                .setStats(statsPercent));
+
+        LOGGER.info("\nStarting differential restore of '{}'...", diffBackupPath);
+
+        return runWithRetry(query, c -> MSSQLHelper.executeRestore(query,
+                c, timeouts, watchdog));
+    }
+
+    /**
+     * Disconnect the readers of a standby database before an apply window,
+     * if the standby mode says to.
+     *
+     * @return True if any readers were disconnected
+     */
+    public boolean kickReaders()
+    {
+        StandbyMode currStandby = standby;
+        if (currStandby == null || currStandby.isKickReaders() == false)
+        {
+            return false;
+        }
+
+        int killed;
+        try
+        {
+            killed = MSSQLHelper.killSessions(sqlDb, getConnection());
+        }
+        catch (SQLException ex)
+        {
+            // The restore waits for the readers instead
+            LOGGER.warn(String.format("Error disconnecting the readers of '%s'", sqlDb), ex);
+
+            return false;
+        }
+
+        if (killed > 0)
+        {
+            LOGGER.info("Disconnected {} readers of '{}'", killed, sqlDb);
+        }
+
+        return killed > 0;
+    }
+
+    private String undoFile()
+    {
+        StandbyMode currStandby = standby;
+
+        return currStandby == null ? null : currStandby.undoFile(sqlDb);
+    }
+
+    private boolean runWithRetry(final RestoreQuery query, final RestoreCall call)
+            throws SQLException, InterruptedException
+    {
+        Path backup = query.getDevices().get(0);
+        int attempt = 0;
+
+        while (true)
+        {
+            breaker.awaitClosed();
+
+            // Fenced, another node may have taken the database over
+            LeaseStore.Lease currLease = lease;
+            if (currLease != null && currLease.isCurrent() == false)
+            {
+                throw new LeaseLostException(String.format(
+                        "Lease %s lost, not restoring '%s'", currLease, backup));
+            }
+
+            StopWatch sw = new StopWatch();
+
+            sw.start();
+
+            if (metrics != null)
+            {
+                metrics.restoreStarted();
+            }
+
+            SQLException failure;
+            try (RestoreTracer.Span span = RestoreTracer.start("restore", backup)
+                    .arg("attempt", attempt))
+            {
+                call.run(getConnection());
+
+                sw.stop();
+
+                span.arg("outcome", RestoreEventLog.RESTORED);
+
+                breaker.recordSuccess();
+
+                if (metrics != null)
+                {
+                    metrics.restoreSucceeded(sw.getTime());
+                }
+
+                ThroughputHistory currHistory = history;
+                if (currHistory != null)
+                {
+                    currHistory.record(query.getKind(), query.getBackupBytes(), sw.getTime());
+                }
+
+                RestoreEventLog.record(query, RestoreEventLog.RESTORED, attempt, sw.getTime(), null);
+
+                return true;
+            }
+            catch (SQLException ex)
+            {
+                failure = ex;
+            }
+
+            FailureKind kind = failurePolicy.classify(failure);
+
+            if (metrics != null && kind != FailureKind.ALREADY_APPLIED)
+            {
+                metrics.restoreFailed();
+            }
+
+            switch (kind)
+            {
+                case ALREADY_APPLIED:
+                    LOGGER.info("Skipping '{}', it was already restored.", backup);
+
+                    RestoreEventLog.record(query, RestoreEventLog.SKIPPED, attempt, sw.getTime(), failure);
+
+                    breaker.recordSuccess();
+
+                    if (metrics != null)
+                    {
+                        metrics.restoreSkipped();
+                    }
+
+                    return false;
+
+                case CHAIN:
+                    if (metrics != null)
+                    {
+                        metrics.chainBroken();
+                    }
+
+                    RestoreEventLog.record(query, RestoreEventLog.CHAIN_BROKEN, attempt,
+                            sw.getTime(), failure);
+
+                    throw new RestoreChainException(String.format(
+                            "'%s' does not follow the restore chain of '%s'", backup, sqlDb),
+                            failure);
+
+                case CONNECTION:
+                    breaker.recordFailure();
+
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (attempt >= failurePolicy.getMaxRetries())
+            {
+                RestoreEventLog.record(query, RestoreEventLog.FAILED, attempt, sw.getTime(), failure);
+
+                throw failure;
+            }
+
+            RestoreEventLog.record(query, RestoreEventLog.RETRY, attempt, sw.getTime(), failure);
+
+            attempt++;
+
+            long delay = failurePolicy.backoffMillis(attempt);
+
+            LOGGER.warn("{} failure restoring '{}'.  Retry {} of {} in {} ms.",
+                    kind, backup, attempt, failurePolicy.getMaxRetries(), delay, failure);
+
+            if (metrics != null)
+            {
+                metrics.restoreRetried();
+            }
+
+            // A cancelled or broken connection is not worth reusing
+            disconnect();
+
+            Thread.sleep(delay);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        disconnect();
+    }
+
+    @FunctionalInterface
+    private interface RestoreCall
+    {
+        void run(Connection conn) throws SQLException;
+    }
+}
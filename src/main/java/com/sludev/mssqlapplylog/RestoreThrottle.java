@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds back restores to the limits of the time of day's throttle profile.
+ *
+ * A RESTORE runs at whatever speed the disks allow, so it is the start of
+ * the next restore that is held back.  Every finished restore is charged the
+ * bytes it actually read, against a bucket refilled at the profile's rate,
+ * and the next restore waits until the bucket is no longer in debt.  Restore
+ * starts in the last minute are counted against the per minute limit.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreThrottle
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreThrottle.class);
+
+    private static final long MINUTE_MILLIS = 60000;
+
+    // Longest single wait, so a change of profile is seen promptly
+    private static final long MAX_WAIT_SLICE_MILLIS = 1000;
+
+    private final String name;
+    private final ThrottleSchedule schedule;
+    private final ApplyLogMetrics metrics;
+
+    private final Deque<Long> starts = new ArrayDeque<>();
+    private final Deque<long[]> finished = new ArrayDeque<>();
+    private ThrottleSchedule.Profile profile = ThrottleSchedule.UNLIMITED;
+    private double tokens = 0;
+    private long lastRefill = -1;
+    private boolean waiting = false;
+    private long throttledMillis = 0;
+
+    private RestoreThrottle(final String name,
+                            final ThrottleSchedule schedule,
+                            final ApplyLogMetrics metrics)
+    {
+        this.name = name;
+        this.schedule = schedule;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param name The target, for logging
+     * @param schedule The limits by time of day
+     * @param metrics Reports the throttle state.  Null for none.
+     * @return The throttle
+     */
+    public static RestoreThrottle from(final String name,
+                                       final ThrottleSchedule schedule,
+                                       final ApplyLogMetrics metrics)
+    {
+        RestoreThrottle res = new RestoreThrottle(name, schedule, metrics);
+
+        if (metrics != null)
+        {
+            metrics.setThrottle(res);
+        }
+
+        return res;
+    }
+
+    /**
+     * Wait until the next restore is within the limits, then count its start.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException
+    {
+        while (true)
+        {
+            long delay;
+            synchronized (this)
+            {
+                long now = System.currentTimeMillis();
+
+                delay = delayMillis(now, LocalTime.now());
+                if (delay <= 0)
+                {
+                    waiting = false;
+                    starts.addLast(now);
+
+                    return;
+                }
+
+                if (waiting == false)
+                {
+                    LOGGER.debug("Throttling restores to '{}' for {} ms, {}", name, delay, profile);
+                }
+
+                waiting = true;
+            }
+
+            long slice = Math.min(delay, MAX_WAIT_SLICE_MILLIS);
+
+            Thread.sleep(slice);
+
+            synchronized (this)
+            {
+                throttledMillis += slice;
+            }
+        }
+    }
+
+    /**
+     * Charge a finished restore to the throttle.
+     *
+     * @param bytes Bytes the restore read
+     * @param now When it finished, in milliseconds
+     */
+    public synchronized void restored(final long bytes, final long now)
+    {
+        refill(now, profile);
+
+        if (profile.getBytesPerSecond() > 0)
+        {
+            tokens -= bytes;
+        }
+
+        finished.addLast(new long[] { now, bytes });
+    }
+
+    /**
+     * How long the next restore must wait.
+     *
+     * @param now Current time in milliseconds
+     * @param time Current time of day, which picks the profile
+     * @return Milliseconds to wait, 0 or less to start now
+     */
+    public synchronized long delayMillis(final long now, final LocalTime time)
+    {
+        ThrottleSchedule.Profile currProfile = schedule.at(time);
+        if (currProfile != profile)
+        {
+            LOGGER.info("Restore throttle for '{}' is now {}", name, currProfile);
+
+            profile = currProfile;
+            tokens = Math.min(tokens, 0);
+        }
+
+        refill(now, currProfile);
+        prune(now);
+
+        long res = 0;
+
+        long bps = currProfile.getBytesPerSecond();
+        if (bps > 0 && tokens < 0)
+        {
+            res = (long) Math.ceil(-tokens * 1000 / bps);
+        }
+
+        int perMinute = currProfile.getRestoresPerMinute();
+        if (perMinute > 0 && starts.size() >= perMinute)
+        {
+            // The oldest start to drop out of the minute frees a slot
+            long freed = starts.toArray(new Long[0])[starts.size() - perMinute] + MINUTE_MILLIS;
+
+            res = Math.max(res, freed - now);
+        }
+
+        return res;
+    }
+
+    private void refill(final long now, final ThrottleSchedule.Profile currProfile)
+    {
+        long bps = currProfile.getBytesPerSecond();
+
+        if (bps <= 0)
+        {
+            // Unlimited, no debt carries over
+            tokens = 0;
+        }
+        else if (lastRefill >= 0 && now > lastRefill)
+        {
+            // Up to a second's worth may build up while idle
+            tokens = Math.min(bps, tokens + (double) (now - lastRefill) * bps / 1000);
+        }
+
+        lastRefill = Math.max(lastRefill, now);
+    }
+
+    private void prune(final long now)
+    {
+        while (starts.isEmpty() == false && starts.peekFirst() <= now - MINUTE_MILLIS)
+        {
+            starts.removeFirst();
+        }
+
+        while (finished.isEmpty() == false && finished.peekFirst()[0] <= now - MINUTE_MILLIS)
+        {
+            finished.removeFirst();
+        }
+    }
+
+    /**
+     * @return The profile in force, e.g. "08:00-18:00 50.0 MB/s, 20/min"
+     */
+    public synchronized String getProfile()
+    {
+        return profile.toString();
+    }
+
+    /**
+     * @return True if a restore is being held back now
+     */
+    public synchronized boolean isWaiting()
+    {
+        return waiting;
+    }
+
+    /**
+     * @return Total time restores were held back
+     */
+    public synchronized long getThrottledMillis()
+    {
+        return throttledMillis;
+    }
+
+    /**
+     * @return Bytes restored per second, measured over the last minute
+     */
+    public synchronized long getMeasuredBytesPerSecond()
+    {
+        prune(System.currentTimeMillis());
+
+        long res = 0;
+        for (long[] f : finished)
+        {
+            res += f[1];
+        }
+
+        return res * 1000 / MINUTE_MILLIS;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%s%s", profile, waiting ? ", waiting" : "");
+    }
+}
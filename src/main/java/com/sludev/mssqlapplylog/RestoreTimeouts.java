@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+/**
+ * Deadlines for RESTORE statements.
+ *
+ * A restore is given a fixed base allowance plus time proportional to the
+ * size of the backup file, computed from the slowest acceptable restore rate.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreTimeouts
+{
+    public static final long DEFAULT_BASE_SECONDS = 300;
+    public static final long DEFAULT_MIN_BYTES_PER_SECOND = 1024 * 1024;
+    public static final long DEFAULT_CANCEL_GRACE_SECONDS = 60;
+
+    private final long baseSeconds;
+    private final long minBytesPerSecond;
+    private final long cancelGraceSeconds;
+
+    public long getBaseSeconds()
+    {
+        return baseSeconds;
+    }
+
+    public long getMinBytesPerSecond()
+    {
+        return minBytesPerSecond;
+    }
+
+    public long getCancelGraceSeconds()
+    {
+        return cancelGraceSeconds;
+    }
+
+    private RestoreTimeouts(final long baseSeconds,
+                            final long minBytesPerSecond,
+                            final long cancelGraceSeconds)
+    {
+        this.baseSeconds = baseSeconds;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.cancelGraceSeconds = cancelGraceSeconds;
+    }
+
+    /**
+     * @param baseSeconds Allowance given to every restore regardless of size.  Null for the default.
+     * @param minBytesPerSecond Slowest acceptable restore rate.  Zero or less disables the size allowance.
+     * @param cancelGraceSeconds Time allowed after a cancel before the connection is forcibly closed.
+     * @return The timeouts
+     */
+    public static RestoreTimeouts from(final Long baseSeconds,
+                                       final Long minBytesPerSecond,
+                                       final Long cancelGraceSeconds)
+    {
+        RestoreTimeouts res = new RestoreTimeouts(
+                baseSeconds == null ? DEFAULT_BASE_SECONDS : baseSeconds,
+                minBytesPerSecond == null ? DEFAULT_MIN_BYTES_PER_SECOND : minBytesPerSecond,
+                cancelGraceSeconds == null ? DEFAULT_CANCEL_GRACE_SECONDS : cancelGraceSeconds);
+
+        return res;
+    }
+
+    public static RestoreTimeouts from()
+    {
+        return from(null, null, null);
+    }
+
+    /**
+     * Compute the deadline for restoring a backup of the given size.
+     *
+     * @param bytes Size of the backup being restored
+     * @return The timeout in seconds, or 0 if deadlines are disabled
+     */
+    public int timeoutSeconds(final long bytes)
+    {
+        if (baseSeconds <= 0)
+        {
+            return 0;
+        }
+
+        long res = baseSeconds;
+
+        if (minBytesPerSecond > 0 && bytes > 0)
+        {
+            res += (bytes + minBytesPerSecond - 1) / minBytesPerSecond;
+        }
+
+        return (int) Math.min(res, Integer.MAX_VALUE);
+    }
+}
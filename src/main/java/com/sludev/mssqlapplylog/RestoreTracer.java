@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Timed spans for the phases of every restore.
+ *
+ * Spans are written in the Chrome trace event format, which chrome://tracing
+ * and ui.perfetto.dev load directly.  Each span is a pair of async events
+ * keyed by the backup file, so a file's journey from the watch event to
+ * its RESTORE shows on one track.
+ *
+ * Spans go to their own logger at TRACE, which the bundled log4j2.xml
+ * leaves off.  Nothing is timed or built unless it is enabled.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreTracer
+{
+    public static final String LOGGER_NAME = "com.sludev.mssqlapplylog.Trace";
+
+    private static final Logger TRACE = LogManager.getLogger(LOGGER_NAME);
+
+    private static final String CATEGORY = "restore";
+    private static final String DEFAULT_ID = "main";
+
+    // Span times are taken with nanoTime, written as epoch microseconds
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    private static final Span NONE = new Span(null, null, null, 0);
+
+    /**
+     * A phase being timed.  Closing it writes the span.
+     */
+    public static final class Span implements AutoCloseable
+    {
+        private final String name;
+        private final String id;
+        private final Span parent;
+        private final long startNanos;
+        private StringBuilder args;
+
+        private Span(final String name,
+                     final String id,
+                     final Span parent,
+                     final long startNanos)
+        {
+            this.name = name;
+            this.id = id;
+            this.parent = parent;
+            this.startNanos = startNanos;
+        }
+
+        public Span arg(final String key, final long value)
+        {
+            if (this != NONE)
+            {
+                argKey(key).append(value);
+            }
+
+            return this;
+        }
+
+        public Span arg(final String key, final String value)
+        {
+            if (this != NONE)
+            {
+                appendString(argKey(key), value);
+            }
+
+            return this;
+        }
+
+        private StringBuilder argKey(final String key)
+        {
+            if (args == null)
+            {
+                args = new StringBuilder();
+            }
+            else
+            {
+                args.append(',');
+            }
+
+            return appendString(args, key).append(':');
+        }
+
+        @Override
+        public void close()
+        {
+            if (this == NONE)
+            {
+                return;
+            }
+
+            CURRENT.set(parent);
+
+            write(name, id, toMicros(startNanos), toMicros(System.nanoTime()), args);
+        }
+    }
+
+    private RestoreTracer()
+    {
+    }
+
+    public static boolean isEnabled()
+    {
+        return TRACE.isTraceEnabled();
+    }
+
+    /**
+     * Start a span on the track of a file.
+     *
+     * @param name The phase, e.g. "execute"
+     * @param file The backup file, or directory, the phase works on
+     * @return The span, to be closed when the phase ends
+     */
+    public static Span start(final String name, final Path file)
+    {
+        if (TRACE.isTraceEnabled() == false)
+        {
+            return NONE;
+        }
+
+        return push(name, file == null ? null : file.getFileName().toString());
+    }
+
+    /**
+     * Start a span on the track of the enclosing span on this thread.
+     *
+     * @param name The phase, e.g. "connect"
+     * @return The span, to be closed when the phase ends
+     */
+    public static Span start(final String name)
+    {
+        if (TRACE.isTraceEnabled() == false)
+        {
+            return NONE;
+        }
+
+        return push(name, null);
+    }
+
+    /**
+     * Write a span that was timed elsewhere.
+     *
+     * @param name The phase
+     * @param file The file the phase worked on
+     * @param startMillis Start, epoch milliseconds
+     * @param endMillis End, epoch milliseconds
+     */
+    public static void record(final String name,
+                              final Path file,
+                              final long startMillis,
+                              final long endMillis)
+    {
+        if (TRACE.isTraceEnabled() == false)
+        {
+            return;
+        }
+
+        write(name, file.getFileName().toString(), startMillis * 1000, endMillis * 1000, null);
+    }
+
+    private static Span push(final String name, final String id)
+    {
+        Span parent = CURRENT.get();
+
+        String currId = id;
+        if (currId == null)
+        {
+            currId = parent == null ? DEFAULT_ID : parent.id;
+        }
+
+        Span res = new Span(name, currId, parent, System.nanoTime());
+
+        CURRENT.set(res);
+
+        return res;
+    }
+
+    private static long toMicros(final long nanos)
+    {
+        return BASE_MICROS + (nanos - BASE_NANOS) / 1000;
+    }
+
+    /**
+     * Write the begin and end events.  The layout ends each with a comma,
+     * which trace viewers accept.
+     */
+    private static void write(final String name,
+                              final String id,
+                              final long startMicros,
+                              final long endMicros,
+                              final StringBuilder args)
+    {
+        long tid = Thread.currentThread().getId();
+
+        StringBuilder msg = new StringBuilder(256);
+
+        event(msg, name, id, "b", startMicros, tid);
+        if (args != null)
+        {
+            msg.append(",\"args\":{").append(args).append('}');
+        }
+        msg.append("},\n");
+
+        event(msg, name, id, "e", endMicros, tid);
+        msg.append('}');
+
+        TRACE.trace(msg.toString());
+    }
+
+    private static void event(final StringBuilder msg,
+                              final String name,
+                              final String id,
+                              final String phase,
+                              final long micros,
+                              final long tid)
+    {
+        msg.append("{\"name\":");
+        appendString(msg, name);
+        msg.append(",\"cat\":\"").append(CATEGORY)
+                .append("\",\"ph\":\"").append(phase)
+                .append("\",\"id\":");
+        appendString(msg, id);
+        msg.append(",\"ts\":").append(micros)
+                .append(",\"pid\":1,\"tid\":").append(tid);
+    }
+
+    private static StringBuilder appendString(final StringBuilder msg, final String str)
+    {
+        msg.append('"');
+
+        for (int i = 0; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+
+            if (c == '"' || c == '\\')
+            {
+                msg.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                msg.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                msg.append(c);
+            }
+        }
+
+        return msg.append('"');
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.util.Objects;
+
+/**
+ * RESTORE data transfer options, i.e. BUFFERCOUNT, MAXTRANSFERSIZE and BLOCKSIZE.
+ *
+ * A null option is left out of the query so SQL Server picks its own value.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreTuning
+{
+    public static final int MAX_TRANSFER_SIZE_UNIT = 64 * 1024;
+    public static final int MAX_TRANSFER_SIZE_LIMIT = 4 * 1024 * 1024;
+
+    private final Integer bufferCount;
+    private final Integer maxTransferSize;
+    private final Integer blockSize;
+
+    public Integer getBufferCount()
+    {
+        return bufferCount;
+    }
+
+    public Integer getMaxTransferSize()
+    {
+        return maxTransferSize;
+    }
+
+    public Integer getBlockSize()
+    {
+        return blockSize;
+    }
+
+    private RestoreTuning(final Integer bufferCount,
+                          final Integer maxTransferSize,
+                          final Integer blockSize)
+    {
+        this.bufferCount = bufferCount;
+        this.maxTransferSize = maxTransferSize;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param bufferCount Number of I/O buffers, or null
+     * @param maxTransferSize Largest unit of transfer in bytes.  A multiple of 64 KB up to 4 MB, or null.
+     * @param blockSize Physical block size in bytes.  A power of 2 from 512 to 65536, or null.
+     * @return The tuning
+     * @throws IllegalArgumentException If an option is out of range
+     */
+    public static RestoreTuning from(final Integer bufferCount,
+                                     final Integer maxTransferSize,
+                                     final Integer blockSize)
+    {
+        if (bufferCount != null && bufferCount < 1)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid BUFFERCOUNT %d", bufferCount));
+        }
+
+        if (maxTransferSize != null
+                && (maxTransferSize < MAX_TRANSFER_SIZE_UNIT
+                    || maxTransferSize > MAX_TRANSFER_SIZE_LIMIT
+                    || maxTransferSize % MAX_TRANSFER_SIZE_UNIT != 0))
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid MAXTRANSFERSIZE %d.  Must be a multiple of 64 KB up to 4 MB.",
+                    maxTransferSize));
+        }
+
+        if (blockSize != null
+                && (blockSize < 512 || blockSize > 65536 || Integer.bitCount(blockSize) != 1))
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid BLOCKSIZE %d.  Must be a power of 2 from 512 to 65536.",
+                    blockSize));
+        }
+
+        RestoreTuning res = new RestoreTuning(bufferCount, maxTransferSize, blockSize);
+
+        return res;
+    }
+
+    public static RestoreTuning from()
+    {
+        return from(null, null, null);
+    }
+
+    public boolean isDefault()
+    {
+        return bufferCount == null && maxTransferSize == null && blockSize == null;
+    }
+
+    /**
+     * Fill in the options this tuning leaves out from another.
+     *
+     * @param other Fallback values, may be null
+     * @return The combined tuning
+     */
+    public RestoreTuning orElse(final RestoreTuning other)
+    {
+        if (other == null)
+        {
+            return this;
+        }
+
+        return from(bufferCount != null ? bufferCount : other.getBufferCount(),
+                maxTransferSize != null ? maxTransferSize : other.getMaxTransferSize(),
+                blockSize != null ? blockSize : other.getBlockSize());
+    }
+
+    /**
+     * Add these options to a RESTORE query.
+     *
+     * @param query The query
+     * @return The same query
+     */
+    public RestoreQuery applyTo(final RestoreQuery query)
+    {
+        if (bufferCount != null)
+        {
+            query.addOption(String.format("BUFFERCOUNT = %d", bufferCount));
+        }
+
+        if (maxTransferSize != null)
+        {
+            query.addOption(String.format("MAXTRANSFERSIZE = %d", maxTransferSize));
+        }
+
+        if (blockSize != null)
+        {
+            query.addOption(String.format("BLOCKSIZE = %d", blockSize));
+        }
+
+        return query;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+
+        if (obj instanceof RestoreTuning == false)
+        {
+            return false;
+        }
+
+        RestoreTuning other = (RestoreTuning) obj;
+
+        return Objects.equals(bufferCount, other.getBufferCount())
+                && Objects.equals(maxTransferSize, other.getMaxTransferSize())
+                && Objects.equals(blockSize, other.getBlockSize());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(bufferCount, maxTransferSize, blockSize);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BUFFERCOUNT=%s, MAXTRANSFERSIZE=%s, BLOCKSIZE=%s",
+                bufferCount, maxTransferSize, blockSize);
+    }
+}
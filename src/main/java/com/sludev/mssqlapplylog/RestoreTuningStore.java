@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Properties;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the best RESTORE tuning found for each target.
+ *
+ * Kept in a properties file with keys of the form "target.bufferCount",
+ * by target name since targets on different servers may restore the same
+ * database.  Every trial's throughput is kept as well, under
+ * "target.trial.*".  One store is shared by every target of a run.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreTuningStore
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreTuningStore.class);
+
+    private final Path file;
+    private final Properties props;
+
+    private RestoreTuningStore(final Path file, final Properties props)
+    {
+        this.file = file;
+        this.props = props;
+    }
+
+    /**
+     * Load the store, starting empty if the file does not exist yet.
+     *
+     * @param file The properties file
+     * @return The store
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static RestoreTuningStore from(final Path file) throws IOException
+    {
+        Properties props = new Properties();
+
+        if (Files.exists(file))
+        {
+            try (Reader reader = Files.newBufferedReader(file))
+            {
+                props.load(reader);
+            }
+        }
+
+        RestoreTuningStore res = new RestoreTuningStore(file, props);
+
+        return res;
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @param name The target
+     * @return The best tuning recorded, or null if the target was never tuned
+     */
+    public synchronized RestoreTuning get(final String name)
+    {
+        if (props.containsKey(name + ".bytesPerSecond") == false)
+        {
+            return null;
+        }
+
+        return RestoreTuning.from(getInt(name + ".bufferCount"),
+                getInt(name + ".maxTransferSize"),
+                getInt(name + ".blockSize"));
+    }
+
+    /**
+     * @param name The target
+     * @return Throughput of the best tuning recorded, or 0
+     */
+    public synchronized long getBytesPerSecond(final String name)
+    {
+        return NumberUtils.toLong(props.getProperty(name + ".bytesPerSecond"), 0);
+    }
+
+    /**
+     * Record a trial, keeping it as the best if it is faster than the current best.
+     *
+     * @param name The target
+     * @param tuning The options tried
+     * @param bytesPerSecond The measured throughput
+     * @return True if this is now the best tuning
+     */
+    public synchronized boolean record(final String name,
+                                       final RestoreTuning tuning,
+                                       final long bytesPerSecond)
+    {
+        props.setProperty(String.format("%s.trial.%s.%s.%s", name,
+                Objects.toString(tuning.getBufferCount(), "default"),
+                Objects.toString(tuning.getMaxTransferSize(), "default"),
+                Objects.toString(tuning.getBlockSize(), "default")),
+                String.valueOf(bytesPerSecond));
+
+        if (bytesPerSecond <= getBytesPerSecond(name))
+        {
+            return false;
+        }
+
+        setInt(name + ".bufferCount", tuning.getBufferCount());
+        setInt(name + ".maxTransferSize", tuning.getMaxTransferSize());
+        setInt(name + ".blockSize", tuning.getBlockSize());
+        props.setProperty(name + ".bytesPerSecond", String.valueOf(bytesPerSecond));
+
+        return true;
+    }
+
+    /**
+     * Forget the best tuning for a target, e.g. before tuning it again.
+     *
+     * @param name The target
+     */
+    public synchronized void clear(final String name)
+    {
+        props.stringPropertyNames().stream()
+                .filter(k -> k.startsWith(name + "."))
+                .forEach(k -> props.remove(k));
+    }
+
+    /**
+     * Write the store to its file.  Written to a temporary file first so a
+     * crash never leaves a partial file.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(tmp))
+        {
+            props.store(writer, "MSSQLApplyLog restore tuning");
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        LOGGER.debug(String.format("Saved restore tuning to '%s'", file));
+    }
+
+    private Integer getInt(final String key)
+    {
+        String val = props.getProperty(key);
+
+        return NumberUtils.isDigits(val) ? Integer.valueOf(val) : null;
+    }
+
+    private void setInt(final String key, final Integer val)
+    {
+        if (val == null)
+        {
+            props.remove(key);
+        }
+        else
+        {
+            props.setProperty(key, String.valueOf(val));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cancels RESTORE statements that run past their deadline.
+ *
+ * The restore thread is blocked inside the driver while the statement runs,
+ * so the cancel has to come from another thread.  An overdue statement is
+ * first cancelled.  If it still has not returned after the grace period its
+ * connection is closed so the restore thread is released and can reconnect.
+ *
+ * Progress is polled on a thread of its own, so a poll stuck in the driver
+ * never holds up a cancel.
+ *
+ * @author Kervin Pierre
+ */
+public final class RestoreWatchdog implements AutoCloseable
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RestoreWatchdog.class);
+
+    public static final long PROGRESS_POLL_MILLIS = 1000;
+
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService poller;
+    private final ApplyLogMetrics metrics;
+
+    private RestoreWatchdog(final ScheduledExecutorService scheduler,
+                            final ScheduledExecutorService poller,
+                            final ApplyLogMetrics metrics)
+    {
+        this.scheduler = scheduler;
+        this.poller = poller;
+        this.metrics = metrics;
+    }
+
+    public static RestoreWatchdog from(final ApplyLogMetrics metrics)
+    {
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("restoreWatchdog-%d")
+                .daemon(true)
+                .build();
+
+        BasicThreadFactory pollFactory = BasicThreadFactory.builder()
+                .namingPattern("restoreProgress-%d")
+                .daemon(true)
+                .build();
+
+        RestoreWatchdog res = new RestoreWatchdog(
+                Executors.newSingleThreadScheduledExecutor(thFactory),
+                Executors.newSingleThreadScheduledExecutor(pollFactory), metrics);
+
+        return res;
+    }
+
+    public Guard watch(final Statement stmt,
+                       final String desc,
+                       final long timeoutSeconds,
+                       final long graceSeconds)
+    {
+        return watch(stmt, desc, timeoutSeconds, graceSeconds, null);
+    }
+
+    /**
+     * Start watching a running statement.
+     *
+     * @param stmt The statement about to be executed
+     * @param desc Description used in logs and metrics
+     * @param timeoutSeconds Deadline for the statement.  0 or less disables the watch.
+     * @param graceSeconds Time after the cancel before the connection is closed
+     * @param progress Polled for "WITH STATS" messages while the statement runs.  May be null.
+     * @return A guard that must be closed once the statement returns
+     */
+    public Guard watch(final Statement stmt,
+                       final String desc,
+                       final long timeoutSeconds,
+                       final long graceSeconds,
+                       final RestoreProgress progress)
+    {
+        Guard res = new Guard(stmt, desc, progress);
+
+        if (progress != null)
+        {
+            if (metrics != null)
+            {
+                metrics.setCurrentRestore(progress);
+            }
+
+            res.progressFuture = poller.scheduleWithFixedDelay(() -> progress.poll(stmt),
+                    PROGRESS_POLL_MILLIS, PROGRESS_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        if (timeoutSeconds > 0)
+        {
+            res.cancelFuture = scheduler.schedule(() -> res.cancel(),
+                    timeoutSeconds, TimeUnit.SECONDS);
+
+            if (graceSeconds >= 0)
+            {
+                res.abortFuture = scheduler.schedule(() -> res.abort(),
+                        timeoutSeconds + graceSeconds, TimeUnit.SECONDS);
+            }
+        }
+
+        return res;
+    }
+
+    @Override
+    public void close()
+    {
+        scheduler.shutdownNow();
+        poller.shutdownNow();
+    }
+
+    /**
+     * Tracks a single statement from execution to return.
+     */
+    public final class Guard implements AutoCloseable
+    {
+        private final Statement stmt;
+        private final String desc;
+        private final RestoreProgress progress;
+        private volatile ScheduledFuture<?> progressFuture;
+        private volatile ScheduledFuture<?> cancelFuture;
+        private volatile ScheduledFuture<?> abortFuture;
+        private volatile boolean fired = false;
+        private boolean closed = false;
+
+        private Guard(final Statement stmt,
+                      final String desc,
+                      final RestoreProgress progress)
+        {
+            this.stmt = stmt;
+            this.desc = desc;
+            this.progress = progress;
+        }
+
+        /**
+         * @return True if the deadline passed and the statement was cancelled
+         */
+        public boolean isFired()
+        {
+            return fired;
+        }
+
+        private void cancel()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+
+                fired = true;
+
+                if (metrics != null)
+                {
+                    metrics.restoreStuck(desc);
+                }
+            }
+
+            LOGGER.error(String.format("Restore is past its deadline.  Cancelling '%s'", desc));
+
+            // Not under the lock, the driver may take a while to send the cancel
+            try
+            {
+                stmt.cancel();
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.warn(String.format("Error cancelling '%s'", desc), ex);
+            }
+        }
+
+        private void abort()
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+            }
+
+            LOGGER.error(String.format("Cancelled restore has not returned.  "
+                    + "Closing its connection '%s'", desc));
+
+            try
+            {
+                Connection conn = stmt.getConnection();
+
+                conn.close();
+            }
+            catch (SQLException ex)
+            {
+                LOGGER.warn(String.format("Error closing connection for '%s'", desc), ex);
+            }
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            closed = true;
+
+            if (progressFuture != null)
+            {
+                progressFuture.cancel(false);
+            }
+
+            if (progress != null && metrics != null)
+            {
+                metrics.restoreFinished(progress);
+            }
+
+            if (cancelFuture != null)
+            {
+                cancelFuture.cancel(false);
+            }
+
+            if (abortFuture != null)
+            {
+                abortFuture.cancel(false);
+            }
+
+            if (fired && metrics != null)
+            {
+                metrics.restoreUnstuck();
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Archives or deletes applied log backups in the background.
+ *
+ * Only logs before the checkpoint of every target are touched.  The
+ * checkpointed log itself stays, so a restart can still find its place in
+ * the directory.  Sweeps
+ * run on a low priority thread and sleep as needed to stay within the
+ * policy's I/O budget.  A move within one file-system is a rename and costs
+ * nothing against the budget.
+ *
+ * @author Kervin Pierre
+ */
+public final class RetentionManager implements AutoCloseable
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(RetentionManager.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RetentionPolicy policy;
+    private final ApplyCheckpoint checkpoint;
+    private final List<String> checkpointKeys;
+    private final List<Path> dirs;
+    private final boolean useLogFileLastMode;
+    private final String logBackupPatternStr;
+    private final String logBackupDatePatternStr;
+    private final ScheduledExecutorService scheduler;
+
+    private RetentionManager(final RetentionPolicy policy,
+                             final ApplyCheckpoint checkpoint,
+                             final List<String> checkpointKeys,
+                             final List<Path> dirs,
+                             final boolean useLogFileLastMode,
+                             final String logBackupPatternStr,
+                             final String logBackupDatePatternStr,
+                             final ScheduledExecutorService scheduler)
+    {
+        this.policy = policy;
+        this.checkpoint = checkpoint;
+        this.checkpointKeys = checkpointKeys;
+        this.dirs = dirs;
+        this.useLogFileLastMode = useLogFileLastMode;
+        this.logBackupPatternStr = logBackupPatternStr;
+        this.logBackupDatePatternStr = logBackupDatePatternStr;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param policy What to do with applied logs
+     * @param checkpoint The logs applied so far
+     * @param checkpointKeys The checkpoint entry of every target fed the logs
+     * @param dirs The log backup directories
+     * @param useLogFileLastMode If true, use the file's last modified date rather than its name
+     * @param logBackupPatternStr Regex for selecting log backup files
+     * @param logBackupDatePatternStr DateTimeFormatter pattern for parsing the date from the file name
+     * @return The manager, not started
+     */
+    public static RetentionManager from(final RetentionPolicy policy,
+                                        final ApplyCheckpoint checkpoint,
+                                        final List<String> checkpointKeys,
+                                        final List<Path> dirs,
+                                        final boolean useLogFileLastMode,
+                                        final String logBackupPatternStr,
+                                        final String logBackupDatePatternStr)
+    {
+        BasicThreadFactory thFactory = BasicThreadFactory.builder()
+                .namingPattern("retention-%d")
+                .daemon(true)
+                .priority(Thread.MIN_PRIORITY)
+                .build();
+
+        RetentionManager res = new RetentionManager(policy, checkpoint, checkpointKeys, dirs,
+                useLogFileLastMode, logBackupPatternStr, logBackupDatePatternStr,
+                Executors.newSingleThreadScheduledExecutor(thFactory));
+
+        return res;
+    }
+
+    public RetentionPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Sweep now, then on the policy's interval.
+     */
+    public void start()
+    {
+        LOGGER.info("Retention of applied logs for '{}' : {}", checkpointKeys, policy);
+
+        scheduler.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                sweep();
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                LOGGER.warn("Retention sweep failed", ex);
+            }
+            catch (InterruptedException ex)
+            {
+                LOGGER.debug("Retention sweep interrupted", ex);
+            }
+        }, 0, policy.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Archive or delete every applied log past the minimum age, on the calling thread.
+     *
+     * @return The number of logs archived or deleted
+     * @throws IOException If the directories cannot be listed
+     * @throws InterruptedException If stopped while waiting on the I/O budget
+     */
+    public int sweep() throws IOException, InterruptedException
+    {
+        LogIndex index = LogIndex.from(dirs, useLogFileLastMode,
+                logBackupPatternStr, logBackupDatePatternStr);
+
+        // The target furthest behind decides
+        int end = Integer.MAX_VALUE;
+        for (String key : checkpointKeys)
+        {
+            int pos = checkpointPosition(index, key);
+            if (pos < 0)
+            {
+                return 0;
+            }
+
+            end = Math.min(end, pos);
+        }
+
+        long cutoff = System.currentTimeMillis() - policy.getMinAgeMillis();
+        long budgetStart = System.currentTimeMillis();
+        long copied = 0;
+        int res = 0;
+
+        // Oldest first, and the index is in time order
+        for (int pos = 0; pos < end && index.getEpochMillis(pos) <= cutoff; pos++)
+        {
+            Path log = index.getPath(pos);
+
+            try
+            {
+                copied += retire(log, index.getEpochMillis(pos), budgetStart, copied);
+            }
+            catch (IOException ex)
+            {
+                LOGGER.warn("Error retiring '{}'", log, ex);
+
+                continue;
+            }
+
+            res++;
+        }
+
+        if (res > 0)
+        {
+            LOGGER.info("Retention {} {} applied logs", policy.getAction(), res);
+        }
+
+        return res;
+    }
+
+    /**
+     * @return Position of a target's checkpointed log, or -1 if unknown
+     */
+    private int checkpointPosition(final LogIndex index, final String key)
+    {
+        String lastApplied = checkpoint.getLastApplied(key);
+        if (lastApplied == null)
+        {
+            return -1;
+        }
+
+        // Windows file names, ignore case
+        for (int pos = index.size() - 1; pos >= 0; pos--)
+        {
+            if (lastApplied.equalsIgnoreCase(index.getFileName(pos)))
+            {
+                return pos;
+            }
+        }
+
+        LOGGER.debug("Checkpoint '{}' of '{}' is not in the backup directory, nothing to retire",
+                lastApplied, key);
+
+        return -1;
+    }
+
+    /**
+     * @return Bytes copied
+     */
+    private long retire(final Path log,
+                        final long epochMillis,
+                        final long budgetStart,
+                        final long copied) throws IOException, InterruptedException
+    {
+        Path dest = policy.archivePath(log, epochMillis);
+
+        switch (policy.getAction())
+        {
+            case DELETE:
+                Files.delete(log);
+
+                LOGGER.debug("Deleted '{}'", log);
+
+                return 0;
+
+            case MOVE:
+                Files.createDirectories(dest.getParent());
+
+                try
+                {
+                    Files.move(log, dest, StandardCopyOption.ATOMIC_MOVE);
+
+                    LOGGER.debug("Moved '{}' to '{}'", log, dest);
+
+                    return 0;
+                }
+                catch (AtomicMoveNotSupportedException ex)
+                {
+                    // A different file-system, copy within the budget
+                    break;
+                }
+
+            default:
+                Files.createDirectories(dest.getParent());
+
+                break;
+        }
+
+        Path tmp = dest.resolveSibling(dest.getFileName() + ".tmp");
+        long res;
+
+        try
+        {
+            try (InputStream in = Files.newInputStream(log);
+                    OutputStream out = policy.getAction() == RetentionPolicy.Action.GZIP
+                            ? new GZIPOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE)
+                            : Files.newOutputStream(tmp))
+            {
+                res = copy(in, out, budgetStart, copied);
+            }
+
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+
+        Files.delete(log);
+
+        LOGGER.debug("Archived '{}' to '{}'", log, dest);
+
+        return res;
+    }
+
+    /**
+     * Copy, sleeping whenever the sweep gets ahead of its I/O budget.
+     */
+    private long copy(final InputStream in,
+                      final OutputStream out,
+                      final long budgetStart,
+                      final long copied) throws IOException, InterruptedException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long res = 0;
+        int read;
+
+        while ((read = in.read(buffer)) > 0)
+        {
+            out.write(buffer, 0, read);
+
+            res += read;
+
+            long ahead = (copied + res) * 1000 / policy.getBytesPerSecond()
+                    - (System.currentTimeMillis() - budgetStart);
+            if (ahead > 0)
+            {
+                Thread.sleep(ahead);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Stop sweeping, interrupting a sweep in progress.
+     */
+    @Override
+    public void close()
+    {
+        scheduler.shutdownNow();
+
+        try
+        {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            LOGGER.debug("Interrupted waiting for the retention sweep", ex);
+
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * What happens to log backups once they are applied.
+ *
+ * Applied logs older than the minimum age are moved, or compressed, into a
+ * dated archive tree, e.g. "archive/2016/01/13/northwinddb_20160113121500.trn",
+ * or deleted.  Sweeps run on a schedule and copy no faster than the I/O
+ * budget.
+ *
+ * @author Kervin Pierre
+ */
+public final class RetentionPolicy
+{
+    public static final long DEFAULT_MIN_AGE_HOURS = 24;
+    public static final long DEFAULT_INTERVAL_MINUTES = 60;
+    public static final long DEFAULT_BYTES_PER_SECOND = 8 * 1024 * 1024;
+
+    private static final DateTimeFormatter ARCHIVE_DIR_FORMAT
+            = DateTimeFormatter.ofPattern("yyyy/MM/dd").withZone(ZoneId.systemDefault());
+
+    public enum Action
+    {
+        MOVE,
+        GZIP,
+        DELETE
+    }
+
+    private final Action action;
+    private final Path archiveDir;
+    private final long minAgeMillis;
+    private final long intervalMillis;
+    private final long bytesPerSecond;
+
+    public Action getAction()
+    {
+        return action;
+    }
+
+    /**
+     * @return Root of the archive tree, null when deleting
+     */
+    public Path getArchiveDir()
+    {
+        return archiveDir;
+    }
+
+    public long getMinAgeMillis()
+    {
+        return minAgeMillis;
+    }
+
+    public long getIntervalMillis()
+    {
+        return intervalMillis;
+    }
+
+    public long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    private RetentionPolicy(final Action action,
+                            final Path archiveDir,
+                            final long minAgeMillis,
+                            final long intervalMillis,
+                            final long bytesPerSecond)
+    {
+        this.action = action;
+        this.archiveDir = archiveDir;
+        this.minAgeMillis = minAgeMillis;
+        this.intervalMillis = intervalMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param action Move, compress or delete applied logs
+     * @param archiveDirStr Root of the archive tree.  Needed to move or compress.
+     * @param minAgeHours Logs younger than this stay, by their timestamp
+     * @param intervalMinutes Time between sweeps
+     * @param bytesPerSecond Most bytes copied per second by a sweep
+     * @return The policy.  Null arguments take the default.
+     * @throws IllegalArgumentException If the action needs an archive directory and has none
+     */
+    public static RetentionPolicy from(final Action action,
+                                       final String archiveDirStr,
+                                       final Long minAgeHours,
+                                       final Long intervalMinutes,
+                                       final Long bytesPerSecond)
+    {
+        Path archiveDir = null;
+        if (action != Action.DELETE)
+        {
+            if (archiveDirStr == null || archiveDirStr.trim().isEmpty())
+            {
+                throw new IllegalArgumentException(String.format(
+                        "Retention action '%s' needs an archive directory", action));
+            }
+
+            archiveDir = Paths.get(archiveDirStr.trim());
+        }
+
+        RetentionPolicy res = new RetentionPolicy(action, archiveDir,
+                (minAgeHours == null || minAgeHours < 0 ? DEFAULT_MIN_AGE_HOURS : minAgeHours)
+                        * 60 * 60 * 1000,
+                (intervalMinutes == null || intervalMinutes < 1 ? DEFAULT_INTERVAL_MINUTES : intervalMinutes)
+                        * 60 * 1000,
+                bytesPerSecond == null || bytesPerSecond < 1 ? DEFAULT_BYTES_PER_SECOND : bytesPerSecond);
+
+        return res;
+    }
+
+    /**
+     * @param log The log backup
+     * @param epochMillis The log's timestamp
+     * @return Where the log is archived, null when deleting
+     */
+    public Path archivePath(final Path log, final long epochMillis)
+    {
+        if (archiveDir == null)
+        {
+            return null;
+        }
+
+        String name = log.getFileName().toString();
+        if (action == Action.GZIP)
+        {
+            name += ".gz";
+        }
+
+        return archiveDir.resolve(ARCHIVE_DIR_FORMAT.format(Instant.ofEpochMilli(epochMillis)))
+                .resolve(name);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s %s after %d hours", action,
+                archiveDir == null ? "" : archiveDir, minAgeMillis / (60 * 60 * 1000));
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Connection settings for one SQL Server the logs are restored to.
+ *
+ * Besides the main settings, more targets can be given as overlays in the
+ * properties file, e.g. "sqlTarget.dr1.sqlHost=10.0.0.2".  A setting not
+ * given for a target is taken from the main settings.
+ *
+ * @author Kervin Pierre
+ */
+public final class SqlTarget
+{
+    public static final String PROPERTY_PREFIX = "sqlTarget.";
+
+    private final String name;
+    private final String sqlHost;
+    private final String sqlDb;
+    private final String sqlUser;
+    private final String sqlPass;
+    private final String sqlURL;
+    private final String sqlProcessUser;
+
+    /**
+     * @return The target's name, used for its logs, metrics and checkpoint
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getSqlHost()
+    {
+        return sqlHost;
+    }
+
+    public String getSqlDb()
+    {
+        return sqlDb;
+    }
+
+    public String getSqlUser()
+    {
+        return sqlUser;
+    }
+
+    public String getSqlPass()
+    {
+        return sqlPass;
+    }
+
+    /**
+     * @return The connection string, built from the host if none was given
+     */
+    public String getSqlURL()
+    {
+        if (StringUtils.isBlank(sqlURL))
+        {
+            return String.format("jdbc:jtds:sqlserver://%s;DatabaseName=master", sqlHost);
+        }
+
+        return sqlURL;
+    }
+
+    /**
+     * @return The server, as host[:port][\\instance], with every other part of
+     *         the connection string dropped, so it never carries credentials.
+     *         Empty if the connection string has no server.
+     */
+    public String getSqlServer()
+    {
+        String[] parts = StringUtils.split(
+                StringUtils.substringAfter(getSqlURL(), "//"), ';');
+
+        if (parts.length < 1)
+        {
+            return "";
+        }
+
+        // Drops any "/database" after the server
+        StringBuilder res = new StringBuilder(StringUtils.substringBefore(parts[0], "/"));
+
+        for (int i = 1; i < parts.length; i++)
+        {
+            if (parts[i].regionMatches(true, 0, "instance=", 0, "instance=".length()))
+            {
+                res.append('\\').append(parts[i].substring("instance=".length()));
+            }
+        }
+
+        return res.toString();
+    }
+
+    public String getSqlProcessUser()
+    {
+        return sqlProcessUser;
+    }
+
+    private SqlTarget(final String name,
+                      final String sqlHost,
+                      final String sqlDb,
+                      final String sqlUser,
+                      final String sqlPass,
+                      final String sqlURL,
+                      final String sqlProcessUser)
+    {
+        this.name = name;
+        this.sqlHost = sqlHost;
+        this.sqlDb = sqlDb;
+        this.sqlUser = sqlUser;
+        this.sqlPass = sqlPass;
+        this.sqlURL = sqlURL;
+        this.sqlProcessUser = sqlProcessUser;
+    }
+
+    public static SqlTarget from(final String name,
+                                 final String sqlHost,
+                                 final String sqlDb,
+                                 final String sqlUser,
+                                 final String sqlPass,
+                                 final String sqlURL,
+                                 final String sqlProcessUser)
+    {
+        SqlTarget res = new SqlTarget(name, sqlHost, sqlDb, sqlUser, sqlPass,
+                sqlURL, sqlProcessUser);
+
+        return res;
+    }
+
+    /**
+     * @param config The settings
+     * @return The main target, then any more fed the same logs
+     */
+    public static List<SqlTarget> from(final MSSQLApplyLogConfig config)
+    {
+        List<SqlTarget> res = new ArrayList<>();
+
+        res.add(from(config.getSqlDb(), config.getSqlHost(), config.getSqlDb(),
+                config.getSqlUser(), config.getSqlPass(), config.getSqlUrl(),
+                config.getSqlProcessUser()));
+
+        if (config.getSqlTargets() != null)
+        {
+            res.addAll(config.getSqlTargets());
+        }
+
+        return res;
+    }
+
+    /**
+     * @param props The properties file
+     * @return Names of the targets overlaid in the properties, sorted
+     */
+    public static Set<String> names(final Properties props)
+    {
+        Set<String> res = new TreeSet<>();
+
+        for (String key : props.stringPropertyNames())
+        {
+            if (key.startsWith(PROPERTY_PREFIX))
+            {
+                String name = StringUtils.substringBeforeLast(
+                        key.substring(PROPERTY_PREFIX.length()), ".");
+
+                if (StringUtils.isNoneBlank(name))
+                {
+                    res.add(name);
+                }
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Read a target's overlay over the main settings.
+     *
+     * @param name The target
+     * @param props The properties file
+     * @param main The main settings
+     * @return The target
+     */
+    public static SqlTarget from(final String name,
+                                 final Properties props,
+                                 final SqlTarget main)
+    {
+        String prefix = PROPERTY_PREFIX + name + ".";
+
+        // Another host needs its own connection string
+        String defaultURL = props.containsKey(prefix + "sqlHost") ? "" : main.sqlURL;
+
+        return from(name,
+                props.getProperty(prefix + "sqlHost", main.sqlHost),
+                props.getProperty(prefix + "sqlDb", main.sqlDb),
+                props.getProperty(prefix + "sqlUser", main.sqlUser),
+                props.getProperty(prefix + "sqlPass", main.sqlPass),
+                props.getProperty(prefix + "sqlURL", defaultURL),
+                props.getProperty(prefix + "sqlProcessUser", main.sqlProcessUser));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s (%s on %s)", name, sqlDb,
+                StringUtils.defaultIfBlank(sqlHost, "sqlURL"));
+    }
+}
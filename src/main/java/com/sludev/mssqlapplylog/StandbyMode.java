@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Paths;
+
+/**
+ * Restore logs WITH STANDBY so the database stays readable between restores.
+ *
+ * SQL Server keeps the uncommitted transactions of the last restored log in
+ * an undo file, and rolls them forward again before the next log is restored.
+ * The undo file path is resolved on the SQL Server host.
+ *
+ * @author Kervin Pierre
+ */
+public final class StandbyMode
+{
+    private final String undoDirStr;
+    private final boolean kickReaders;
+
+    public String getUndoDirStr()
+    {
+        return undoDirStr;
+    }
+
+    /**
+     * @return True if readers are disconnected before each apply window
+     */
+    public boolean isKickReaders()
+    {
+        return kickReaders;
+    }
+
+    private StandbyMode(final String undoDirStr,
+                        final boolean kickReaders)
+    {
+        this.undoDirStr = undoDirStr;
+        this.kickReaders = kickReaders;
+    }
+
+    /**
+     * @param undoDirStr Directory on the SQL Server host for the undo file
+     * @param kickReaders Roll back and disconnect readers when a window opens,
+     *                    rather than wait for them.  Null for true.
+     * @return The standby mode
+     */
+    public static StandbyMode from(final String undoDirStr,
+                                   final Boolean kickReaders)
+    {
+        StandbyMode res = new StandbyMode(undoDirStr,
+                kickReaders == null ? true : kickReaders);
+
+        return res;
+    }
+
+    /**
+     * @param sqlDb The database being restored
+     * @return The undo file for that database
+     */
+    public String undoFile(final String sqlDb)
+    {
+        return Paths.get(undoDirStr).resolve(String.format("%s_undo.tuf", sqlDb)).toString();
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * One target fed the log stream, with everything it needs to fall behind
+ * on its own.
+ *
+ * Each lane has its own connection, metrics, watchdog and apply window
+ * thread, and its own place in the log stream.  A slow or failing target
+ * only holds up its own lane.
+ *
+ * @author Kervin Pierre
+ */
+public final class TargetLane implements AutoCloseable
+{
+    private final SqlTarget settings;
+    private final ApplyLogMetrics metrics;
+    private final RestoreWatchdog watchdog;
+    private final RestoreTarget target;
+    private final ApplyWindowScheduler windows;
+
+    private String appliedLogName;
+    private Instant laterThan;
+    private Instant lastTime;
+    private String lastName;
+    private List<Path> unapplied = Collections.emptyList();
+
+    public SqlTarget getSettings()
+    {
+        return settings;
+    }
+
+    public String getName()
+    {
+        return settings.getName();
+    }
+
+    public ApplyLogMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public RestoreTarget getTarget()
+    {
+        return target;
+    }
+
+    public ApplyWindowScheduler getWindows()
+    {
+        return windows;
+    }
+
+    /**
+     * @return The log the server had restored at startup, or null
+     */
+    public String getAppliedLogName()
+    {
+        return appliedLogName;
+    }
+
+    public void setAppliedLogName(final String appliedLogName)
+    {
+        this.appliedLogName = appliedLogName;
+    }
+
+    /**
+     * @return Time of the differential backup restored to this lane, which
+     *         its logs follow, or null to follow the full backup
+     */
+    public Instant getLaterThan()
+    {
+        return laterThan;
+    }
+
+    public void setLaterThan(final Instant laterThan)
+    {
+        this.laterThan = laterThan;
+    }
+
+    /**
+     * @return Timestamp of the last log handed to this lane, or null
+     */
+    public Instant getLastTime()
+    {
+        return lastTime;
+    }
+
+    /**
+     * @return File name of the last log handed to this lane, or null
+     */
+    public String getLastName()
+    {
+        return lastName;
+    }
+
+    public void setLast(final Instant lastTime, final String lastName)
+    {
+        this.lastTime = lastTime;
+        this.lastName = lastName;
+    }
+
+    /**
+     * @return Logs that failed in the last window, to be tried again first
+     */
+    public List<Path> getUnapplied()
+    {
+        return unapplied;
+    }
+
+    public void setUnapplied(final List<Path> unapplied)
+    {
+        this.unapplied = unapplied;
+    }
+
+    private TargetLane(final SqlTarget settings,
+                       final ApplyLogMetrics metrics,
+                       final RestoreWatchdog watchdog,
+                       final RestoreTarget target,
+                       final ApplyWindowScheduler windows)
+    {
+        this.settings = settings;
+        this.metrics = metrics;
+        this.watchdog = watchdog;
+        this.target = target;
+        this.windows = windows;
+    }
+
+    /**
+     * Set up a target.  Nothing connects until the target is first used.
+     *
+     * @param settings The target's connection settings
+     * @param config Restore settings shared by every target
+     * @return The lane, its metrics registered
+     * @throws MSSQLApplyLogException If another job in this JVM has the same target
+     */
+    public static TargetLane from(final SqlTarget settings,
+                                  final MSSQLApplyLogConfig config) throws MSSQLApplyLogException
+    {
+        Properties props = new Properties();
+
+        props.setProperty("user", settings.getSqlUser());
+        props.setProperty("password", settings.getSqlPass());
+
+        ApplyLogMetrics metrics = ApplyLogMetrics.from(settings.getName(), settings.getSqlServer());
+        metrics.register();
+
+        RestoreWatchdog watchdog = RestoreWatchdog.from(metrics);
+
+        RestoreTarget target = RestoreTarget.from(settings.getSqlURL(), props,
+                settings.getSqlDb(), settings.getSqlProcessUser(),
+                config.getRestoreTimeouts() == null ? RestoreTimeouts.from() : config.getRestoreTimeouts(),
+                config.getRestoreStatsPercent(), config.getFailurePolicy(),
+                watchdog, metrics);
+
+        target.setServerZone(config.getSqlTimeZone());
+
+        if (config.getRestoreThrottle() != null)
+        {
+            target.setThrottle(RestoreThrottle.from(settings.getName(),
+                    config.getRestoreThrottle(), metrics));
+        }
+
+        ApplyWindowScheduler windows = ApplyWindowScheduler.from(target,
+                config.getApplyWindows(), metrics, config.getPendingLogLimit());
+
+        TargetLane res = new TargetLane(settings, metrics, watchdog, target, windows);
+
+        return res;
+    }
+
+    @Override
+    public void close()
+    {
+        windows.close();
+        target.close();
+        watchdog.close();
+        metrics.unregister();
+    }
+
+    @Override
+    public String toString()
+    {
+        return settings.toString();
+    }
+}
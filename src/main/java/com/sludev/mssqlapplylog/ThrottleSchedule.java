@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Restore rate limits by time of day.
+ *
+ * Written as profiles separated by ';', each a daily time range and its
+ * limits, e.g. "08:00-18:00=50MB/s,20/min;18:00-20:00=200MB/s".  Limits are
+ * bytes per second with a B, KB, MB or GB unit, restores per minute, or
+ * "unlimited".  A range may wrap past midnight.  Restores are unlimited
+ * outside every range, and the first matching range wins.
+ *
+ * @author Kervin Pierre
+ */
+public final class ThrottleSchedule
+{
+    /**
+     * The limits during one time range.
+     */
+    public static final class Profile
+    {
+        private final String name;
+        private final LocalTime start;
+        private final LocalTime end;
+        private final long bytesPerSecond;
+        private final int restoresPerMinute;
+
+        /**
+         * @return The profile as written, e.g. "08:00-18:00"
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return Bytes restored per second, or 0 for no limit
+         */
+        public long getBytesPerSecond()
+        {
+            return bytesPerSecond;
+        }
+
+        /**
+         * @return Restores started per minute, or 0 for no limit
+         */
+        public int getRestoresPerMinute()
+        {
+            return restoresPerMinute;
+        }
+
+        private Profile(final String name,
+                        final LocalTime start,
+                        final LocalTime end,
+                        final long bytesPerSecond,
+                        final int restoresPerMinute)
+        {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.bytesPerSecond = bytesPerSecond;
+            this.restoresPerMinute = restoresPerMinute;
+        }
+
+        public boolean isUnlimited()
+        {
+            return bytesPerSecond <= 0 && restoresPerMinute <= 0;
+        }
+
+        /**
+         * @param time Time of day
+         * @return True if the time is in this profile's range
+         */
+        public boolean covers(final LocalTime time)
+        {
+            if (start.isBefore(end))
+            {
+                return time.isBefore(start) == false && time.isBefore(end);
+            }
+
+            // Wraps past midnight
+            return time.isBefore(start) == false || time.isBefore(end);
+        }
+
+        @Override
+        public String toString()
+        {
+            if (isUnlimited())
+            {
+                return String.format("%s unlimited", name);
+            }
+
+            return String.format("%s %s, %s", name,
+                    bytesPerSecond > 0 ? String.format("%.1f MB/s", bytesPerSecond / (1024.0 * 1024.0))
+                            : "any MB/s",
+                    restoresPerMinute > 0 ? restoresPerMinute + "/min" : "any/min");
+        }
+    }
+
+    public static final Profile UNLIMITED = new Profile("default", LocalTime.MIDNIGHT,
+            LocalTime.MIDNIGHT, 0, 0);
+
+    private final List<Profile> profiles;
+
+    public List<Profile> getProfiles()
+    {
+        return profiles;
+    }
+
+    private ThrottleSchedule(final List<Profile> profiles)
+    {
+        this.profiles = profiles;
+    }
+
+    /**
+     * @param spec The profiles, e.g. "08:00-18:00=50MB/s,20/min"
+     * @return The schedule
+     * @throws IllegalArgumentException If the profiles can't be parsed
+     */
+    public static ThrottleSchedule from(final String spec)
+    {
+        List<Profile> profiles = new ArrayList<>();
+
+        for (String entry : StringUtils.split(StringUtils.defaultString(spec), ';'))
+        {
+            if (StringUtils.isBlank(entry))
+            {
+                continue;
+            }
+
+            profiles.add(parseProfile(StringUtils.trim(entry)));
+        }
+
+        ThrottleSchedule res = new ThrottleSchedule(Collections.unmodifiableList(profiles));
+
+        return res;
+    }
+
+    /**
+     * @param time Time of day
+     * @return The limits in force at the time
+     */
+    public Profile at(final LocalTime time)
+    {
+        for (Profile p : profiles)
+        {
+            if (p.covers(time))
+            {
+                return p;
+            }
+        }
+
+        return UNLIMITED;
+    }
+
+    private static Profile parseProfile(final String entry)
+    {
+        String range = StringUtils.trim(StringUtils.substringBefore(entry, "="));
+        String limits = StringUtils.substringAfter(entry, "=");
+
+        String[] times = StringUtils.split(range, '-');
+        if (times.length != 2 || StringUtils.isBlank(limits))
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Throttle profile '%s' is not 'HH:mm-HH:mm=limits'", entry));
+        }
+
+        LocalTime start;
+        LocalTime end;
+        try
+        {
+            start = LocalTime.parse(StringUtils.trim(times[0]));
+            end = LocalTime.parse(StringUtils.trim(times[1]));
+        }
+        catch (DateTimeParseException ex)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid time range '%s' in throttle profile", range), ex);
+        }
+
+        long bytesPerSecond = 0;
+        int restoresPerMinute = 0;
+
+        for (String limit : StringUtils.split(limits, ','))
+        {
+            String curr = StringUtils.upperCase(StringUtils.deleteWhitespace(limit), Locale.ROOT);
+
+            try
+            {
+                if (curr.equals("UNLIMITED"))
+                {
+                    continue;
+                }
+                else if (curr.endsWith("/MIN"))
+                {
+                    restoresPerMinute = Integer.parseInt(
+                            curr.substring(0, curr.length() - "/MIN".length()));
+                }
+                else if (curr.endsWith("/S"))
+                {
+                    bytesPerSecond = parseBytes(
+                            curr.substring(0, curr.length() - "/S".length()));
+                }
+                else
+                {
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown throttle limit '%s'", limit));
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid throttle limit '%s'", limit), ex);
+            }
+        }
+
+        return new Profile(range, start, end, bytesPerSecond, restoresPerMinute);
+    }
+
+    private static long parseBytes(final String size)
+    {
+        long multiplier = 1;
+        String num = size;
+
+        if (num.endsWith("GB"))
+        {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        else if (num.endsWith("MB"))
+        {
+            multiplier = 1024L * 1024;
+        }
+        else if (num.endsWith("KB"))
+        {
+            multiplier = 1024L;
+        }
+
+        if (multiplier > 1)
+        {
+            num = num.substring(0, num.length() - 2);
+        }
+        else if (num.endsWith("B"))
+        {
+            num = num.substring(0, num.length() - 1);
+        }
+
+        return Math.round(Double.parseDouble(num) * multiplier);
+    }
+
+    @Override
+    public String toString()
+    {
+        return profiles.toString();
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Past restore durations, used to estimate how long future restores take.
+ *
+ * Every successful restore appends a "kind,bytes,millis" line to the history
+ * file.  Full, differential and log restores are fitted separately with
+ * least squares as a fixed cost per restore plus a cost per byte, over the
+ * most recent samples.
+ *
+ * @author Kervin Pierre
+ */
+public final class ThroughputHistory
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(ThroughputHistory.class);
+
+    public static final int MAX_SAMPLES = 1000;
+
+    private final Path file;
+    private final Map<RestoreQuery.Kind, Deque<long[]>> samples;
+
+    private ThroughputHistory(final Path file,
+                              final Map<RestoreQuery.Kind, Deque<long[]>> samples)
+    {
+        this.file = file;
+        this.samples = samples;
+    }
+
+    /**
+     * Load the history, starting empty if the file does not exist yet.
+     *
+     * @param file The history file, or null to keep the history in memory only
+     * @return The history
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static ThroughputHistory from(final Path file) throws IOException
+    {
+        Map<RestoreQuery.Kind, Deque<long[]>> samples = new EnumMap<>(RestoreQuery.Kind.class);
+        int lines = 0;
+
+        if (file != null && Files.exists(file))
+        {
+            try (BufferedReader reader = Files.newBufferedReader(file))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    String[] parts = StringUtils.split(line, ',');
+                    if (parts.length != 3
+                            || NumberUtils.isDigits(parts[1]) == false
+                            || NumberUtils.isDigits(parts[2]) == false)
+                    {
+                        continue;
+                    }
+
+                    RestoreQuery.Kind kind;
+                    try
+                    {
+                        kind = RestoreQuery.Kind.valueOf(parts[0]);
+                    }
+                    catch (IllegalArgumentException ex)
+                    {
+                        continue;
+                    }
+
+                    add(samples, kind, Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+
+                    lines++;
+                }
+            }
+        }
+
+        ThroughputHistory res = new ThroughputHistory(file, samples);
+
+        if (lines > 2 * MAX_SAMPLES * samples.size())
+        {
+            // Drop the samples that fell out of the window
+            res.rewrite();
+        }
+
+        return res;
+    }
+
+    private static void add(final Map<RestoreQuery.Kind, Deque<long[]>> samples,
+                            final RestoreQuery.Kind kind,
+                            final long bytes,
+                            final long millis)
+    {
+        Deque<long[]> curr = samples.computeIfAbsent(kind, k -> new ArrayDeque<>());
+
+        curr.addLast(new long[] { bytes, millis });
+
+        while (curr.size() > MAX_SAMPLES)
+        {
+            curr.removeFirst();
+        }
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @param kind The kind of restore
+     * @return Number of samples kept for that kind
+     */
+    public synchronized int getSampleCount(final RestoreQuery.Kind kind)
+    {
+        Deque<long[]> curr = samples.get(kind);
+
+        return curr == null ? 0 : curr.size();
+    }
+
+    /**
+     * Record a successful restore.
+     *
+     * @param kind The kind of restore
+     * @param bytes Size of the backup restored
+     * @param millis How long the restore took
+     */
+    public synchronized void record(final RestoreQuery.Kind kind,
+                                    final long bytes,
+                                    final long millis)
+    {
+        add(samples, kind, bytes, millis);
+
+        if (file == null)
+        {
+            return;
+        }
+
+        try (Writer writer = Files.newBufferedWriter(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND))
+        {
+            writer.write(String.format("%s,%d,%d%n", kind, bytes, millis));
+        }
+        catch (IOException ex)
+        {
+            LOGGER.warn(String.format("Error recording restore throughput to '%s'", file), ex);
+        }
+    }
+
+    /**
+     * Estimate how long a number of restores takes.
+     *
+     * @param kind The kind of restore
+     * @param count Number of restores
+     * @param bytes Total size of their backups
+     * @return The estimate in milliseconds, or -1 without any history
+     */
+    public synchronized long estimateMillis(final RestoreQuery.Kind kind,
+                                            final int count,
+                                            final long bytes)
+    {
+        Deque<long[]> curr = samples.get(kind);
+        if (curr == null || curr.isEmpty())
+        {
+            return -1;
+        }
+
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        double n = curr.size();
+        double sumBytes = 0;
+        double sumMillis = 0;
+        for (long[] s : curr)
+        {
+            sumBytes += s[0];
+            sumMillis += s[1];
+        }
+
+        double meanBytes = sumBytes / n;
+        double meanMillis = sumMillis / n;
+
+        double cov = 0;
+        double var = 0;
+        for (long[] s : curr)
+        {
+            cov += (s[0] - meanBytes) * (s[1] - meanMillis);
+            var += (s[0] - meanBytes) * (s[0] - meanBytes);
+        }
+
+        double perByte;
+        double perRestore;
+        if (var > 0 && cov > 0)
+        {
+            perByte = cov / var;
+            perRestore = Math.max(0, meanMillis - perByte * meanBytes);
+        }
+        else if (meanBytes > 0)
+        {
+            // Too few or too alike samples for a slope, use the average rate
+            perByte = meanMillis / meanBytes;
+            perRestore = 0;
+        }
+        else
+        {
+            perByte = 0;
+            perRestore = meanMillis;
+        }
+
+        return Math.round(count * perRestore + bytes * perByte);
+    }
+
+    private void rewrite() throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(tmp))
+        {
+            for (Map.Entry<RestoreQuery.Kind, Deque<long[]>> e : samples.entrySet())
+            {
+                for (long[] s : e.getValue())
+                {
+                    writer.write(String.format("%s,%d,%d%n", e.getKey(), s[0], s[1]));
+                }
+            }
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
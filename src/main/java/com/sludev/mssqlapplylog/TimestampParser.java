@@ -0,0 +1,408 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Parses the timestamp out of backup file names.
+ *
+ * The file regex and date pattern are compiled once.  Fixed-width numeric
+ * date patterns, e.g. "yyyyMMddHHmmss", are decoded straight from the file
+ * name characters without allocating.  Any other date pattern falls back on
+ * a DateTimeFormatter.  Times are in UTC.
+ *
+ * A parser reuses its Matcher so it is not thread-safe.
+ *
+ * @author Kervin Pierre
+ */
+public final class TimestampParser
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(TimestampParser.class);
+
+    /**
+     * Returned when the file name does not match the file regex.
+     */
+    public static final long NO_MATCH = Long.MIN_VALUE;
+
+    /**
+     * Returned when the file name matches but holds no valid timestamp.
+     */
+    public static final long INVALID = Long.MIN_VALUE + 1;
+
+    private static final int YEAR = 0;
+    private static final int MONTH = 1;
+    private static final int DAY = 2;
+    private static final int HOUR = 3;
+    private static final int MINUTE = 4;
+    private static final int SECOND = 5;
+    private static final int MILLI = 6;
+
+    private static final int[] FIELD_WIDTHS =
+    {
+        4, 2, 2, 2, 2, 2, 3
+    };
+
+    private static final int[] DAYS_IN_MONTH =
+    {
+        31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31
+    };
+
+    private final String filePatternStr;
+    private final String datePatternStr;
+    private final int datePatternPos;
+    private final Matcher matcher;
+    private final DateTimeFormatter formatter;
+
+    // Fast path layout.  Null if the date pattern is not fixed-width numeric.
+    private final int[] fieldOffsets;
+    private final String literals;
+    private final int width;
+
+    private TimestampParser(final String filePatternStr,
+                            final String datePatternStr,
+                            final int datePatternPos,
+                            final Matcher matcher,
+                            final DateTimeFormatter formatter,
+                            final int[] fieldOffsets,
+                            final String literals)
+    {
+        this.filePatternStr = filePatternStr;
+        this.datePatternStr = datePatternStr;
+        this.datePatternPos = datePatternPos;
+        this.matcher = matcher;
+        this.formatter = formatter;
+        this.fieldOffsets = fieldOffsets;
+        this.literals = literals;
+        this.width = literals == null ? 0 : literals.length();
+    }
+
+    /**
+     * @param filePatternStr The regex that selects the files
+     * @param datePatternStr The DateTimeFormatter pattern of the timestamp in the file name
+     * @param datePatternPos The group in the file regex that holds the timestamp
+     * @return The parser
+     * @throws IllegalArgumentException If the regex or date pattern is invalid
+     */
+    public static TimestampParser from(final String filePatternStr,
+                                       final String datePatternStr,
+                                       final int datePatternPos)
+    {
+        Matcher matcher = Pattern.compile(filePatternStr).matcher("");
+
+        if (matcher.groupCount() < datePatternPos)
+        {
+            throw new IllegalArgumentException(String.format("Invalid File Regex Pattern.  "
+                    + "There should be at least %d date group in '%s'",
+                    datePatternPos, filePatternStr));
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(datePatternStr)
+                .withZone(ZoneId.of("UTC"));
+
+        int[] fieldOffsets = new int[FIELD_WIDTHS.length];
+        String literals = compileFixedWidth(datePatternStr, fieldOffsets);
+
+        TimestampParser res = new TimestampParser(filePatternStr, datePatternStr,
+                datePatternPos, matcher, formatter,
+                literals == null ? null : fieldOffsets, literals);
+
+        return res;
+    }
+
+    /**
+     * Work out where each field of a fixed-width numeric date pattern sits.
+     *
+     * @param datePatternStr The date pattern
+     * @param fieldOffsets Filled with the offset of each field, or -1 if absent
+     * @return The pattern's literal characters with '0' where digits go, or
+     *         null if the pattern is not fixed-width numeric
+     */
+    private static String compileFixedWidth(final String datePatternStr,
+                                            final int[] fieldOffsets)
+    {
+        StringBuilder res = new StringBuilder();
+
+        for (int i = 0; i < fieldOffsets.length; i++)
+        {
+            fieldOffsets[i] = -1;
+        }
+
+        int i = 0;
+        while (i < datePatternStr.length())
+        {
+            char c = datePatternStr.charAt(i);
+
+            int run = 1;
+            while (i + run < datePatternStr.length() && datePatternStr.charAt(i + run) == c)
+            {
+                run++;
+            }
+
+            int field;
+            switch (c)
+            {
+                case 'y':
+                case 'u':
+                    field = YEAR;
+                    break;
+
+                case 'M':
+                    field = MONTH;
+                    break;
+
+                case 'd':
+                    field = DAY;
+                    break;
+
+                case 'H':
+                    field = HOUR;
+                    break;
+
+                case 'm':
+                    field = MINUTE;
+                    break;
+
+                case 's':
+                    field = SECOND;
+                    break;
+
+                case 'S':
+                    field = MILLI;
+                    break;
+
+                default:
+                    if (Character.isLetter(c) || c == '\'' || c == '[' || c == ']'
+                            || c == '#' || c == '{' || c == '}')
+                    {
+                        // Text fields, quoting and optional sections need the formatter
+                        return null;
+                    }
+
+                    for (int j = 0; j < run; j++)
+                    {
+                        res.append(c);
+                    }
+
+                    i += run;
+
+                    continue;
+            }
+
+            if (run != FIELD_WIDTHS[field] || fieldOffsets[field] >= 0)
+            {
+                return null;
+            }
+
+            fieldOffsets[field] = res.length();
+            for (int j = 0; j < run; j++)
+            {
+                res.append('0');
+            }
+
+            i += run;
+        }
+
+        if (fieldOffsets[YEAR] < 0 || fieldOffsets[MONTH] < 0 || fieldOffsets[DAY] < 0)
+        {
+            return null;
+        }
+
+        return res.toString();
+    }
+
+    public String getFilePatternStr()
+    {
+        return filePatternStr;
+    }
+
+    public String getDatePatternStr()
+    {
+        return datePatternStr;
+    }
+
+    /**
+     * @return True if timestamps are decoded without the DateTimeFormatter
+     */
+    public boolean isFixedWidth()
+    {
+        return literals != null;
+    }
+
+    /**
+     * @param fileName The file name
+     * @return True if the file name matches the file regex
+     */
+    public boolean matches(final CharSequence fileName)
+    {
+        return matcher.reset(fileName).matches();
+    }
+
+    /**
+     * Parse the timestamp from a file name.
+     *
+     * @param fileName The file name, without its directory
+     * @return Milliseconds since the epoch, NO_MATCH or INVALID
+     */
+    public long parseEpochMillis(final CharSequence fileName)
+    {
+        if (matcher.reset(fileName).matches() == false)
+        {
+            return NO_MATCH;
+        }
+
+        int start = matcher.start(datePatternPos);
+        int end = matcher.end(datePatternPos);
+
+        if (start < 0)
+        {
+            return INVALID;
+        }
+
+        if (literals != null)
+        {
+            if (end - start != width)
+            {
+                return INVALID;
+            }
+
+            return decode(fileName, start);
+        }
+
+        try
+        {
+            return Instant.from(formatter.parse(fileName.subSequence(start, end))).toEpochMilli();
+        }
+        catch (RuntimeException ex)
+        {
+            LOGGER.debug(String.format("Error parsing '%s' with '%s'", fileName,
+                    datePatternStr), ex);
+
+            return INVALID;
+        }
+    }
+
+    /**
+     * Parse the timestamp from a file's name.
+     *
+     * @param path The file
+     * @return The timestamp, or null if the name does not match or holds no valid timestamp
+     */
+    public Instant parse(final Path path)
+    {
+        long res = parseEpochMillis(path.getFileName().toString());
+
+        if (res == NO_MATCH || res == INVALID)
+        {
+            return null;
+        }
+
+        return Instant.ofEpochMilli(res);
+    }
+
+    private long decode(final CharSequence str, final int start)
+    {
+        // Literal characters must be where the pattern puts them
+        for (int i = 0; i < width; i++)
+        {
+            char p = literals.charAt(i);
+            char c = str.charAt(start + i);
+
+            if (p == '0')
+            {
+                if (c < '0' || c > '9')
+                {
+                    return INVALID;
+                }
+            }
+            else if (p != c)
+            {
+                return INVALID;
+            }
+        }
+
+        int year = field(str, start, YEAR);
+        int month = field(str, start, MONTH);
+        int day = field(str, start, DAY);
+        int hour = field(str, start, HOUR);
+        int minute = field(str, start, MINUTE);
+        int second = field(str, start, SECOND);
+        int milli = field(str, start, MILLI);
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59)
+        {
+            return INVALID;
+        }
+
+        long days = daysFromCivil(year, month, day);
+
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + milli;
+    }
+
+    private int field(final CharSequence str, final int start, final int field)
+    {
+        int offset = fieldOffsets[field];
+        if (offset < 0)
+        {
+            return 0;
+        }
+
+        int res = 0;
+        for (int i = 0; i < FIELD_WIDTHS[field]; i++)
+        {
+            res = res * 10 + (str.charAt(start + offset + i) - '0');
+        }
+
+        return res;
+    }
+
+    private static int daysInMonth(final int year, final int month)
+    {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)))
+        {
+            return 29;
+        }
+
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long daysFromCivil(final int year, final int month, final int day)
+    {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+
+        return era * 146097L + doe - 719468;
+    }
+}
@@ -31,15 +31,22 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Watch a list of folders for File-system events.
  * 
+ * Every folder is registered with the one WatchService, so a single thread
+ * serves them all.  Each event is passed on with the folder it was found
+ * under.
+ * 
  * @author Kervin Pierre
  */
 public final class Watch
@@ -48,6 +55,7 @@ public final class Watch
 
     private final WatchService watcher;
     private final Map<WatchKey,Path> keys;
+    private final List<Path> roots;
     private final boolean recursive;
 
     public WatchService getWatcher()
@@ -60,6 +68,11 @@ public final class Watch
         return keys;
     }
 
+    public List<Path> getRoots()
+    {
+        return roots;
+    }
+
     public boolean isRecursive()
     {
         return recursive;
@@ -72,19 +85,23 @@ public final class Watch
     {
         this.watcher = watcher;
         this.keys = keys;
+        this.roots = Collections.unmodifiableList(new ArrayList<>(dirs));
         this.recursive = recursive;
 
-        if (recursive)
+        for (Path dir : dirs)
         {
-            LOGGER.debug(String.format("Scanning '%s'...\n", dirs));
+            if (recursive)
+            {
+                LOGGER.debug(String.format("Scanning '%s'...\n", dir));
 
-            registerAll(dirs.get(0), keys, watcher);
+                registerAll(dir, keys, watcher);
 
-            LOGGER.debug("Scanning is done.\n");
-        }
-        else
-        {
-            register(dirs.get(0), keys, watcher);
+                LOGGER.debug("Scanning is done.\n");
+            }
+            else
+            {
+                register(dir, keys, watcher);
+            }
         }
     }
 
@@ -136,7 +153,21 @@ public final class Watch
 
     public void processEvents( WatchAction action ) throws InterruptedException, FileCheckException
     {
-        processEvents( action, getWatcher(), getKeys(), isRecursive() );
+        processEvents( action, null, getWatcher(), getKeys(), getRoots(), isRecursive() );
+    }
+
+    /**
+     * Run the action once per file ready, rather than for every event.
+     * 
+     * @param action Run with a CREATE event for each file, and for OVERFLOW
+     * @param coalescer Folds each file's events
+     * @throws InterruptedException
+     * @throws FileCheckException 
+     */
+    public void processEvents( WatchAction action, WatchEventCoalescer coalescer )
+            throws InterruptedException, FileCheckException
+    {
+        processEvents( action, coalescer, getWatcher(), getKeys(), getRoots(), isRecursive() );
     }
 
     public static void processEvents(final WatchAction action,
@@ -144,16 +175,41 @@ public final class Watch
                                      final Map<WatchKey,Path> keys,
                                      final boolean recursive)
             throws InterruptedException, FileCheckException
+    {
+        processEvents(action, null, watcher, keys, Collections.emptyList(), recursive);
+    }
+
+    /**
+     * @param action Run for every event, or every ready file
+     * @param coalescer Folds each file's events, or null for every event
+     * @param watcher The WatchService
+     * @param keys Registered directories
+     * @param roots The folders watched.  Each event is tagged with the one
+     *              it is under, or with its own directory if none.
+     * @param recursive If true, register new sub-directories
+     * @throws InterruptedException
+     * @throws FileCheckException 
+     */
+    public static void processEvents(final WatchAction action,
+                                     final WatchEventCoalescer coalescer,
+                                     final WatchService watcher,
+                                     final Map<WatchKey,Path> keys,
+                                     final List<Path> roots,
+                                     final boolean recursive)
+            throws InterruptedException, FileCheckException
     {
         LOGGER.debug("Starting processEvents() loop.");
 
         while( true )
         {
-            // wait for key to be signalled
+            // wait for key to be signalled, or for a coalesced file to be ready
+            long wait = coalescer == null ? -1
+                    : coalescer.millisUntilReady(System.currentTimeMillis());
+
             WatchKey key;
             try
             {
-                key = watcher.take();
+                key = wait < 0 ? watcher.take() : watcher.poll(wait, TimeUnit.MILLISECONDS);
             }
             catch( InterruptedException ex )
             {
@@ -162,6 +218,16 @@ public final class Watch
                 throw ex;
             }
 
+            if( key == null )
+            {
+                if( applyReady(action, coalescer, roots) == false )
+                {
+                    return;
+                }
+
+                continue;
+            }
+
             Path dir = keys.get(key);
             if( dir == null )
             {
@@ -174,9 +240,17 @@ public final class Watch
             {
                 WatchEvent.Kind kind = event.kind();
 
-                // TODO :  provide example of how OVERFLOW event is handled
+                // Events were lost.  Tell the action, with the directory
+                // they were lost from, so it can look for itself.
                 if( kind == StandardWatchEventKinds.OVERFLOW )
                 {
+                    if( action.apply((WatchEvent<Path>)event, dir, rootOf(dir, roots)) == WatchAction.STOP )
+                    {
+                        LOGGER.debug("Action stopped the processEvents() loop.");
+
+                        return;
+                    }
+
                     continue;
                 }
 
@@ -189,8 +263,16 @@ public final class Watch
                 // print out event
                 //LOGGER.debug(String.format("%s: %s\n", event.kind().name(), child));
 
-                // TODO : Process event action.
-                action.apply(ev, child);
+                if( coalescer != null )
+                {
+                    coalescer.add(kind, child, System.currentTimeMillis());
+                }
+                else if( action.apply(ev, child, rootOf(dir, roots)) == WatchAction.STOP )
+                {
+                    LOGGER.debug("Action stopped the processEvents() loop.");
+
+                    return;
+                }
 
                 // if directory is created, and watching recursively, then
                 // register it and its sub-directories
@@ -224,7 +306,60 @@ public final class Watch
                     break;
                 }
             }
+
+            if( applyReady(action, coalescer, roots) == false )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run the action for every coalesced file that is ready.
+     * 
+     * @return False if the action stopped the loop
+     */
+    private static boolean applyReady(final WatchAction action,
+                                      final WatchEventCoalescer coalescer,
+                                      final List<Path> roots)
+            throws InterruptedException, FileCheckException
+    {
+        if( coalescer == null )
+        {
+            return true;
+        }
+
+        for( Path ready : coalescer.drain(System.currentTimeMillis()) )
+        {
+            if( action.apply(WatchEventCoalescer.created(ready), ready,
+                    rootOf(ready.getParent(), roots)) == WatchAction.STOP )
+            {
+                LOGGER.debug("Action stopped the processEvents() loop.");
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param dir A registered directory
+     * @param roots The folders watched
+     * @return The root the directory is under, or the directory itself
+     */
+    private static Path rootOf(final Path dir, final List<Path> roots)
+    {
+        // Only a handful of roots
+        for (Path root : roots)
+        {
+            if (dir.startsWith(root))
+            {
+                return root;
+            }
         }
+
+        return dir;
     }
 
     public static Watch from( final List<Path> dirs,
@@ -23,11 +23,23 @@ import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 
 /**
+ * Action run for every File-system event seen by a Watch.
  *
  * @author Kervin Pierre
  */
 @FunctionalInterface
 public interface WatchAction
 {
-    int apply(WatchEvent<Path> event, Path path ) throws FileCheckException, InterruptedException;
+    /**
+     * Returned by an action to stop the Watch's event loop.
+     */
+    int STOP = -1;
+
+    /**
+     * @param event The event.  An OVERFLOW event means events were lost.
+     * @param path The entry the event is for, or the watched directory for OVERFLOW
+     * @param root The watched folder the event was found under
+     * @return STOP to stop the event loop, anything else to carry on
+     */
+    int apply(WatchEvent<Path> event, Path path, Path root ) throws FileCheckException, InterruptedException;
 }
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Folds the bursts of File-system events a single copy makes into one
+ * event per file.
+ *
+ * A file is ready once no event has been seen for it for the quiet period,
+ * or straight away when it was renamed from a temporary name, as rsync does
+ * once its copy is complete.  Temporary files are skipped.  If the temporary
+ * name pattern has a group it is the final file name, e.g. "\.(.+)\.\w{6}"
+ * for rsync's ".northwinddb_20160113121500.trn.Ab12Cd".
+ *
+ * Files are passed on in log order.  A ready file waits while an earlier one
+ * is still settling, so a log renamed into place early can't break the chain.
+ *
+ * Only files first seen being created are passed on.  Not thread-safe, it is
+ * used from the Watch loop.
+ *
+ * @author Kervin Pierre
+ */
+public final class WatchEventCoalescer
+{
+    private static final Logger LOGGER
+            = LogManager.getLogger(WatchEventCoalescer.class);
+
+    public static final long DEFAULT_QUIET_MILLIS = 1000;
+    public static final String DEFAULT_TEMP_PATTERN_STR = "\\.(.+)\\.[A-Za-z0-9]{6}";
+
+    private final long quietMillis;
+    private final Matcher tempMatcher;
+    private final Matcher fileMatcher;
+
+    private final Map<Path, Entry> pending;
+    private final Map<Path, Long> renamed = new HashMap<>();
+
+    private static final class Entry
+    {
+        private long firstEvent;
+        private long lastEvent;
+        private int events;
+        private boolean ready;
+    }
+
+    public long getQuietMillis()
+    {
+        return quietMillis;
+    }
+
+    /**
+     * @return Files waiting to be ready
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    private WatchEventCoalescer(final long quietMillis,
+                                final Matcher tempMatcher,
+                                final Matcher fileMatcher,
+                                final Comparator<Path> order)
+    {
+        this.quietMillis = quietMillis;
+        this.tempMatcher = tempMatcher;
+        this.fileMatcher = fileMatcher;
+        this.pending = new TreeMap<>(order);
+    }
+
+    /**
+     * @param quietMillis How long a file must go without events, null for the default
+     * @param tempPatternStr Regex for temporary file names, null for rsync's, blank for none
+     * @param filePatternStr Regex for the files wanted, blank for every file
+     * @return The coalescer, passing on files in name order
+     */
+    public static WatchEventCoalescer from(final Long quietMillis,
+                                           final String tempPatternStr,
+                                           final String filePatternStr)
+    {
+        return from(quietMillis, tempPatternStr, filePatternStr, null);
+    }
+
+    /**
+     * @param quietMillis How long a file must go without events, null for the default
+     * @param tempPatternStr Regex for temporary file names, null for rsync's, blank for none
+     * @param filePatternStr Regex for the files wanted, blank for every file
+     * @param logOrder The order logs are restored in, ties by name.  Null for name order.
+     * @return The coalescer
+     */
+    public static WatchEventCoalescer from(final Long quietMillis,
+                                           final String tempPatternStr,
+                                           final String filePatternStr,
+                                           final Comparator<Path> logOrder)
+    {
+        Comparator<Path> byName = Comparator.comparing(Path::getFileName)
+                .thenComparing(Comparator.naturalOrder());
+
+        String tempStr = tempPatternStr == null ? DEFAULT_TEMP_PATTERN_STR : tempPatternStr;
+
+        // Matchers are reset for every name, rather than created
+        WatchEventCoalescer res = new WatchEventCoalescer(
+                quietMillis == null || quietMillis < 0 ? DEFAULT_QUIET_MILLIS : quietMillis,
+                StringUtils.isBlank(tempStr) ? null : Pattern.compile(tempStr).matcher(""),
+                StringUtils.isBlank(filePatternStr) ? null : Pattern.compile(filePatternStr).matcher(""),
+                logOrder == null ? byName : logOrder.thenComparing(byName));
+
+        return res;
+    }
+
+    /**
+     * @return A CREATE event for a ready file
+     */
+    public static WatchEvent<Path> created(final Path path)
+    {
+        final Path name = path.getFileName();
+
+        return new WatchEvent<Path>()
+        {
+            @Override
+            public WatchEvent.Kind<Path> kind()
+            {
+                return StandardWatchEventKinds.ENTRY_CREATE;
+            }
+
+            @Override
+            public int count()
+            {
+                return 1;
+            }
+
+            @Override
+            public Path context()
+            {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Take in a File-system event.
+     *
+     * @param kind CREATE, MODIFY or DELETE
+     * @param path The file
+     * @param now The current time in milliseconds
+     */
+    public void add(final WatchEvent.Kind<?> kind, final Path path, final long now)
+    {
+        String name = path.getFileName().toString();
+
+        if (tempMatcher != null && tempMatcher.reset(name).matches())
+        {
+            // Renamed into place, or abandoned
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE && tempMatcher.groupCount() > 0
+                    && tempMatcher.group(1) != null)
+            {
+                renamed.put(path.resolveSibling(tempMatcher.group(1)), now);
+            }
+
+            return;
+        }
+
+        if (fileMatcher != null && fileMatcher.reset(name).matches() == false)
+        {
+            return;
+        }
+
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE)
+        {
+            pending.remove(path);
+
+            return;
+        }
+
+        Entry entry = pending.get(path);
+        if (entry == null)
+        {
+            // Changes to files that were already there are not new logs
+            if (kind != StandardWatchEventKinds.ENTRY_CREATE)
+            {
+                return;
+            }
+
+            entry = new Entry();
+            entry.firstEvent = now;
+
+            Long tempDeleted = renamed.remove(path);
+            entry.ready = tempDeleted != null && now - tempDeleted <= quietMillis;
+
+            pending.put(path, entry);
+        }
+
+        entry.lastEvent = now;
+        entry.events++;
+    }
+
+    /**
+     * @param now The current time in milliseconds
+     * @return Milliseconds until the earliest file could be ready, 0 if it
+     *         is ready now, or -1 if nothing is pending
+     */
+    public long millisUntilReady(final long now)
+    {
+        if (pending.isEmpty())
+        {
+            return -1;
+        }
+
+        // Later files wait for it anyway
+        Entry entry = pending.values().iterator().next();
+
+        return entry.ready ? 0 : Math.max(0, entry.lastEvent + quietMillis - now);
+    }
+
+    /**
+     * Remove the files that are ready, up to the first that is not.
+     *
+     * @param now The current time in milliseconds
+     * @return The ready files, in log order
+     */
+    public List<Path> drain(final long now)
+    {
+        List<Path> res = new ArrayList<>();
+
+        Iterator<Map.Entry<Path, Entry>> it = pending.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Path, Entry> curr = it.next();
+            Entry entry = curr.getValue();
+
+            if (entry.ready == false && now - entry.lastEvent < quietMillis)
+            {
+                // Later files are held back until it settles
+                break;
+            }
+
+            it.remove();
+
+            res.add(curr.getKey());
+
+            LOGGER.debug("'{}' is ready after {} events", curr.getKey(), entry.events);
+
+            // From the first event until the copy settled
+            RestoreTracer.record("settle", curr.getKey(), entry.firstEvent, now);
+        }
+
+        // Temp files deleted without a rename
+        renamed.values().removeIf(t -> now - t > quietMillis);
+
+        return res;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ApplyLogMetricsTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * A second job registering the same target fails, and leaves the first
+     * job's metrics in place.  Another server's target of the same name does
+     * not conflict.
+     */
+    @Test
+    public void test0001() throws Exception
+    {
+        ApplyLogMetrics first = ApplyLogMetrics.from("northwinddb", "10.0.0.2:1433");
+        ApplyLogMetrics second = ApplyLogMetrics.from("northwinddb", "10.0.0.2:1433");
+        ApplyLogMetrics other = ApplyLogMetrics.from("northwinddb", "10.0.0.3:1433");
+
+        ObjectName on = new ObjectName(
+                "com.sludev.mssqlapplylog:type=ApplyLogMetrics,name=\"northwinddb\",server=\"10.0.0.2:1433\"");
+
+        try
+        {
+            first.register();
+            Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(on));
+
+            try
+            {
+                second.register();
+                Assert.fail("A conflicting registration should fail");
+            }
+            catch (MSSQLApplyLogException ex)
+            {
+                // Expected
+            }
+
+            Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(on));
+
+            other.register();
+        }
+        finally
+        {
+            first.unregister();
+            second.unregister();
+            other.unregister();
+        }
+
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(on));
+    }
+}
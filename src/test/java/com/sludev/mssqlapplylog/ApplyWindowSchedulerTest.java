@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ApplyWindowSchedulerTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * Offers past the limit are dropped, without blocking, until a rescan.
+     */
+    @Test
+    public void test0001()
+    {
+        ApplyLogMetrics metrics = ApplyLogMetrics.from("northwinddb");
+        RestoreTarget target = RestoreTarget.from("jdbc:jtds:sqlserver://localhost",
+                new Properties(), "northwinddb", null, null, null, null, null, metrics);
+
+        // Hourly windows, not started, so nothing is restored
+        try (ApplyWindowScheduler windows = ApplyWindowScheduler.from(target,
+                ApplyWindows.from(3600L, null), metrics, 2))
+        {
+            Assert.assertTrue(windows.offer(Paths.get("northwinddb_20160113121500.trn")));
+            Assert.assertTrue(windows.offer(Paths.get("northwinddb_20160113123000.trn")));
+            Assert.assertFalse(windows.offer(Paths.get("northwinddb_20160113124500.trn")));
+            Assert.assertFalse(windows.offer(Paths.get("northwinddb_20160113130000.trn")));
+
+            Assert.assertEquals(2, metrics.getPendingLogs());
+            Assert.assertEquals(2, metrics.getPendingLogsHighWater());
+            Assert.assertEquals(1, metrics.getQueueOverflows());
+        }
+    }
+
+    /**
+     * Once stopped, a window restores nothing and hands every log back.
+     */
+    @Test
+    public void test0002() throws Exception
+    {
+        ApplyLogMetrics metrics = ApplyLogMetrics.from("northwinddb");
+        RestoreTarget target = RestoreTarget.from("jdbc:jtds:sqlserver://localhost",
+                new Properties(), "northwinddb", null, null, null, null, null, metrics);
+
+        AtomicInteger events = new AtomicInteger();
+
+        try (ApplyWindowScheduler windows = ApplyWindowScheduler.from(target, null, metrics))
+        {
+            windows.setListener(new ApplyLogListener()
+            {
+                @Override
+                public void logApplied(final String target, final Path logPath, final long millis)
+                {
+                    events.incrementAndGet();
+                }
+
+                @Override
+                public void logFailed(final String target, final Path logPath, final Exception cause)
+                {
+                    events.incrementAndGet();
+                }
+            }, "northwinddb");
+
+            windows.stop();
+
+            List<Path> logs = Arrays.asList(Paths.get("northwinddb_20160113121500.trn"),
+                    Paths.get("northwinddb_20160113123000.trn"));
+
+            Assert.assertEquals(logs, windows.submit(logs).get());
+            Assert.assertEquals(0, events.get());
+            Assert.assertEquals(0, metrics.getRestoresStarted());
+        }
+    }
+
+    /**
+     * A window that can't reach the server says so, so the logs wait for it.
+     */
+    @Test
+    public void test0003() throws Exception
+    {
+        ApplyLogMetrics metrics = ApplyLogMetrics.from("northwinddb");
+
+        // Nothing listens on port 1, no retries
+        RestoreTarget target = RestoreTarget.from("jdbc:jtds:sqlserver://127.0.0.1:1;loginTimeout=5",
+                new Properties(), "northwinddb", null, null, null,
+                FailurePolicy.from(0, null, null, null, null), null, metrics);
+
+        try (ApplyWindowScheduler windows = ApplyWindowScheduler.from(target, null, metrics))
+        {
+            List<Path> logs = Arrays.asList(Paths.get("northwinddb_20160113121500.trn"),
+                    Paths.get("northwinddb_20160113123000.trn"));
+
+            Assert.assertEquals(logs, windows.submit(logs).get());
+            Assert.assertEquals(FailureKind.CONNECTION, windows.getLastFailure());
+        }
+    }
+}
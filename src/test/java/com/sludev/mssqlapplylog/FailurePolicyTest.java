@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FailurePolicyTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    private static SQLException restoreError(int code)
+    {
+        SQLException res = new SQLException("Restore failed", "S1000", code);
+
+        // SQL Server follows the specific error with a generic 3013
+        res.setNextException(new SQLException("RESTORE LOG is terminating abnormally.",
+                "S1000", 3013));
+
+        return res;
+    }
+
+    /**
+     * Failures are classified from the whole SQL Server error chain.
+     */
+    @Test
+    public void test0001()
+    {
+        FailurePolicy policy = FailurePolicy.from();
+
+        Assert.assertEquals(FailureKind.ALREADY_APPLIED, policy.classify(restoreError(4326)));
+        Assert.assertEquals(FailureKind.CHAIN, policy.classify(restoreError(4305)));
+        Assert.assertEquals(FailureKind.TRANSIENT, policy.classify(restoreError(3201)));
+        Assert.assertEquals(FailureKind.TRANSIENT,
+                policy.classify(new SQLTimeoutException("Timed out", "HYT00")));
+        Assert.assertEquals(FailureKind.CONNECTION,
+                policy.classify(new SQLException("I/O Error", "08S01")));
+
+        // Unknown errors are not safe to skip past
+        Assert.assertEquals(FailureKind.CHAIN, policy.classify(restoreError(50000)));
+    }
+
+    /**
+     * Backoff doubles up to the maximum, with jitter of at most half.
+     */
+    @Test
+    public void test0002()
+    {
+        FailurePolicy policy = FailurePolicy.from(5, 100L, 1000L, 3, 500L);
+
+        for (int i = 0; i < 100; i++)
+        {
+            long first = policy.backoffMillis(1);
+            Assert.assertTrue(first >= 50 && first <= 100);
+
+            long third = policy.backoffMillis(3);
+            Assert.assertTrue(third >= 200 && third <= 400);
+
+            long capped = policy.backoffMillis(20);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    /**
+     * The breaker opens after consecutive connection failures and closes on success.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void test0003() throws Exception
+    {
+        CircuitBreaker breaker = FailurePolicy.from(5, 100L, 1000L, 2, 50L)
+                .newCircuitBreaker("test");
+
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(1, breaker.getTrips());
+
+        long start = System.currentTimeMillis();
+        breaker.awaitClosed();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 40);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.recordSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LeaseStoreTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    /**
+     * A job is held by one node at a time, and released to the next.
+     */
+    @Test
+    public void test0001() throws Exception
+    {
+        Path dir = m_tempFolder.getRoot().toPath();
+
+        LeaseStore nodeA = LeaseStore.from(dir, "nodeA", 60000L);
+        LeaseStore nodeB = LeaseStore.from(dir, "nodeB", 60000L);
+
+        LeaseStore.Lease leaseA = nodeA.tryAcquire("northwinddb");
+        Assert.assertNotNull(leaseA);
+        Assert.assertNull(nodeB.tryAcquire("northwinddb"));
+
+        LeaseStore.Lease renewed = nodeA.renew(leaseA);
+        Assert.assertNotNull(renewed);
+        Assert.assertEquals(leaseA.getToken(), renewed.getToken());
+
+        nodeA.release(renewed);
+
+        LeaseStore.Lease leaseB = nodeB.tryAcquire("northwinddb");
+        Assert.assertNotNull(leaseB);
+        Assert.assertEquals(leaseA.getToken() + 1, leaseB.getToken());
+        Assert.assertFalse(leaseA.isCurrent());
+    }
+
+    /**
+     * A node that stops heartbeating loses its job, and is fenced off.
+     */
+    @Test
+    public void test0002() throws Exception
+    {
+        Path dir = m_tempFolder.getRoot().toPath();
+
+        LeaseStore nodeA = LeaseStore.from(dir, "nodeA", 200L);
+        LeaseStore nodeB = LeaseStore.from(dir, "nodeB", 200L);
+
+        LeaseStore.Lease leaseA = nodeA.tryAcquire("northwinddb");
+        Assert.assertTrue(leaseA.isCurrent());
+
+        Thread.sleep(300);
+
+        LeaseStore.Lease leaseB = nodeB.tryAcquire("northwinddb");
+        Assert.assertNotNull(leaseB);
+        Assert.assertTrue(leaseB.getToken() > leaseA.getToken());
+
+        Assert.assertFalse(leaseA.isCurrent());
+        Assert.assertNull(nodeA.renew(leaseA));
+        Assert.assertTrue(leaseB.isCurrent());
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LogIndexTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static final String LOG_PATTERN = "northwinddb_(\\d+)\\.trn";
+    private static final String LOG_DATE_PATTERN = "yyyyMMddHHmmss";
+
+    private LogIndex createIndex(String... stamps) throws IOException
+    {
+        Path dir = m_folder.getRoot().toPath();
+
+        for (String stamp : stamps)
+        {
+            Files.createFile(dir.resolve(String.format("northwinddb_%s.trn", stamp)));
+        }
+
+        // Not a log backup
+        Files.createFile(dir.resolve("northwinddb_201601131200.bak"));
+
+        return LogIndex.from(dir, false, LOG_PATTERN, LOG_DATE_PATTERN);
+    }
+
+    /**
+     * Logs are sorted by timestamp whatever the directory order.
+     */
+    @Test
+    public void test0001() throws IOException
+    {
+        LogIndex index = createIndex("20160113130000", "20160113121500",
+                "20160113124500", "20160113123000");
+
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals(Instant.parse("2016-01-13T12:15:00Z"), index.getTimestamp(0));
+        Assert.assertEquals(Instant.parse("2016-01-13T13:00:00Z"), index.getTimestamp(3));
+        Assert.assertEquals("northwinddb_20160113123000.trn",
+                index.getPath(1).getFileName().toString());
+    }
+
+    /**
+     * Ceiling finds the first log at or after a time.
+     */
+    @Test
+    public void test0002() throws IOException
+    {
+        LogIndex index = createIndex("20160113121500", "20160113123000",
+                "20160113124500", "20160113130000");
+
+        Assert.assertEquals(0, index.ceiling(null));
+        Assert.assertEquals(0, index.ceiling(Instant.parse("2016-01-13T12:00:00Z")));
+        Assert.assertEquals(1, index.ceiling(Instant.parse("2016-01-13T12:30:00Z")));
+        Assert.assertEquals(2, index.ceiling(Instant.parse("2016-01-13T12:30:01Z")));
+        Assert.assertEquals(4, index.ceiling(Instant.parse("2016-01-13T13:00:01Z")));
+
+        Assert.assertEquals(2, index.after(Instant.parse("2016-01-13T12:40:00Z")).size());
+    }
+
+    /**
+     * The covering set ends with the first log past the stop time.
+     */
+    @Test
+    public void test0003() throws IOException
+    {
+        LogIndex index = createIndex("20160113121500", "20160113123000",
+                "20160113124500", "20160113130000");
+
+        List<Path> files = index.coveringSet(Instant.parse("2016-01-13T12:20:00Z"),
+                Instant.parse("2016-01-13T12:40:00Z"));
+
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals("northwinddb_20160113123000.trn",
+                files.get(0).getFileName().toString());
+        Assert.assertEquals("northwinddb_20160113124500.trn",
+                files.get(1).getFileName().toString());
+
+        // No log reaches this far yet
+        Assert.assertNull(index.coveringSet(null, Instant.parse("2016-01-13T13:30:00Z")));
+    }
+
+    /**
+     * A later scan carries on after the last log seen, even among equal timestamps.
+     */
+    @Test
+    public void test0004() throws IOException
+    {
+        LogIndex.Builder builder = new LogIndex.Builder(
+                Collections.singletonList(m_folder.getRoot().toPath()));
+
+        long noon = Instant.parse("2016-01-13T12:00:00Z").toEpochMilli();
+
+        builder.add(0, "northwinddb_c.trn", noon, 300);
+        builder.add(0, "northwinddb_a.trn", noon, 100);
+        builder.add(0, "northwinddb_d.trn", noon + 1000, 400);
+        builder.add(0, "northwinddb_b.trn", noon, 200);
+
+        LogIndex index = builder.build();
+
+        Assert.assertEquals("northwinddb_a.trn", index.getFileName(0));
+        Assert.assertEquals(200, index.getSize(1));
+        Assert.assertEquals(3, index.next(2));
+        Assert.assertEquals(-1, index.next(3));
+
+        Assert.assertEquals(2, index.higher(Instant.ofEpochMilli(noon), "northwinddb_b.trn"));
+        Assert.assertEquals(3, index.higher(Instant.ofEpochMilli(noon), "northwinddb_c.trn"));
+        Assert.assertEquals(4, index.higher(Instant.ofEpochMilli(noon + 1000), "northwinddb_d.trn"));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RestoreQueryTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * STOPAT is written in SQL Server's time zone, whatever this JVM's is.
+     */
+    @Test
+    public void test0001()
+    {
+        Instant stopAt = Instant.parse("2016-01-13T17:30:00Z");
+
+        RestoreQuery query = RestoreQuery.forLog("northwinddb",
+                Paths.get("northwinddb_20160113173000.trn"))
+                .setStopAt(stopAt, ZoneId.of("America/New_York"));
+
+        Assert.assertEquals("RECOVERY", query.getOptions().get(0));
+        Assert.assertEquals("STOPAT = '2016-01-13T12:30:00.000'", query.getOptions().get(1));
+
+        query = RestoreQuery.forLog("northwinddb",
+                Paths.get("northwinddb_20160113173000.trn"))
+                .setStopAt(stopAt, ZoneId.of("UTC"));
+
+        Assert.assertEquals("STOPAT = '2016-01-13T17:30:00.000'", query.getOptions().get(1));
+    }
+
+    /**
+     * A differential is restored with RESTORE DATABASE, but is a kind of its
+     * own so it is timed apart from full restores.
+     */
+    @Test
+    public void test0002()
+    {
+        RestoreQuery query = RestoreQuery.forDifferential("northwinddb",
+                Paths.get("northwinddb_diff201601131800.bak"));
+
+        Assert.assertEquals(RestoreQuery.Kind.DIFFERENTIAL, query.getKind());
+        Assert.assertTrue(query.getKind().isRestore());
+        Assert.assertTrue(query.toSql().startsWith("RESTORE DATABASE northwinddb FROM "));
+        Assert.assertTrue(query.toSql().endsWith(" WITH NORECOVERY"));
+    }
+}
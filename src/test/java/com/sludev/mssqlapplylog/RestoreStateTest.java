@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.math.BigDecimal;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RestoreStateTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * The last log is named when the database stopped where that log ended.
+     */
+    @Test
+    public void test0001()
+    {
+        RestoreState state = RestoreState.from("northwinddb", "L",
+                "E:\\backups\\northwinddb_20160113123000.trn",
+                new BigDecimal("34000000016800001"), new BigDecimal("34000000016800001"));
+
+        Assert.assertTrue(state.isLogChainCurrent());
+        Assert.assertEquals("northwinddb_20160113123000.trn", state.getLastLogFileName());
+    }
+
+    /**
+     * Anything else, and nothing is skipped.
+     */
+    @Test
+    public void test0002()
+    {
+        // Restored some other way since
+        Assert.assertNull(RestoreState.from("northwinddb", "L", "/backups/a.trn",
+                new BigDecimal("100"), new BigDecimal("200")).getLastLogFileName());
+
+        // Recovered, no longer restoring
+        Assert.assertNull(RestoreState.from("northwinddb", "L", "/backups/a.trn",
+                new BigDecimal("100"), null).getLastLogFileName());
+
+        // Only the full backup so far
+        Assert.assertNull(RestoreState.from("northwinddb", "D", "/backups/a.bak",
+                new BigDecimal("100"), new BigDecimal("100")).getLastLogFileName());
+    }
+
+    /**
+     * A full restore is skipped only when the database is still restoring
+     * from that same backup.
+     */
+    @Test
+    public void test0003()
+    {
+        BackupHeader full = BackupHeader.from("6A1E4F2B-0C8D-4E2A-9F3B-1D2C3B4A5F60", 1,
+                new BigDecimal("34000000015600037"), new BigDecimal("34000000016800001"));
+
+        // Logs applied since, still restoring
+        Assert.assertTrue(RestoreState.from("northwinddb", "L", "/backups/a.trn",
+                new BigDecimal("34000000017200001"), new BigDecimal("34000000017200001"),
+                "6a1e4f2b-0c8d-4e2a-9f3b-1d2c3b4a5f60", new BigDecimal("34000000015600037"))
+                .isRestoringFrom(full));
+
+        // Seeded from some other backup
+        Assert.assertFalse(RestoreState.from("northwinddb", "D", "/backups/b.bak",
+                new BigDecimal("34000000016800001"), new BigDecimal("34000000016800001"),
+                "0B2D8A61-77E3-4C1F-8E0A-5C6D7E8F9A01", new BigDecimal("34000000015600037"))
+                .isRestoringFrom(full));
+
+        // Recovered, no longer restoring
+        Assert.assertFalse(RestoreState.from("northwinddb", "L", "/backups/a.trn",
+                new BigDecimal("34000000017200001"), null,
+                "6A1E4F2B-0C8D-4E2A-9F3B-1D2C3B4A5F60", new BigDecimal("34000000015600037"))
+                .isRestoringFrom(full));
+
+        // No history of the base
+        Assert.assertFalse(RestoreState.from("northwinddb", "L", "/backups/a.trn",
+                new BigDecimal("100"), new BigDecimal("100")).isRestoringFrom(full));
+    }
+
+    /**
+     * A differential backup applies over its own full backup, while it
+     * still moves the database forward.
+     */
+    @Test
+    public void test0004()
+    {
+        BackupHeader diff = BackupHeader.from("2C4E6A80-1B3D-4F5A-8C7E-9D0F1A2B3C4D", 5,
+                new BigDecimal("34000000020400037"), new BigDecimal("34000000020800001"),
+                "6A1E4F2B-0C8D-4E2A-9F3B-1D2C3B4A5F60");
+
+        // Only the full backup so far
+        Assert.assertTrue(RestoreState.from("northwinddb", "D", "/backups/a.bak",
+                new BigDecimal("34000000016800001"), new BigDecimal("34000000016800001"),
+                "6A1E4F2B-0C8D-4E2A-9F3B-1D2C3B4A5F60", new BigDecimal("34000000015600037"))
+                .canRestoreDifferential(diff));
+
+        // Logs already past the differential
+        Assert.assertFalse(RestoreState.from("northwinddb", "L", "/backups/b.trn",
+                new BigDecimal("34000000021000001"), new BigDecimal("34000000021000001"),
+                "6A1E4F2B-0C8D-4E2A-9F3B-1D2C3B4A5F60", new BigDecimal("34000000015600037"))
+                .canRestoreDifferential(diff));
+
+        // Based on another full backup
+        Assert.assertFalse(RestoreState.from("northwinddb", "D", "/backups/c.bak",
+                new BigDecimal("34000000016800001"), new BigDecimal("34000000016800001"),
+                "0B2D8A61-77E3-4C1F-8E0A-5C6D7E8F9A01", new BigDecimal("34000000015600037"))
+                .canRestoreDifferential(diff));
+    }
+}
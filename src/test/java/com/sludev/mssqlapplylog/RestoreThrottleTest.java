@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.time.LocalTime;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RestoreThrottleTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    private static final LocalTime NOON = LocalTime.of(12, 0);
+    private static final LocalTime NIGHT = LocalTime.of(23, 0);
+
+    /**
+     * Profiles are picked by time of day, wrapping past midnight.
+     */
+    @Test
+    public void test0001()
+    {
+        ThrottleSchedule schedule = ThrottleSchedule.from(
+                "08:00-18:00=50MB/s,20/min; 22:00-06:00=unlimited");
+
+        Assert.assertEquals(50L * 1024 * 1024, schedule.at(NOON).getBytesPerSecond());
+        Assert.assertEquals(20, schedule.at(NOON).getRestoresPerMinute());
+        Assert.assertEquals("22:00-06:00", schedule.at(LocalTime.of(2, 0)).getName());
+        Assert.assertTrue(schedule.at(NIGHT).isUnlimited());
+        Assert.assertSame(ThrottleSchedule.UNLIMITED, schedule.at(LocalTime.of(20, 0)));
+
+        try
+        {
+            ThrottleSchedule.from("08:00=50MB/s");
+
+            Assert.fail("A profile needs a time range");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Bytes read are paid back at the profile's rate, only during business hours.
+     */
+    @Test
+    public void test0002()
+    {
+        RestoreThrottle throttle = RestoreThrottle.from("northwinddb",
+                ThrottleSchedule.from("08:00-18:00=1MB/s"), null);
+
+        long now = 1000000;
+
+        Assert.assertTrue(throttle.delayMillis(now, NOON) <= 0);
+
+        // 4 MB restored at once is paid back over 4 seconds
+        throttle.restored(4L * 1024 * 1024, now);
+        Assert.assertEquals(4000, throttle.delayMillis(now, NOON));
+        Assert.assertEquals(1500, throttle.delayMillis(now + 2500, NOON));
+        Assert.assertTrue(throttle.delayMillis(now + 4000, NOON) <= 0);
+
+        // At night there is no limit, and no debt is carried into the morning
+        throttle.restored(4L * 1024 * 1024, now + 4000);
+        Assert.assertTrue(throttle.delayMillis(now + 4000, NIGHT) <= 0);
+        Assert.assertTrue(throttle.delayMillis(now + 4000, NOON) <= 0);
+    }
+
+    /**
+     * At most so many restores start in any minute.
+     */
+    @Test
+    public void test0003() throws InterruptedException
+    {
+        RestoreThrottle throttle = RestoreThrottle.from("northwinddb",
+                ThrottleSchedule.from("00:00-00:00=2/min"), null);
+
+        throttle.acquire();
+        throttle.acquire();
+
+        long delay = throttle.delayMillis(System.currentTimeMillis(), NOON);
+
+        Assert.assertTrue(delay > 55000 && delay <= 60000);
+        Assert.assertTrue(throttle.getMeasuredBytesPerSecond() == 0);
+    }
+}
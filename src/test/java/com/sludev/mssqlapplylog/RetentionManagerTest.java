@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class RetentionManagerTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static final String LOG_PATTERN = "northwinddb_(\\d+)\\.trn";
+    private static final String LOG_DATE_PATTERN = "yyyyMMddHHmmss";
+
+    private Path createLogs(String... stamps) throws IOException
+    {
+        Path dir = m_folder.newFolder("backups").toPath();
+
+        for (String stamp : stamps)
+        {
+            Files.write(dir.resolve(String.format("northwinddb_%s.trn", stamp)),
+                    stamp.getBytes("UTF-8"));
+        }
+
+        return dir;
+    }
+
+    private RetentionManager createManager(RetentionPolicy policy, Path dir,
+                                           ApplyCheckpoint checkpoint)
+    {
+        return RetentionManager.from(policy, checkpoint, Collections.singletonList("northwinddb"),
+                Collections.singletonList(dir), false, LOG_PATTERN, LOG_DATE_PATTERN);
+    }
+
+    /**
+     * Only logs before the checkpoint are deleted, the checkpointed log stays.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void test0001() throws Exception
+    {
+        Path dir = createLogs("20160113121500", "20160113123000",
+                "20160113124500", "20160113130000");
+
+        ApplyCheckpoint checkpoint = ApplyCheckpoint.from(m_folder.getRoot().toPath()
+                .resolve("checkpoint.properties"));
+
+        RetentionManager retention = createManager(RetentionPolicy.from(
+                RetentionPolicy.Action.DELETE, null, 0L, null, null), dir, checkpoint);
+
+        // Nothing applied yet
+        Assert.assertEquals(0, retention.sweep());
+
+        checkpoint.applied("northwinddb", "northwinddb_20160113124500.trn");
+
+        // Reloads from the file
+        checkpoint = ApplyCheckpoint.from(checkpoint.getFile());
+        Assert.assertEquals("northwinddb_20160113124500.trn",
+                checkpoint.getLastApplied("northwinddb"));
+
+        retention = createManager(RetentionPolicy.from(
+                RetentionPolicy.Action.DELETE, null, 0L, null, null), dir, checkpoint);
+
+        Assert.assertEquals(2, retention.sweep());
+        Assert.assertTrue(Files.notExists(dir.resolve("northwinddb_20160113121500.trn")));
+        Assert.assertTrue(Files.notExists(dir.resolve("northwinddb_20160113123000.trn")));
+        Assert.assertTrue(Files.exists(dir.resolve("northwinddb_20160113124500.trn")));
+        Assert.assertTrue(Files.exists(dir.resolve("northwinddb_20160113130000.trn")));
+    }
+
+    /**
+     * Applied logs are compressed into a dated archive tree, young logs stay.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void test0002() throws Exception
+    {
+        Path dir = createLogs("20160113121500", "20160113123000", "29990101000000");
+        Path archive = m_folder.getRoot().toPath().resolve("archive");
+
+        ApplyCheckpoint checkpoint = ApplyCheckpoint.from(m_folder.getRoot().toPath()
+                .resolve("checkpoint.properties"));
+        checkpoint.applied("northwinddb", "northwinddb_29990101000000.trn");
+
+        RetentionPolicy policy = RetentionPolicy.from(RetentionPolicy.Action.GZIP,
+                archive.toString(), 24L, null, 1024L * 1024);
+
+        Assert.assertEquals(2, createManager(policy, dir, checkpoint).sweep());
+
+        Path archived = policy.archivePath(dir.resolve("northwinddb_20160113121500.trn"),
+                Instant.parse("2016-01-13T12:15:00Z").toEpochMilli());
+
+        Assert.assertTrue(archived.toString().endsWith(".trn.gz"));
+        Assert.assertTrue(archived.startsWith(archive.resolve("2016")));
+        Assert.assertTrue(Files.notExists(dir.resolve("northwinddb_20160113121500.trn")));
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archived)))
+        {
+            byte[] buffer = new byte[64];
+            int read = in.read(buffer);
+
+            Assert.assertEquals("20160113121500", new String(buffer, 0, read, "UTF-8"));
+        }
+    }
+}
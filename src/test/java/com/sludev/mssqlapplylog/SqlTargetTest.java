@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.util.Properties;
+import java.util.Set;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SqlTargetTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * Targets overlay the main settings, and a new host gets its own URL.
+     */
+    @Test
+    public void test0001()
+    {
+        Properties props = new Properties();
+
+        props.setProperty("sqlTarget.dr1.sqlHost", "10.0.0.2");
+        props.setProperty("sqlTarget.dr1.sqlPass", "dr1_password");
+        props.setProperty("sqlTarget.dr2.sqlDb", "northwinddb_copy");
+        props.setProperty("sqlTargetX", "ignored");
+
+        SqlTarget main = SqlTarget.from("northwinddb", "127.0.0.1", "northwinddb",
+                "restoreadmin", "secret_password", "jdbc:jtds:sqlserver://127.0.0.1:1433",
+                "NETWORK SERVICE");
+
+        Set<String> names = SqlTarget.names(props);
+        Assert.assertEquals(2, names.size());
+        Assert.assertEquals("dr1", names.iterator().next());
+
+        SqlTarget dr1 = SqlTarget.from("dr1", props, main);
+        Assert.assertEquals("northwinddb", dr1.getSqlDb());
+        Assert.assertEquals("restoreadmin", dr1.getSqlUser());
+        Assert.assertEquals("dr1_password", dr1.getSqlPass());
+        Assert.assertEquals("jdbc:jtds:sqlserver://10.0.0.2;DatabaseName=master", dr1.getSqlURL());
+
+        SqlTarget dr2 = SqlTarget.from("dr2", props, main);
+        Assert.assertEquals("northwinddb_copy", dr2.getSqlDb());
+        Assert.assertEquals("jdbc:jtds:sqlserver://127.0.0.1:1433", dr2.getSqlURL());
+        Assert.assertEquals("NETWORK SERVICE", dr2.getSqlProcessUser());
+    }
+
+    /**
+     * The server name keeps the host, port and instance, and nothing else.
+     */
+    @Test
+    public void test0002()
+    {
+        SqlTarget main = SqlTarget.from("northwinddb", "127.0.0.1", "northwinddb",
+                "restoreadmin", "secret_password",
+                "jdbc:jtds:sqlserver://10.0.0.2:1433/northwinddb;instance=DR;user=sa;password=secret_password",
+                null);
+        Assert.assertEquals("10.0.0.2:1433\\DR", main.getSqlServer());
+
+        SqlTarget dr1 = SqlTarget.from("dr1", "10.0.0.3", "northwinddb",
+                "restoreadmin", "secret_password", null, null);
+        Assert.assertEquals("10.0.0.3", dr1.getSqlServer());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TimestampParserTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    /**
+     * Digit-only patterns take the fast path and agree with DateTimeFormatter.
+     */
+    @Test
+    public void test0001()
+    {
+        String datePattern = "yyyyMMddHHmmss";
+        TimestampParser parser = TimestampParser.from("northwinddb_(\\d+)\\.trn",
+                datePattern, 1);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(datePattern)
+                .withZone(ZoneId.of("UTC"));
+
+        Assert.assertTrue(parser.isFixedWidth());
+
+        Random rand = new Random(42);
+        for (int i = 0; i < 10000; i++)
+        {
+            Instant expected = Instant.ofEpochSecond(rand.nextInt(Integer.MAX_VALUE));
+            String name = String.format("northwinddb_%s.trn", formatter.format(expected));
+
+            Assert.assertEquals(name, expected.toEpochMilli(), parser.parseEpochMillis(name));
+        }
+
+        // Leap days
+        Assert.assertEquals(Instant.parse("2016-02-29T23:59:59Z").toEpochMilli(),
+                parser.parseEpochMillis("northwinddb_20160229235959.trn"));
+        Assert.assertEquals(Instant.parse("2000-02-29T00:00:00Z").toEpochMilli(),
+                parser.parseEpochMillis("northwinddb_20000229000000.trn"));
+    }
+
+    /**
+     * Bad names and impossible dates are told apart.
+     */
+    @Test
+    public void test0002()
+    {
+        TimestampParser parser = TimestampParser.from("(?:[\\w_-]+?)(\\d+)\\.bak",
+                "yyyyMMddHHmm", 1);
+
+        Assert.assertEquals(TimestampParser.NO_MATCH, parser.parseEpochMillis("northwinddb.trn"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parseEpochMillis("northwinddb_2016011312.bak"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parseEpochMillis("northwinddb_201513011200.bak"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parseEpochMillis("northwinddb_201502291200.bak"));
+        Assert.assertEquals(TimestampParser.INVALID, parser.parseEpochMillis("northwinddb_201601132400.bak"));
+        Assert.assertEquals(Instant.parse("2016-01-13T12:00:00Z").toEpochMilli(),
+                parser.parseEpochMillis("northwinddb_201601131200.bak"));
+    }
+
+    /**
+     * Literals and milliseconds stay on the fast path.  Anything else uses the formatter.
+     */
+    @Test
+    public void test0003()
+    {
+        TimestampParser parser = TimestampParser.from("log_(.+)\\.trn",
+                "yyyy-MM-dd_HH.mm.ss.SSS", 1);
+
+        Assert.assertTrue(parser.isFixedWidth());
+        Assert.assertEquals(Instant.parse("2016-01-13T12:30:15.250Z").toEpochMilli(),
+                parser.parseEpochMillis("log_2016-01-13_12.30.15.250.trn"));
+        Assert.assertEquals(TimestampParser.INVALID,
+                parser.parseEpochMillis("log_2016-01-13T12.30.15.250.trn"));
+
+        parser = TimestampParser.from("log_(.+)\\.trn", "yyyyDDD'T'HHmm", 1);
+
+        Assert.assertFalse(parser.isFixedWidth());
+        Assert.assertEquals(Instant.parse("2016-01-13T12:30:00Z").toEpochMilli(),
+                parser.parseEpochMillis("log_2016013T1230.trn"));
+        Assert.assertEquals(TimestampParser.INVALID,
+                parser.parseEpochMillis("log_2016400T1230.trn"));
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package com.sludev.mssqlapplylog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runners.MethodSorters;
+
+/**
+ *
+ * @author Kervin Pierre
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WatchEventCoalescerTest
+{
+    @Rule
+    public TestWatcher m_testWatcher = new MSSQLApplyLogTestWatcher();
+
+    private static final Path DIR = Paths.get("backups");
+
+    /**
+     * A copy's burst of events is one file, ready once it goes quiet.
+     */
+    @Test
+    public void test0001()
+    {
+        WatchEventCoalescer coalescer = WatchEventCoalescer.from(1000L, null,
+                "northwinddb_(\\d+)\\.trn");
+        Path log = DIR.resolve("northwinddb_20160113121500.trn");
+
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, log, 0);
+        for (int i = 1; i <= 20; i++)
+        {
+            coalescer.add(StandardWatchEventKinds.ENTRY_MODIFY, log, i * 10);
+        }
+
+        // Changes to files that were already there, or aren't logs
+        coalescer.add(StandardWatchEventKinds.ENTRY_MODIFY,
+                DIR.resolve("northwinddb_20160113120000.trn"), 100);
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, DIR.resolve("notes.txt"), 100);
+
+        Assert.assertEquals(1, coalescer.getPendingCount());
+        Assert.assertEquals(700, coalescer.millisUntilReady(500));
+        Assert.assertTrue(coalescer.drain(500).isEmpty());
+        Assert.assertEquals(Collections.singletonList(log), coalescer.drain(1200));
+        Assert.assertEquals(-1, coalescer.millisUntilReady(1200));
+    }
+
+    /**
+     * rsync's rename from its temp file is ready straight away, the temp file never is.
+     */
+    @Test
+    public void test0002()
+    {
+        WatchEventCoalescer coalescer = WatchEventCoalescer.from(1000L, null,
+                "northwinddb_(\\d+)\\.trn");
+        Path temp = DIR.resolve(".northwinddb_20160113121500.trn.Ab12Cd");
+        Path log = DIR.resolve("northwinddb_20160113121500.trn");
+
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, temp, 0);
+        coalescer.add(StandardWatchEventKinds.ENTRY_MODIFY, temp, 100);
+        coalescer.add(StandardWatchEventKinds.ENTRY_DELETE, temp, 200);
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, log, 200);
+
+        Assert.assertEquals(0, coalescer.millisUntilReady(200));
+        Assert.assertEquals(Collections.singletonList(log), coalescer.drain(200));
+
+        // Deleted before it was ready
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, log, 300);
+        coalescer.add(StandardWatchEventKinds.ENTRY_DELETE, log, 400);
+
+        Assert.assertTrue(coalescer.drain(2000).isEmpty());
+    }
+
+    /**
+     * A later log renamed into place waits for an earlier one still being copied.
+     */
+    @Test
+    public void test0003()
+    {
+        WatchEventCoalescer coalescer = WatchEventCoalescer.from(1000L, null,
+                "northwinddb_(\\d+)\\.trn");
+        Path first = DIR.resolve("northwinddb_20160113121500.trn");
+        Path temp = DIR.resolve(".northwinddb_20160113123000.trn.Ab12Cd");
+        Path second = DIR.resolve("northwinddb_20160113123000.trn");
+
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, first, 0);
+        coalescer.add(StandardWatchEventKinds.ENTRY_MODIFY, first, 500);
+
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, temp, 100);
+        coalescer.add(StandardWatchEventKinds.ENTRY_DELETE, temp, 600);
+        coalescer.add(StandardWatchEventKinds.ENTRY_CREATE, second, 600);
+
+        // The renamed log is ready, but the earlier one is not
+        Assert.assertEquals(900, coalescer.millisUntilReady(600));
+        Assert.assertTrue(coalescer.drain(600).isEmpty());
+
+        Assert.assertEquals(Arrays.asList(first, second), coalescer.drain(1500));
+        Assert.assertEquals(-1, coalescer.millisUntilReady(1500));
+    }
+}